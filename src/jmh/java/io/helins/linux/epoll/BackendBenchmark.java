@@ -0,0 +1,103 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import io.helins.linux.epoll.internal.NativeEpoll ;
+import java.io.IOException                        ;
+import java.util.concurrent.TimeUnit              ;
+import org.openjdk.jmh.annotations.Benchmark      ;
+import org.openjdk.jmh.annotations.BenchmarkMode  ;
+import org.openjdk.jmh.annotations.Fork           ;
+import org.openjdk.jmh.annotations.Level          ;
+import org.openjdk.jmh.annotations.Mode           ;
+import org.openjdk.jmh.annotations.OutputTimeUnit ;
+import org.openjdk.jmh.annotations.Scope          ;
+import org.openjdk.jmh.annotations.Setup          ;
+import org.openjdk.jmh.annotations.State          ;
+import org.openjdk.jmh.annotations.TearDown       ;
+
+
+
+
+/**
+ * Per system call overhead of each native backend.
+ * <p>
+ * The backend is selected once per JVM, hence each one runs in its own fork. On JDK < 22, both forks use JNA.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@State( Scope.Thread )
+public abstract class BackendBenchmark {
+
+
+    private Epoll       epoll   ;
+    private EpollEvents events  ;
+    private EpollEvent  event   ;
+    private EventFd     eventFd ;
+
+
+
+
+    @Setup( Level.Trial )
+    public void setup() throws IOException {
+
+        this.eventFd = new EventFd()         ;
+        this.events  = new EpollEvents( 16 ) ;
+        this.event   = new EpollEvent().setFlags( new EpollEvent.Flags().set( EpollEvent.Flag.EPOLLIN ) )
+                                       .setUserData( this.eventFd.fd )                                 ;
+        this.epoll   = new Epoll()           ;
+
+        this.epoll.add( this.eventFd.fd ,
+                        this.event      ) ;
+
+        this.eventFd.signal() ;
+    }
+
+
+
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws IOException {
+
+        this.epoll.close()   ;
+        this.eventFd.close() ;
+    }
+
+
+
+
+    @Benchmark
+    public int ctl() {
+
+        return this.epoll.tryModify( this.eventFd.fd ,
+                                     this.event      ) ;
+    }
+
+
+
+
+    @Benchmark
+    public int waitReady() {
+
+        return this.epoll.tryWait( this.events ,
+                                   0           ) ;
+    }
+
+
+
+
+    @Fork( jvmArgsAppend = "-D" + NativeEpoll.PROPERTY + "=jna" )
+    public static class Jna extends BackendBenchmark {}
+
+
+
+
+    @Fork( jvmArgsAppend = "-D" + NativeEpoll.PROPERTY + "=ffm" )
+    public static class Ffm extends BackendBenchmark {}
+}
@@ -0,0 +1,160 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import java.io.IOException                        ;
+import java.nio.channels.Pipe                     ;
+import java.nio.channels.SelectionKey             ;
+import java.nio.channels.Selector                 ;
+import java.util.concurrent.TimeUnit              ;
+import org.openjdk.jmh.annotations.Benchmark      ;
+import org.openjdk.jmh.annotations.BenchmarkMode  ;
+import org.openjdk.jmh.annotations.Fork           ;
+import org.openjdk.jmh.annotations.Level          ;
+import org.openjdk.jmh.annotations.Mode           ;
+import org.openjdk.jmh.annotations.OutputTimeUnit ;
+import org.openjdk.jmh.annotations.Scope          ;
+import org.openjdk.jmh.annotations.Setup          ;
+import org.openjdk.jmh.annotations.State          ;
+import org.openjdk.jmh.annotations.TearDown       ;
+
+
+
+
+/**
+ * Throughput of registrations, compared to a selector.
+ */
+@Fork( jvmArgsAppend = "--add-exports=java.base/sun.nio.ch=ALL-UNNAMED" )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@State( Scope.Thread )
+public class CtlBenchmark {
+
+
+    private Epoll           epoll      ;
+    private Epoll           pairEpoll  ;
+    private EpollChangeList changeList ;
+    private EpollEvent      in         ;
+    private EpollEvent      inOut      ;
+    private EventFd         eventFd    ;
+    private Pipe            pipe       ;
+    private int             pipeFd     ;
+    private Selector        selector   ;
+    private SelectionKey    key        ;
+
+
+
+
+    @Setup( Level.Trial )
+    public void setup() throws IOException ,
+                               ReflectiveOperationException {
+
+        this.eventFd = new EventFd() ;
+        this.in      = new EpollEvent().setFlags( new EpollEvent.Flags().set( EpollEvent.Flag.EPOLLIN ) )
+                                       .setUserData( this.eventFd.fd )                                 ;
+        this.inOut   = new EpollEvent().setFlags( new EpollEvent.Flags().set( EpollEvent.Flag.EPOLLIN  )
+                                                                        .set( EpollEvent.Flag.EPOLLOUT ) )
+                                       .setUserData( this.eventFd.fd )                                    ;
+
+        this.epoll = new Epoll() ;
+        this.epoll.add( this.eventFd.fd ,
+                        this.in         ) ;
+
+        // Separate instances for add/remove pairs and for the changelist.
+        //
+        this.pairEpoll  = new Epoll()                        ;
+        this.changeList = new EpollChangeList( new Epoll() ) ;
+
+        this.pipe = Pipe.open() ;
+        this.pipe.source().configureBlocking( false ) ;
+        this.pipeFd   = NioFds.fdOf( this.pipe.source() )                    ;
+        this.selector = Selector.open()                                      ;
+        this.key      = this.pipe.source().register( this.selector        ,
+                                                     SelectionKey.OP_READ ) ;
+    }
+
+
+
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws IOException {
+
+        this.selector.close()              ;
+        this.pipe.source().close()         ;
+        this.pipe.sink().close()           ;
+        this.changeList.getEpoll().close() ;
+        this.pairEpoll.close()             ;
+        this.epoll.close()                 ;
+        this.eventFd.close()               ;
+    }
+
+
+
+
+    @Benchmark
+    public void addRemove() throws IOException {
+
+        this.pairEpoll.add( this.pipeFd ,
+                            this.in     ) ;
+        this.pairEpoll.remove( this.pipeFd ) ;
+    }
+
+
+
+
+    @Benchmark
+    public int addRemoveTry() {
+
+        return   this.pairEpoll.tryAdd( this.pipeFd ,
+                                        this.in     )
+               + this.pairEpoll.tryRemove( this.pipeFd ) ;
+    }
+
+
+
+
+    @Benchmark
+    public void modifyToggle() throws IOException {
+
+        this.epoll.modify( this.eventFd.fd ,
+                           this.inOut      ) ;
+        this.epoll.modify( this.eventFd.fd ,
+                           this.in         ) ;
+    }
+
+
+
+
+    // Toggling EPOLLOUT twice between flushes, which results in no system call at all.
+    //
+    @Benchmark
+    public int modifyToggleChangeList() throws IOException {
+
+        this.changeList.set( this.pipeFd                        ,
+                             EpollEvent.Flag.EPOLLIN.getValue() ,
+                             this.pipeFd                        ) ;
+        this.changeList.enable( this.pipeFd              ,
+                                EpollEvent.Flag.EPOLLOUT ) ;
+        this.changeList.disable( this.pipeFd              ,
+                                 EpollEvent.Flag.EPOLLOUT ) ;
+
+        return this.changeList.flush() ;
+    }
+
+
+
+
+    @Benchmark
+    public SelectionKey selectorInterestToggle() {
+
+        this.key.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE ) ;
+
+        return this.key.interestOps( SelectionKey.OP_READ ) ;
+    }
+}
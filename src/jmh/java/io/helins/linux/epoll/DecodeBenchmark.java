@@ -0,0 +1,153 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import java.util.concurrent.TimeUnit              ;
+import org.openjdk.jmh.annotations.Benchmark      ;
+import org.openjdk.jmh.annotations.BenchmarkMode  ;
+import org.openjdk.jmh.annotations.Level          ;
+import org.openjdk.jmh.annotations.Mode           ;
+import org.openjdk.jmh.annotations.OutputTimeUnit ;
+import org.openjdk.jmh.annotations.Param          ;
+import org.openjdk.jmh.annotations.Scope          ;
+import org.openjdk.jmh.annotations.Setup          ;
+import org.openjdk.jmh.annotations.State          ;
+
+
+
+
+/**
+ * Cost of decoding a full buffer of events, as if a wait returned that many events.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@State( Scope.Thread )
+public class DecodeBenchmark {
+
+
+    @Param( { "1", "64", "1024", "65536" } )
+    public int size ;
+
+
+    private EpollEvents events   ;
+    private int[]       flags    ;
+    private long[]      userData ;
+
+
+
+
+    @Setup( Level.Trial )
+    public void setup() {
+
+        this.events   = new EpollEvents( this.size ) ;
+        this.flags    = new int[ this.size ]         ;
+        this.userData = new long[ this.size ]        ;
+
+        for ( int i = 0     ;
+              i < this.size ;
+              i += 1        ) {
+
+            this.events.getEpollEvent( i )
+                       .setRawFlags(   EpollEvent.Flag.EPOLLIN.getValue()
+                                     | ( i % 2 == 0 ? EpollEvent.Flag.EPOLLOUT.getValue() : 0 ) )
+                       .setUserData( i )                                                          ;
+        }
+    }
+
+
+
+
+    @Benchmark
+    public long epollEvent() {
+
+        long sum = 0 ;
+
+        for ( int i = 0     ;
+              i < this.size ;
+              i += 1        ) {
+
+            EpollEvent event = this.events.getEpollEvent( i ) ;
+
+            if ( event.getFlags().isSet( EpollEvent.Flag.EPOLLOUT ) ) {
+
+                sum += event.getUserData() ;
+            }
+        }
+
+        return sum ;
+    }
+
+
+
+
+    @Benchmark
+    public long indexed() {
+
+        long sum = 0 ;
+
+        for ( int i = 0     ;
+              i < this.size ;
+              i += 1        ) {
+
+            if ( EpollEvent.Flags.isSet( this.events.getRawFlags( i ) ,
+                                         EpollEvent.Flag.EPOLLOUT     ) ) {
+
+                sum += this.events.getUserData( i ) ;
+            }
+        }
+
+        return sum ;
+    }
+
+
+
+
+    @Benchmark
+    public long cursor() {
+
+        long               sum    = 0                              ;
+        EpollEvents.Cursor cursor = this.events.cursor( this.size ) ;
+
+        while ( cursor.next() ) {
+
+            if ( cursor.isSet( EpollEvent.Flag.EPOLLOUT ) ) {
+
+                sum += cursor.getUserData() ;
+            }
+        }
+
+        return sum ;
+    }
+
+
+
+
+    @Benchmark
+    public long decode() {
+
+        long sum = 0 ;
+        int  out = EpollEvent.Flag.EPOLLOUT.getValue() ;
+
+        this.events.decode( this.size     ,
+                            this.flags    ,
+                            this.userData ) ;
+
+        for ( int i = 0     ;
+              i < this.size ;
+              i += 1        ) {
+
+            if ( ( this.flags[ i ] & out ) != 0 ) {
+
+                sum += this.userData[ i ] ;
+            }
+        }
+
+        return sum ;
+    }
+}
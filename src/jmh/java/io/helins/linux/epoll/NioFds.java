@@ -0,0 +1,36 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import java.lang.reflect.Method            ;
+import java.nio.channels.SelectableChannel ;
+
+
+
+
+// Retrieves the file descriptor of NIO channels so that epoll and a selector can be compared on the same
+// file descriptors.
+//
+// Requires `--add-exports=java.base/sun.nio.ch=ALL-UNNAMED`, see the @Fork annotation of benchmarks using it.
+//
+final class NioFds {
+
+
+    private NioFds() {}
+
+
+
+
+    static int fdOf( SelectableChannel channel ) throws ReflectiveOperationException {
+
+        Method getFDVal = Class.forName( "sun.nio.ch.SelChImpl" ).getMethod( "getFDVal" ) ;
+
+        return (int)getFDVal.invoke( channel ) ;
+    }
+}
@@ -0,0 +1,169 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import java.io.IOException                        ;
+import java.nio.ByteBuffer                        ;
+import java.nio.channels.Pipe                     ;
+import java.nio.channels.SelectionKey             ;
+import java.nio.channels.Selector                 ;
+import java.util.concurrent.TimeUnit              ;
+import org.openjdk.jmh.annotations.Benchmark      ;
+import org.openjdk.jmh.annotations.BenchmarkMode  ;
+import org.openjdk.jmh.annotations.Fork           ;
+import org.openjdk.jmh.annotations.Level          ;
+import org.openjdk.jmh.annotations.Mode           ;
+import org.openjdk.jmh.annotations.OutputTimeUnit ;
+import org.openjdk.jmh.annotations.Scope          ;
+import org.openjdk.jmh.annotations.Setup          ;
+import org.openjdk.jmh.annotations.State          ;
+import org.openjdk.jmh.annotations.TearDown       ;
+
+
+
+
+/**
+ * Latency of a non-blocking wait, with or without ready file descriptors, compared to a selector.
+ * <p>
+ * Ready file descriptors are never drained, hence level-triggered readiness is reported by every wait.
+ */
+@Fork( jvmArgsAppend = "--add-exports=java.base/sun.nio.ch=ALL-UNNAMED" )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@State( Scope.Thread )
+public class WaitBenchmark {
+
+
+    private Epoll       epoll         ;
+    private Epoll       emptyEpoll    ;
+    private EpollEvents events        ;
+    private EventFd     eventFd       ;
+    private Pipe        pipe          ;
+    private Epoll       pipeEpoll     ;
+    private Selector    selector      ;
+    private Selector    emptySelector ;
+
+
+
+
+    @Setup( Level.Trial )
+    public void setup() throws IOException ,
+                               ReflectiveOperationException {
+
+        EpollEvent event = new EpollEvent().setFlags( new EpollEvent.Flags().set( EpollEvent.Flag.EPOLLIN ) ) ;
+
+        this.events     = new EpollEvents( 16 ) ;
+        this.emptyEpoll = new Epoll()           ;
+
+        // Eventfd, always readable.
+        //
+        this.eventFd = new EventFd() ;
+        this.eventFd.signal() ;
+
+        this.epoll = new Epoll() ;
+        this.epoll.add( this.eventFd.fd                     ,
+                        event.setUserData( this.eventFd.fd ) ) ;
+
+        // Pipe, always readable, monitored both by epoll and a selector.
+        //
+        this.pipe = Pipe.open() ;
+        this.pipe.sink().write( ByteBuffer.wrap( new byte[] { 42 } ) ) ;
+        this.pipe.source().configureBlocking( false ) ;
+
+        int pipeFd = NioFds.fdOf( this.pipe.source() ) ;
+
+        this.pipeEpoll = new Epoll() ;
+        this.pipeEpoll.add( pipeFd                     ,
+                            event.setUserData( pipeFd ) ) ;
+
+        this.selector = Selector.open() ;
+        this.pipe.source().register( this.selector        ,
+                                     SelectionKey.OP_READ ) ;
+
+        this.emptySelector = Selector.open() ;
+    }
+
+
+
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws IOException {
+
+        this.selector.close()      ;
+        this.emptySelector.close() ;
+        this.pipe.source().close() ;
+        this.pipe.sink().close()   ;
+        this.pipeEpoll.close()     ;
+        this.epoll.close()         ;
+        this.emptyEpoll.close()    ;
+        this.eventFd.close()       ;
+    }
+
+
+
+
+    @Benchmark
+    public int epollEmpty() throws IOException {
+
+        return this.emptyEpoll.wait( this.events ,
+                                     0           ) ;
+    }
+
+
+
+
+    @Benchmark
+    public int epollEventFd() throws IOException {
+
+        return this.epoll.wait( this.events ,
+                                0           ) ;
+    }
+
+
+
+
+    @Benchmark
+    public int epollPipe() throws IOException {
+
+        return this.pipeEpoll.wait( this.events ,
+                                    0           ) ;
+    }
+
+
+
+
+    @Benchmark
+    public int epollPipeTry() {
+
+        return this.pipeEpoll.tryWait( this.events ,
+                                       0           ) ;
+    }
+
+
+
+
+    @Benchmark
+    public int selectorEmpty() throws IOException {
+
+        return this.emptySelector.selectNow() ;
+    }
+
+
+
+
+    @Benchmark
+    public int selectorPipe() throws IOException {
+
+        int n = this.selector.selectNow() ;
+
+        this.selector.selectedKeys().clear() ;
+
+        return n ;
+    }
+}
@@ -0,0 +1,228 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import com.sun.jna.Memory                              ;
+import io.helins.linux.epoll.EpollEvent                ;
+import io.helins.linux.epoll.EpollEvents               ;
+import io.helins.linux.epoll.internal.NativeEpollEvent ;
+import java.nio.ByteBuffer                             ;
+import java.nio.ByteOrder                              ;
+
+
+
+
+/**
+ * Class representing epoll events whose number adapts to the load, between configurable bounds.
+ * <p>
+ * When waits repeatedly fill the whole buffer, meaning more events were probably pending, the size doubles so that
+ * bursts are drained in fewer system calls. When waits keep returning only a few events, the size is halved.
+ * <p>
+ * Resizing happens right after a wait, the events it reported remain readable. Native memory is kept once allocated
+ * and reused when growing again, it never exceeds what the maximum size requires. However, {@link EpollEvent}
+ * instances retrieved before a resize must not be used afterwards, they should be retrieved after each wait.
+ */
+public class AdaptiveEpollEvents extends EpollEvents {
+
+
+    /**
+     * Default number of consecutive full waits before growing.
+     */
+    public static final int DEFAULT_GROW_THRESHOLD   = 2  ;
+
+    /**
+     * Default number of consecutive waits using at most a quarter of the buffer before shrinking.
+     */
+    public static final int DEFAULT_SHRINK_THRESHOLD = 64 ;
+
+
+
+
+    // Bounds of the size.
+    //
+    private final int minSize         ;
+    private final int maxSize         ;
+
+    // Thresholds for resizing.
+    //
+    private final int growThreshold   ;
+    private final int shrinkThreshold ;
+
+    // Consecutive waits which filled the buffer.
+    //
+    private int       fullWaits       ;
+
+    // Consecutive waits which used at most a quarter of the buffer.
+    //
+    private int       sparseWaits     ;
+
+
+
+
+    /**
+     * Allocates events adapting between the given bounds, with the default thresholds.
+     *
+     * @param   minSize
+     *            Minimum number of events, also the initial one.
+     *
+     * @param   maxSize
+     *            Maximum number of events.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>minSize</strong> is less than 1 or greater than <strong>maxSize</strong>.
+     */
+    public AdaptiveEpollEvents( int minSize ,
+                                int maxSize ) {
+
+        this( minSize                  ,
+              maxSize                  ,
+              DEFAULT_GROW_THRESHOLD   ,
+              DEFAULT_SHRINK_THRESHOLD ) ;
+    }
+
+
+
+
+    /**
+     * Allocates events adapting between the given bounds.
+     *
+     * @param   minSize
+     *            Minimum number of events, also the initial one.
+     *
+     * @param   maxSize
+     *            Maximum number of events.
+     *
+     * @param   growThreshold
+     *            How many consecutive waits must fill the buffer before it grows.
+     *
+     * @param   shrinkThreshold
+     *            How many consecutive waits must use at most a quarter of the buffer before it shrinks.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>minSize</strong> is less than 1 or greater than <strong>maxSize</strong>, or when a
+     *            threshold is less than 1.
+     */
+    public AdaptiveEpollEvents( int minSize         ,
+                                int maxSize         ,
+                                int growThreshold   ,
+                                int shrinkThreshold ) {
+
+        super( minSize ) ;
+
+        if ( maxSize < minSize ) {
+
+            throw new IllegalArgumentException( "Maximum number of epoll events must be >= minimum" ) ;
+        }
+
+        if ( growThreshold < 1 || shrinkThreshold < 1 ) {
+
+            throw new IllegalArgumentException( "Thresholds must be >= 1" ) ;
+        }
+
+        this.minSize         = minSize         ;
+        this.maxSize         = maxSize         ;
+        this.growThreshold   = growThreshold   ;
+        this.shrinkThreshold = shrinkThreshold ;
+    }
+
+
+
+
+    /**
+     * Retrieves the minimum number of events.
+     *
+     * @return  The lower bound of the size.
+     */
+    public int getMinSize() {
+
+        return this.minSize ;
+    }
+
+
+
+
+    /**
+     * Retrieves the maximum number of events.
+     *
+     * @return  The upper bound of the size.
+     */
+    public int getMaxSize() {
+
+        return this.maxSize ;
+    }
+
+
+
+
+    @Override
+    void afterWait( int n ) {
+
+        if ( n == this.size ) {
+
+            this.sparseWaits  = 0 ;
+            this.fullWaits   += 1 ;
+
+            if ( this.fullWaits >= this.growThreshold && this.size < this.maxSize ) {
+
+                this.fullWaits = 0 ;
+
+                this.resize( (int)Math.min( this.size * 2L  ,
+                                            this.maxSize    ) ,
+                             n                                ) ;
+            }
+        }
+        else if ( n <= this.size / 4 ) {
+
+            this.fullWaits    = 0 ;
+            this.sparseWaits += 1 ;
+
+            if ( this.sparseWaits >= this.shrinkThreshold && this.size > this.minSize ) {
+
+                this.sparseWaits = 0 ;
+
+                this.resize( Math.max( this.size / 2  ,
+                                       this.minSize   ) ,
+                             n                          ) ;
+            }
+        }
+        else {
+
+            this.fullWaits   = 0 ;
+            this.sparseWaits = 0 ;
+        }
+    }
+
+
+
+
+    // Changes the number of events, keeping the first `n` ones readable.
+    //
+    private void resize( int size ,
+                         int n    ) {
+
+        if ( (long)size * NativeEpollEvent.SIZE > this.memory.size() ) {
+
+            Memory     memory   = new Memory( (long)size * NativeEpollEvent.SIZE ) ;
+            ByteBuffer buffer   = memory.getByteBuffer( 0             ,
+                                                        memory.size() )
+                                        .order( ByteOrder.nativeOrder() )     ;
+            ByteBuffer previous = this.buffer.duplicate()                     ;
+
+            previous.limit( n * NativeEpollEvent.SIZE ) ;
+            buffer.put( previous )                      ;
+            buffer.clear()                              ;
+
+            this.memory = memory                 ;
+            this.buffer = buffer                 ;
+            this.events = new EpollEvent[ size ] ;
+        }
+
+        this.size = size ;
+    }
+}
@@ -0,0 +1,328 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import java.util.Arrays ;
+
+
+
+
+/**
+ * Class representing a table of attachments identified by compact long tokens, meant to be used as the user data of
+ * epoll events.
+ * <p>
+ * Rather than a map from user data to some state, which boxes keys and chases pointers for every event, attachments
+ * are stored in a slot array. A token holds the index of its slot in its lower 32 bits and the generation of that
+ * slot in its upper 32 bits. Looking up a token is a bound check, a generation check and an array access, no hashing
+ * nor boxing. The generation of a slot is incremented when its attachment is removed, hence a token which is still
+ * around afterwards, typically in an event reported by a wait which happened before the removal, resolves to nothing
+ * instead of the attachment which reused the slot :
+ * <pre>{@code
+ * long token = table.put( handler ) ;
+ *
+ * epoll.add( fd                                              ,
+ *            event.setFlags( flags )
+ *                 .setUserData( token )                      ) ;
+ *
+ * // When dispatching :
+ *
+ * Handler handler = table.get( cursor.getUserData() ) ;
+ *
+ * if ( handler != null ) {
+ *
+ *     handler.handle( ... ) ;
+ * }
+ * }</pre>
+ * <p>
+ * Freed slots are reused in LIFO order, keeping the table dense and cache-friendly even with hundreds of thousands
+ * of attachments. A token is never 0, which can be used as user data meaning "nothing attached".
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <T> Type of the attachments.
+ */
+public class AttachmentTable< T > {
+
+
+    // Marks the end of the free list.
+    //
+    private static final int NONE = -1 ;
+
+
+
+
+    // Attachments by slot.
+    //
+    private Object[] values      ;
+
+    // Current generation of each slot, never 0.
+    //
+    private int[]    generations ;
+
+    // Next free slot, for each free slot.
+    //
+    private int[]    nextFree    ;
+
+    // First free slot.
+    //
+    private int      freeHead    ;
+
+    // How many slots have ever been used.
+    //
+    private int      used        ;
+
+    // How many attachments are stored.
+    //
+    private int      size        ;
+
+
+
+
+    /**
+     * Creates a table with an initial capacity of 64 attachments.
+     */
+    public AttachmentTable() {
+
+        this( 64 ) ;
+    }
+
+
+
+
+    /**
+     * Creates a table.
+     *
+     * @param   capacity
+     *            Initial capacity, the table grows as needed.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>capacity</strong> is less than 1.
+     */
+    public AttachmentTable( int capacity ) {
+
+        if ( capacity < 1 ) {
+
+            throw new IllegalArgumentException( "Capacity must be >= 1" ) ;
+        }
+
+        this.values      = new Object[ capacity ] ;
+        this.generations = new int[ capacity ]    ;
+        this.nextFree    = new int[ capacity ]    ;
+        this.freeHead    = NONE                   ;
+    }
+
+
+
+
+    /**
+     * Retrieves how many attachments are stored.
+     *
+     * @return  The number of attachments.
+     */
+    public int size() {
+
+        return this.size ;
+    }
+
+
+
+
+    /**
+     * Stores an attachment and returns a token identifying it.
+     *
+     * @param   value
+     *            Attachment.
+     *
+     * @return  A token, never 0.
+     *
+     * @throws  NullPointerException
+     *            When <strong>value</strong> is null.
+     */
+    public long put( T value ) {
+
+        if ( value == null ) {
+
+            throw new NullPointerException( "Attachment must not be null" ) ;
+        }
+
+        int slot = this.freeHead ;
+
+        if ( slot == NONE ) {
+
+            if ( this.used == this.values.length ) {
+
+                int capacity = this.values.length * 2 ;
+
+                this.values      = Arrays.copyOf( this.values      ,
+                                                  capacity         ) ;
+                this.generations = Arrays.copyOf( this.generations ,
+                                                  capacity         ) ;
+                this.nextFree    = Arrays.copyOf( this.nextFree    ,
+                                                  capacity         ) ;
+            }
+
+            slot                      = this.used ;
+            this.generations[ slot ]  = 1         ;
+            this.used                += 1         ;
+        }
+        else {
+
+            this.freeHead = this.nextFree[ slot ] ;
+        }
+
+        this.values[ slot ]  = value ;
+        this.size           += 1     ;
+
+        return token( slot                     ,
+                      this.generations[ slot ] ) ;
+    }
+
+
+
+
+    // Builds a token.
+    //
+    private static long token( int slot       ,
+                               int generation ) {
+
+        return ( (long)generation << 32 ) | ( slot & 0xFFFFFFFFL ) ;
+    }
+
+
+
+
+    // Retrieves the slot of a token if it is still valid, NONE otherwise.
+    //
+    private int slot( long token ) {
+
+        int slot = (int)token ;
+
+        if (    slot < 0
+             || slot >= this.used
+             || this.generations[ slot ] != (int)( token >>> 32 )
+             || this.values[ slot ] == null                       ) {
+
+            return NONE ;
+        }
+
+        return slot ;
+    }
+
+
+
+
+    /**
+     * Retrieves the attachment identified by the given token.
+     *
+     * @param   token
+     *            Token returned by {@link #put( Object )}, typically retrieved as user data.
+     *
+     * @return  The attachment, or null if it has been removed.
+     */
+    @SuppressWarnings( "unchecked" )
+    public T get( long token ) {
+
+        int slot = this.slot( token ) ;
+
+        return slot == NONE ? null
+                            : (T)this.values[ slot ] ;
+    }
+
+
+
+
+    /**
+     * Is the given token still identifying an attachment ?
+     *
+     * @param   token
+     *            Token returned by {@link #put( Object )}.
+     *
+     * @return  True if the attachment has not been removed.
+     */
+    public boolean contains( long token ) {
+
+        return this.slot( token ) != NONE ;
+    }
+
+
+
+
+    /**
+     * Replaces the attachment identified by the given token, the token remains the same.
+     *
+     * @param   token
+     *            Token returned by {@link #put( Object )}.
+     *
+     * @param   value
+     *            New attachment.
+     *
+     * @return  The previous attachment, or null if the token is stale in which case nothing is replaced.
+     *
+     * @throws  NullPointerException
+     *            When <strong>value</strong> is null.
+     */
+    @SuppressWarnings( "unchecked" )
+    public T replace( long token ,
+                      T    value ) {
+
+        if ( value == null ) {
+
+            throw new NullPointerException( "Attachment must not be null" ) ;
+        }
+
+        int slot = this.slot( token ) ;
+
+        if ( slot == NONE ) {
+
+            return null ;
+        }
+
+        T previous = (T)this.values[ slot ] ;
+
+        this.values[ slot ] = value ;
+
+        return previous ;
+    }
+
+
+
+
+    /**
+     * Removes the attachment identified by the given token, which becomes stale forever.
+     *
+     * @param   token
+     *            Token returned by {@link #put( Object )}.
+     *
+     * @return  The removed attachment, or null if the token was already stale.
+     */
+    @SuppressWarnings( "unchecked" )
+    public T remove( long token ) {
+
+        int slot = this.slot( token ) ;
+
+        if ( slot == NONE ) {
+
+            return null ;
+        }
+
+        T previous = (T)this.values[ slot ] ;
+
+        // Skips 0 when wrapping around so that a token is never 0.
+        //
+        int generation = this.generations[ slot ] + 1 ;
+
+        this.generations[ slot ]  = generation == 0 ? 1 : generation ;
+        this.values[ slot ]       = null                             ;
+        this.nextFree[ slot ]     = this.freeHead                    ;
+        this.freeHead             = slot                             ;
+        this.size                -= 1                                ;
+
+        return previous ;
+    }
+}
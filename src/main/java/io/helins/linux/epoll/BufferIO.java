@@ -0,0 +1,653 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import com.sun.jna.Memory                      ;
+import com.sun.jna.Native                      ;
+import com.sun.jna.Pointer                     ;
+import io.helins.linux.Linux                   ;
+import io.helins.linux.epoll.internal.NativeIO ;
+import io.helins.linux.errno.Errno             ;
+import java.io.IOException                     ;
+import java.lang.invoke.MethodHandle           ;
+import java.lang.invoke.MethodHandles          ;
+import java.lang.invoke.MethodType             ;
+import java.lang.reflect.Method                ;
+import java.nio.ByteBuffer                     ;
+import java.nio.ReadOnlyBufferException        ;
+
+
+
+
+/**
+ * Class for reading and writing file descriptors reported ready, directly from and into off-heap memory.
+ * <p>
+ * Bytes go straight between the kernel and direct buffers, without any intermediate copy. As with non-blocking
+ * channels, a file descriptor which is not ready (EAGAIN) is reported by returning 0 rather than by throwing, and
+ * reading returns -1 at the end of the stream. Interrupted calls (EINTR) are retried transparently.
+ * <p>
+ * Besides direct buffers, raw addresses are accepted, for instance the address of a native memory segment on JDK 22+
+ * (<code>segment.address()</code>, <code>segment.byteSize()</code>).
+ * <p>
+ * Addresses and struct iovec are handled as 64-bit, hence a 32-bit system is not supported: constructors and methods
+ * then throw {@link UnsupportedOperationException} rather than corrupting memory.
+ * <p>
+ * Retrieving the address of a direct buffer without allocating relies on JDK internals, the JVM should run with
+ * <code>--add-exports=java.base/sun.nio.ch=ALL-UNNAMED</code> (or the name of the module using this library).
+ * Otherwise, it still works but JNA allocates a small object per buffer and per call. Raw addresses never allocate.
+ * <p>
+ * Reading and writing single buffers are static methods. Vectored I/O needs a native array of struct iovec, hence
+ * it requires an instance which reuses its own. An instance is not thread-safe.
+ */
+public class BufferIO {
+
+
+    /**
+     * Default number of buffers at most per vectored call.
+     */
+    public static final int DEFAULT_MAX_BUFFERS = 16 ;
+
+
+
+
+    // Size of native struct iovec.
+    //
+    private static final int          SIZE_IOVEC = 16                  ;
+
+    // Handle retrieving the address of a direct buffer, null when JDK internals are not accessible.
+    //
+    private static final MethodHandle ADDRESS    = findDirectAddress() ;
+
+
+
+
+    // Reusable native array of struct iovec.
+    //
+    private final Memory iovecs     ;
+
+    // How many structs it holds.
+    //
+    private final int    maxBuffers ;
+
+
+
+
+    /**
+     * Creates an instance for vectored I/O handling at most {@link #DEFAULT_MAX_BUFFERS} buffers per call.
+     */
+    public BufferIO() {
+
+        this( DEFAULT_MAX_BUFFERS ) ;
+    }
+
+
+
+
+    /**
+     * Creates an instance for vectored I/O.
+     *
+     * @param   maxBuffers
+     *            How many buffers at most per call, extra buffers are left for the next call.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>maxBuffers</strong> is less than 1.
+     *
+     * @throws  UnsupportedOperationException
+     *            When the system is not 64-bit.
+     */
+    public BufferIO( int maxBuffers ) {
+
+        guard64() ;
+
+        if ( maxBuffers < 1 ) {
+
+            throw new IllegalArgumentException( "Maximum number of buffers must be >= 1" ) ;
+        }
+
+        this.iovecs     = new Memory( (long)maxBuffers * SIZE_IOVEC ) ;
+        this.maxBuffers = maxBuffers                                  ;
+    }
+
+
+
+
+    // Fails fast on a system which is not 64-bit.
+    //
+    private static void guard64() {
+
+        if ( NativeIO.IS_64_BIT == false ) {
+
+            throw new UnsupportedOperationException( "Buffer I/O requires a 64-bit system" ) ;
+        }
+    }
+
+
+
+
+    // Looks up DirectBuffer#address.
+    //
+    private static MethodHandle findDirectAddress() {
+
+        try {
+
+            Method address = Class.forName( "sun.nio.ch.DirectBuffer" ).getMethod( "address" ) ;
+
+            return MethodHandles.lookup()
+                                .unreflect( address )
+                                .asType( MethodType.methodType( long.class       ,
+                                                                ByteBuffer.class ) ) ;
+        }
+        catch ( ReflectiveOperationException | RuntimeException e ) {
+
+            return null ;
+        }
+    }
+
+
+
+
+    // Retrieves the address of the position of a direct buffer.
+    //
+    private static long address( ByteBuffer buffer ) {
+
+        if ( buffer.isDirect() == false ) {
+
+            throw new IllegalArgumentException( "Buffer must be direct" ) ;
+        }
+
+        if ( ADDRESS == null ) {
+
+            // Allocates a Pointer.
+            //
+            return Pointer.nativeValue( Native.getDirectBufferPointer( buffer ) ) + buffer.position() ;
+        }
+
+        try {
+
+            return (long)ADDRESS.invokeExact( buffer ) + buffer.position() ;
+        }
+        catch ( Throwable e ) {
+
+            throw new IllegalStateException( "Unable to retrieve address of direct buffer" ,
+                                             e                                             ) ;
+        }
+    }
+
+
+
+
+    /**
+     * Reads bytes from a file descriptor into the remaining part of a direct buffer, advancing its position.
+     *
+     * @param   fd
+     *            File descriptor, typically non-blocking.
+     *
+     * @param   buffer
+     *            Direct buffer.
+     *
+     * @return  How many bytes have been read, 0 if the file descriptor is not ready or the buffer is full,
+     *          -1 at the end of the stream.
+     *
+     * @throws  IllegalArgumentException
+     *            When the buffer is not direct.
+     *
+     * @throws  ReadOnlyBufferException
+     *            When the buffer is read-only.
+     *
+     * @throws  IOException
+     *            When reading fails.
+     */
+    public static int read( int        fd     ,
+                            ByteBuffer buffer ) throws IOException {
+
+        if ( buffer.isReadOnly() ) {
+
+            throw new ReadOnlyBufferException() ;
+        }
+
+        int remaining = buffer.remaining() ;
+
+        if ( remaining == 0 ) {
+
+            return 0 ;
+        }
+
+        int n = read( fd                ,
+                      address( buffer ) ,
+                      remaining         ) ;
+
+        if ( n > 0 ) {
+
+            buffer.position( buffer.position() + n ) ;
+        }
+
+        return n ;
+    }
+
+
+
+
+    /**
+     * Reads bytes from a file descriptor into native memory.
+     *
+     * @param   fd
+     *            File descriptor, typically non-blocking.
+     *
+     * @param   address
+     *            Address of native memory.
+     *
+     * @param   length
+     *            How many bytes at most.
+     *
+     * @return  How many bytes have been read, 0 if the file descriptor is not ready or the length is 0,
+     *          -1 at the end of the stream.
+     *
+     * @throws  IOException
+     *            When reading fails.
+     */
+    public static int read( int  fd      ,
+                            long address ,
+                            int  length  ) throws IOException {
+
+        guard64() ;
+
+        while ( true ) {
+
+            int n = NativeIO.read( fd      ,
+                                   address ,
+                                   length  ) ;
+
+            if ( n >= 0 ) {
+
+                return n == 0 && length > 0 ? -1
+                                            : n  ;
+            }
+
+            int errno = Linux.getErrno() ;
+
+            switch ( errno ) {
+
+                case Errno.EINTR  : continue                                                               ;
+
+                case Errno.EAGAIN : return 0                                                               ;
+
+                default           : throw new IOException( "Native error while reading : errno " + errno ) ;
+            }
+        }
+    }
+
+
+
+
+    /**
+     * Writes the remaining bytes of a direct buffer to a file descriptor, advancing its position.
+     *
+     * @param   fd
+     *            File descriptor, typically non-blocking.
+     *
+     * @param   buffer
+     *            Direct buffer.
+     *
+     * @return  How many bytes have been written, 0 if the file descriptor is not ready.
+     *
+     * @throws  IllegalArgumentException
+     *            When the buffer is not direct.
+     *
+     * @throws  IOException
+     *            When writing fails.
+     */
+    public static int write( int        fd     ,
+                             ByteBuffer buffer ) throws IOException {
+
+        int remaining = buffer.remaining() ;
+
+        if ( remaining == 0 ) {
+
+            return 0 ;
+        }
+
+        int n = write( fd                ,
+                       address( buffer ) ,
+                       remaining         ) ;
+
+        buffer.position( buffer.position() + n ) ;
+
+        return n ;
+    }
+
+
+
+
+    /**
+     * Writes bytes from native memory to a file descriptor.
+     *
+     * @param   fd
+     *            File descriptor, typically non-blocking.
+     *
+     * @param   address
+     *            Address of native memory.
+     *
+     * @param   length
+     *            How many bytes at most.
+     *
+     * @return  How many bytes have been written, 0 if the file descriptor is not ready.
+     *
+     * @throws  IOException
+     *            When writing fails.
+     */
+    public static int write( int  fd      ,
+                             long address ,
+                             int  length  ) throws IOException {
+
+        guard64() ;
+
+        while ( true ) {
+
+            int n = NativeIO.write( fd      ,
+                                    address ,
+                                    length  ) ;
+
+            if ( n >= 0 ) {
+
+                return n ;
+            }
+
+            int errno = Linux.getErrno() ;
+
+            switch ( errno ) {
+
+                case Errno.EINTR  : continue                                                               ;
+
+                case Errno.EAGAIN : return 0                                                               ;
+
+                default           : throw new IOException( "Native error while writing : errno " + errno ) ;
+            }
+        }
+    }
+
+
+
+
+    // Describes the remaining part of buffers in the native array of struct iovec, returns how many structs.
+    //
+    private int fill( ByteBuffer[] buffers ,
+                      int          offset  ,
+                      int          length  ) {
+
+        int count = Math.min( length          ,
+                              this.maxBuffers ) ;
+
+        for ( int i = 0 ;
+              i < count ;
+              i += 1    ) {
+
+            ByteBuffer buffer = buffers[ offset + i ] ;
+
+            this.iovecs.setLong( i * SIZE_IOVEC     ,
+                                 address( buffer )  ) ;
+            this.iovecs.setLong( i * SIZE_IOVEC + 8 ,
+                                 buffer.remaining() ) ;
+        }
+
+        return count ;
+    }
+
+
+
+
+    // Advances the positions of buffers after `n` bytes have been transferred.
+    //
+    private static void advance( ByteBuffer[] buffers ,
+                                 int          offset  ,
+                                 long         n       ) {
+
+        for ( int i = offset ;
+              n > 0          ;
+              i += 1         ) {
+
+            ByteBuffer buffer = buffers[ i ]                        ;
+            int        step   = (int)Math.min( n                  ,
+                                               buffer.remaining() ) ;
+
+            buffer.position( buffer.position() + step ) ;
+
+            n -= step ;
+        }
+    }
+
+
+
+
+    /**
+     * Reads bytes from a file descriptor into several direct buffers, filled in order (scatter).
+     *
+     * @param   fd
+     *            File descriptor, typically non-blocking.
+     *
+     * @param   buffers
+     *            Direct buffers.
+     *
+     * @return  How many bytes have been read, 0 if the file descriptor is not ready or the buffers are full,
+     *          -1 at the end of the stream.
+     *
+     * @throws  IllegalArgumentException
+     *            When a buffer is not direct.
+     *
+     * @throws  ReadOnlyBufferException
+     *            When a buffer is read-only.
+     *
+     * @throws  IOException
+     *            When reading fails.
+     *
+     * @see     #readv( int, ByteBuffer[], int, int )
+     */
+    public long readv( int          fd      ,
+                       ByteBuffer[] buffers ) throws IOException {
+
+        return this.readv( fd             ,
+                           buffers        ,
+                           0              ,
+                           buffers.length ) ;
+    }
+
+
+
+
+    /**
+     * Reads bytes from a file descriptor into a subsequence of direct buffers, filled in order (scatter).
+     * <p>
+     * At most as many buffers as set when creating this instance are filled per call.
+     *
+     * @param   fd
+     *            File descriptor, typically non-blocking.
+     *
+     * @param   buffers
+     *            Direct buffers.
+     *
+     * @param   offset
+     *            Index of the first buffer.
+     *
+     * @param   length
+     *            How many buffers.
+     *
+     * @return  How many bytes have been read, 0 if the file descriptor is not ready or the buffers are full,
+     *          -1 at the end of the stream.
+     *
+     * @throws  IllegalArgumentException
+     *            When a buffer is not direct.
+     *
+     * @throws  ReadOnlyBufferException
+     *            When a buffer is read-only.
+     *
+     * @throws  IOException
+     *            When reading fails.
+     */
+    public long readv( int          fd      ,
+                       ByteBuffer[] buffers ,
+                       int          offset  ,
+                       int          length  ) throws IOException {
+
+        int  count     = this.fill( buffers ,
+                                    offset  ,
+                                    length  ) ;
+        long remaining = 0                    ;
+
+        for ( int i = offset     ;
+              i < offset + count ;
+              i += 1             ) {
+
+            if ( buffers[ i ].isReadOnly() ) {
+
+                throw new ReadOnlyBufferException() ;
+            }
+
+            remaining += buffers[ i ].remaining() ;
+        }
+
+        // Reading nothing would look like the end of the stream.
+        //
+        if ( remaining == 0 ) {
+
+            return 0 ;
+        }
+
+        while ( true ) {
+
+            long n = NativeIO.readv( fd          ,
+                                     this.iovecs ,
+                                     count       ) ;
+
+            if ( n > 0 ) {
+
+                advance( buffers ,
+                         offset  ,
+                         n       ) ;
+
+                return n ;
+            }
+
+            if ( n == 0 ) {
+
+                return -1 ;
+            }
+
+            int errno = Linux.getErrno() ;
+
+            switch ( errno ) {
+
+                case Errno.EINTR  : continue                                                               ;
+
+                case Errno.EAGAIN : return 0                                                               ;
+
+                default           : throw new IOException( "Native error while reading : errno " + errno ) ;
+            }
+        }
+    }
+
+
+
+
+    /**
+     * Writes the remaining bytes of several direct buffers to a file descriptor, in order (gather).
+     *
+     * @param   fd
+     *            File descriptor, typically non-blocking.
+     *
+     * @param   buffers
+     *            Direct buffers.
+     *
+     * @return  How many bytes have been written, 0 if the file descriptor is not ready.
+     *
+     * @throws  IllegalArgumentException
+     *            When a buffer is not direct.
+     *
+     * @throws  IOException
+     *            When writing fails.
+     *
+     * @see     #writev( int, ByteBuffer[], int, int )
+     */
+    public long writev( int          fd      ,
+                        ByteBuffer[] buffers ) throws IOException {
+
+        return this.writev( fd             ,
+                            buffers        ,
+                            0              ,
+                            buffers.length ) ;
+    }
+
+
+
+
+    /**
+     * Writes the remaining bytes of a subsequence of direct buffers to a file descriptor, in order (gather).
+     * <p>
+     * At most as many buffers as set when creating this instance are written per call.
+     *
+     * @param   fd
+     *            File descriptor, typically non-blocking.
+     *
+     * @param   buffers
+     *            Direct buffers.
+     *
+     * @param   offset
+     *            Index of the first buffer.
+     *
+     * @param   length
+     *            How many buffers.
+     *
+     * @return  How many bytes have been written, 0 if the file descriptor is not ready.
+     *
+     * @throws  IllegalArgumentException
+     *            When a buffer is not direct.
+     *
+     * @throws  IOException
+     *            When writing fails.
+     */
+    public long writev( int          fd      ,
+                        ByteBuffer[] buffers ,
+                        int          offset  ,
+                        int          length  ) throws IOException {
+
+        if ( length == 0 ) {
+
+            return 0 ;
+        }
+
+        int count = this.fill( buffers ,
+                               offset  ,
+                               length  ) ;
+
+        while ( true ) {
+
+            long n = NativeIO.writev( fd          ,
+                                      this.iovecs ,
+                                      count       ) ;
+
+            if ( n >= 0 ) {
+
+                advance( buffers ,
+                         offset  ,
+                         n       ) ;
+
+                return n ;
+            }
+
+            int errno = Linux.getErrno() ;
+
+            switch ( errno ) {
+
+                case Errno.EINTR  : continue                                                               ;
+
+                case Errno.EAGAIN : return 0                                                               ;
+
+                default           : throw new IOException( "Native error while writing : errno " + errno ) ;
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import io.helins.linux.epoll.Epoll       ;
+import io.helins.linux.epoll.EpollEvents ;
+import java.io.IOException               ;
+import java.util.concurrent.TimeUnit     ;
+
+
+
+
+/**
+ * Class representing a spin-then-block wait strategy, trading CPU for latency.
+ * <p>
+ * Waking up from a blocking wait costs tens of microseconds. Instead, this strategy first polls without blocking
+ * during a bounded budget, measured in time and in iterations, and only then falls back to a blocking wait for the
+ * rest of the timeout.
+ * <p>
+ * The time budget adapts to the observed event rate, between a minimum and a maximum. Each time events are found
+ * while spinning, the budget doubles, and each time spinning is vain, it is halved. When events are frequent,
+ * spinning catches them. When they are scarce, little CPU is burnt. Unless spinning is disabled, at least one
+ * non-blocking wait is performed.
+ * <p>
+ * An instance holds the state of the adaptation, hence it should not be shared between threads. It can be used
+ * directly or given to an {@link EpollEventLoop}.
+ *
+ * @see EpollEventLoop#setBusyPoll( BusyPoll )
+ */
+public class BusyPoll {
+
+
+    /**
+     * Default minimum time budget in nanoseconds.
+     */
+    public static final long DEFAULT_MIN_SPIN_NANOS = 1_000   ;
+
+    /**
+     * Default maximum time budget in nanoseconds.
+     */
+    public static final long DEFAULT_MAX_SPIN_NANOS = 100_000 ;
+
+
+
+
+    // Bounds of the time budget.
+    //
+    private long    minSpinNanos   ;
+    private long    maxSpinNanos   ;
+
+    // Maximum number of non-blocking waits while spinning.
+    //
+    private int     maxIterations  ;
+
+    // Is Thread.onSpinWait() called between non-blocking waits ?
+    //
+    private boolean isSpinWaitHint ;
+
+    // Current time budget.
+    //
+    private long    spinNanos      ;
+
+
+
+
+    /**
+     * Creates a strategy with a time budget adapting between {@link #DEFAULT_MIN_SPIN_NANOS} and
+     * {@link #DEFAULT_MAX_SPIN_NANOS}, without limit on iterations and calling {@link Thread#onSpinWait()}.
+     */
+    public BusyPoll() {
+
+        this.minSpinNanos   = DEFAULT_MIN_SPIN_NANOS ;
+        this.maxSpinNanos   = DEFAULT_MAX_SPIN_NANOS ;
+        this.maxIterations  = Integer.MAX_VALUE      ;
+        this.isSpinWaitHint = true                   ;
+        this.spinNanos      = DEFAULT_MIN_SPIN_NANOS ;
+    }
+
+
+
+
+    /**
+     * Sets the bounds of the time budget, resetting it to the minimum.
+     * <p>
+     * Using the same value for both disables adaptation, 0 disables spinning altogether.
+     *
+     * @param   min
+     *            Minimum time spent spinning before blocking.
+     *
+     * @param   max
+     *            Maximum time spent spinning before blocking.
+     *
+     * @param   unit
+     *            Unit of <strong>min</strong> and <strong>max</strong>.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>min</strong> is negative or greater than <strong>max</strong>.
+     */
+    public BusyPoll setSpinBudget( long     min  ,
+                                   long     max  ,
+                                   TimeUnit unit ) {
+
+        if ( min < 0 || min > max ) {
+
+            throw new IllegalArgumentException( "Spin budget must be such that 0 <= min <= max" ) ;
+        }
+
+        this.minSpinNanos = unit.toNanos( min ) ;
+        this.maxSpinNanos = unit.toNanos( max ) ;
+        this.spinNanos    = this.minSpinNanos   ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Sets how many non-blocking waits at most are performed while spinning, whatever the time budget.
+     *
+     * @param   maxIterations
+     *            Maximum number of iterations, 0 disables spinning.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>maxIterations</strong> is negative.
+     */
+    public BusyPoll setMaxIterations( int maxIterations ) {
+
+        if ( maxIterations < 0 ) {
+
+            throw new IllegalArgumentException( "Maximum number of iterations must be >= 0" ) ;
+        }
+
+        this.maxIterations = maxIterations ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Sets whether {@link Thread#onSpinWait()} is called between non-blocking waits.
+     *
+     * @param   isSpinWaitHint
+     *            True for calling it.
+     *
+     * @return  This instance.
+     */
+    public BusyPoll setSpinWaitHint( boolean isSpinWaitHint ) {
+
+        this.isSpinWaitHint = isSpinWaitHint ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Retrieves the current time budget, as adapted so far.
+     *
+     * @return  Nanoseconds spent at most spinning during the next wait.
+     */
+    public long getSpinNanos() {
+
+        return this.spinNanos ;
+    }
+
+
+
+
+    /**
+     * Waits for events, spinning first and then blocking.
+     *
+     * @param   epoll
+     *            Epoll instance.
+     *
+     * @param   events
+     *            Buffer receiving events.
+     *
+     * @param   timeout
+     *            How many milliseconds at most should we wait. A timeout of -1 will block forever until something
+     *            happens.
+     *
+     * @return  How many events occured, 0 if the timeout elapsed.
+     *
+     * @throws  IllegalStateException
+     *            When the epoll instance has been closed.
+     *
+     * @throws  IOException
+     *            When waiting fails.
+     *
+     * @see     Epoll#wait( EpollEvents, int )
+     */
+    public int wait( Epoll       epoll   ,
+                     EpollEvents events  ,
+                     int         timeout ) throws IOException {
+
+        if ( timeout == 0 ) {
+
+            return epoll.wait( events ,
+                               0      ) ;
+        }
+
+        long start  = System.nanoTime()                         ;
+        long budget = timeout < 0 ? this.spinNanos
+                                  : Math.min( this.spinNanos        ,
+                                              timeout * 1_000_000L ) ;
+
+        if ( this.maxSpinNanos > 0 ) {
+
+            for ( int i = 0              ;
+                  i < this.maxIterations ;
+                  i += 1                 ) {
+
+                int n = epoll.wait( events ,
+                                    0      ) ;
+
+                if ( n > 0 ) {
+
+                    this.spinNanos = Math.min( Math.max( this.spinNanos * 2 ,
+                                                         1                  ) ,
+                                               this.maxSpinNanos              ) ;
+
+                    return n ;
+                }
+
+                if ( System.nanoTime() - start >= budget ) {
+
+                    break ;
+                }
+
+                if ( this.isSpinWaitHint ) {
+
+                    Thread.onSpinWait() ;
+                }
+            }
+        }
+
+        this.spinNanos = Math.max( this.spinNanos / 2 ,
+                                   this.minSpinNanos  ) ;
+
+        if ( timeout > 0 ) {
+
+            long remaining = timeout * 1_000_000L - ( System.nanoTime() - start ) ;
+
+            if ( remaining <= 0 ) {
+
+                return 0 ;
+            }
+
+            timeout = (int)( ( remaining + 999_999 ) / 1_000_000 ) ;
+        }
+
+        return epoll.wait( events  ,
+                           timeout ) ;
+    }
+}
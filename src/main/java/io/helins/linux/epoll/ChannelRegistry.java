@@ -0,0 +1,400 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import io.helins.linux.epoll.AttachmentTable          ;
+import io.helins.linux.epoll.EpollEvent               ;
+import io.helins.linux.epoll.Poller                   ;
+import java.io.IOException                            ;
+import java.lang.invoke.MethodHandle                  ;
+import java.lang.invoke.MethodHandles                 ;
+import java.lang.invoke.MethodType                    ;
+import java.lang.reflect.Method                       ;
+import java.nio.channels.IllegalBlockingModeException ;
+import java.nio.channels.SelectableChannel            ;
+
+
+
+
+/**
+ * Class bridging NIO channels into a poller, in place of a {@link java.nio.channels.Selector}.
+ * <p>
+ * Socket, server socket, datagram and pipe channels from the JDK are monitored by their underlying file descriptor,
+ * hence with all epoll modes a selector does not offer : edge-triggered ({@link EpollEvent.Flag#EPOLLT EPOLLT}),
+ * one-shot ({@link EpollEvent.Flag#EPOLLONESHOT EPOLLONESHOT}) and exclusive
+ * ({@link EpollEvent.Flag#EPOLLEXCLUSIVE EPOLLEXCLUSIVE}). Channels and their attachments are kept in an
+ * {@link AttachmentTable}, the user data of each event being a token resolved without allocating :
+ * <pre>{@code
+ * ChannelRegistry< Connection > registry = new ChannelRegistry<>( epoll ) ;
+ *
+ * registry.register( socketChannel                                         ,
+ *                    new EpollEvent.Flags().set( EpollEvent.Flag.EPOLLIN )
+ *                                          .set( EpollEvent.Flag.EPOLLT  ) ,
+ *                    connection                                            ) ;
+ *
+ * // When dispatching :
+ *
+ * Connection connection = registry.getAttachment( cursor.getUserData() ) ;
+ * }</pre>
+ * <p>
+ * Channels must be in non-blocking mode and are then read and written as usual. A channel must be unregistered
+ * before being closed, otherwise its file descriptor could be reused by the kernel while still being monitored.
+ * <p>
+ * Retrieving the file descriptor of a channel relies on JDK internals, the JVM must run with
+ * <code>--add-exports=java.base/sun.nio.ch=ALL-UNNAMED</code> (or the name of the module using this library).
+ * This class is not thread-safe.
+ *
+ * @param <T> Type of the attachments.
+ */
+public class ChannelRegistry< T > {
+
+
+    // Handle retrieving the file descriptor of a channel, null when JDK internals are not accessible.
+    //
+    private static final MethodHandle GET_FD_VAL = findGetFdVal() ;
+
+
+
+
+    // Registered channel.
+    //
+    private static final class Registration< T > {
+
+
+        final SelectableChannel channel    ;
+        final int               fd         ;
+        T                       attachment ;
+
+
+
+
+        Registration( SelectableChannel channel    ,
+                      int               fd         ,
+                      T                 attachment ) {
+
+            this.channel    = channel    ;
+            this.fd         = fd         ;
+            this.attachment = attachment ;
+        }
+    }
+
+
+
+
+    // Underlying poller.
+    //
+    private final Poller                               poller        ;
+
+    // Registrations by token.
+    //
+    private final AttachmentTable< Registration< T > > registrations ;
+
+    // Reusable event for registrations.
+    //
+    private final EpollEvent                           event         ;
+
+
+
+
+    /**
+     * Creates a registry for the given poller, typically an {@link Epoll} instance.
+     *
+     * @param   poller
+     *            Poller channels are registered with.
+     */
+    public ChannelRegistry( Poller poller ) {
+
+        this.poller        = poller                  ;
+        this.registrations = new AttachmentTable<>() ;
+        this.event         = new EpollEvent()        ;
+    }
+
+
+
+
+    // Looks up SelChImpl#getFDVal.
+    //
+    private static MethodHandle findGetFdVal() {
+
+        try {
+
+            Method getFDVal = Class.forName( "sun.nio.ch.SelChImpl" ).getMethod( "getFDVal" ) ;
+
+            return MethodHandles.lookup()
+                                .unreflect( getFDVal )
+                                .asType( MethodType.methodType( int.class               ,
+                                                                SelectableChannel.class ) ) ;
+        }
+        catch ( ReflectiveOperationException | RuntimeException e ) {
+
+            return null ;
+        }
+    }
+
+
+
+
+    /**
+     * Retrieves the file descriptor underlying a channel from the JDK.
+     *
+     * @param   channel
+     *            Socket, server socket, datagram or pipe channel.
+     *
+     * @return  The file descriptor.
+     *
+     * @throws  IllegalArgumentException
+     *            When the channel is not backed by a file descriptor.
+     *
+     * @throws  UnsupportedOperationException
+     *            When JDK internals are not accessible.
+     */
+    public static int getFD( SelectableChannel channel ) {
+
+        if ( GET_FD_VAL == null ) {
+
+            throw new UnsupportedOperationException( "Cannot access file descriptors of channels, run with --add-exports=java.base/sun.nio.ch=ALL-UNNAMED" ) ;
+        }
+
+        try {
+
+            return (int)GET_FD_VAL.invokeExact( channel ) ;
+        }
+        catch ( ClassCastException e ) {
+
+            throw new IllegalArgumentException( "Channel is not backed by a file descriptor" ) ;
+        }
+        catch ( Throwable e ) {
+
+            throw new IllegalStateException( "Unable to retrieve file descriptor of channel" ,
+                                             e                                               ) ;
+        }
+    }
+
+
+
+
+    /**
+     * Retrieves the underlying poller.
+     *
+     * @return  The poller.
+     */
+    public Poller getPoller() {
+
+        return this.poller ;
+    }
+
+
+
+
+    /**
+     * Retrieves how many channels are registered.
+     *
+     * @return  The number of channels.
+     */
+    public int size() {
+
+        return this.registrations.size() ;
+    }
+
+
+
+
+    /**
+     * Starts monitoring a channel.
+     *
+     * @param   channel
+     *            Socket, server socket, datagram or pipe channel, in non-blocking mode.
+     *
+     * @param   flags
+     *            Which events should be monitored, possibly with EPOLLT, EPOLLONESHOT or EPOLLEXCLUSIVE.
+     *
+     * @param   attachment
+     *            Attachment, can be null.
+     *
+     * @return  The token used as user data of the events of this channel, never 0.
+     *
+     * @throws  IllegalArgumentException
+     *            When the channel is not backed by a file descriptor or has already been added.
+     *
+     * @throws  IllegalBlockingModeException
+     *            When the channel is in blocking mode.
+     *
+     * @throws  IOException
+     *            When the file descriptor of the channel cannot be added.
+     *
+     * @throws  UnsupportedOperationException
+     *            When JDK internals are not accessible.
+     */
+    public long register( SelectableChannel channel    ,
+                          EpollEvent.Flags  flags      ,
+                          T                 attachment ) throws IOException {
+
+        if ( channel.isBlocking() ) {
+
+            throw new IllegalBlockingModeException() ;
+        }
+
+        int  fd    = getFD( channel )                                      ;
+        long token = this.registrations.put( new Registration<>( channel    ,
+                                                                 fd         ,
+                                                                 attachment ) ) ;
+
+        try {
+
+            this.poller.add( fd                         ,
+                             this.event.setFlags( flags )
+                                       .setUserData( token ) ) ;
+        }
+        catch ( IOException | RuntimeException e ) {
+
+            this.registrations.remove( token ) ;
+
+            throw e ;
+        }
+
+        return token ;
+    }
+
+
+
+
+    // Retrieves the registration of a token or throws an IllegalStateException.
+    //
+    private Registration< T > registration( long token ) {
+
+        Registration< T > registration = this.registrations.get( token ) ;
+
+        if ( registration == null ) {
+
+            throw new IllegalStateException( "Channel has not been registered" ) ;
+        }
+
+        return registration ;
+    }
+
+
+
+
+    /**
+     * Modifies how a channel is monitored, for instance for rearming it in one-shot mode.
+     *
+     * @param   token
+     *            Token returned when registering the channel.
+     *
+     * @param   flags
+     *            Which events should be monitored.
+     *
+     * @throws  IllegalStateException
+     *            When the token does not identify a registered channel.
+     *
+     * @throws  IOException
+     *            When the file descriptor of the channel cannot be modified.
+     */
+    public void modify( long             token ,
+                        EpollEvent.Flags flags ) throws IOException {
+
+        this.poller.modify( this.registration( token ).fd ,
+                            this.event.setFlags( flags )
+                                      .setUserData( token ) ) ;
+    }
+
+
+
+
+    /**
+     * Stops monitoring a channel, which can then be closed.
+     *
+     * @param   token
+     *            Token returned when registering the channel.
+     *
+     * @return  The attachment of the channel.
+     *
+     * @throws  IllegalStateException
+     *            When the token does not identify a registered channel.
+     *
+     * @throws  IOException
+     *            When the file descriptor of the channel cannot be removed.
+     */
+    public T unregister( long token ) throws IOException {
+
+        Registration< T > registration = this.registration( token ) ;
+
+        this.poller.remove( registration.fd ) ;
+
+        this.registrations.remove( token ) ;
+
+        return registration.attachment ;
+    }
+
+
+
+
+    /**
+     * Retrieves the channel identified by the user data of an event.
+     *
+     * @param   token
+     *            User data of an event.
+     *
+     * @return  The channel, or null if it has been unregistered meanwhile.
+     */
+    public SelectableChannel getChannel( long token ) {
+
+        Registration< T > registration = this.registrations.get( token ) ;
+
+        return registration == null ? null
+                                    : registration.channel ;
+    }
+
+
+
+
+    /**
+     * Retrieves the attachment of the channel identified by the user data of an event.
+     *
+     * @param   token
+     *            User data of an event.
+     *
+     * @return  The attachment, or null if the channel has been unregistered meanwhile or has no attachment.
+     */
+    public T getAttachment( long token ) {
+
+        Registration< T > registration = this.registrations.get( token ) ;
+
+        return registration == null ? null
+                                    : registration.attachment ;
+    }
+
+
+
+
+    /**
+     * Replaces the attachment of a channel.
+     *
+     * @param   token
+     *            Token returned when registering the channel.
+     *
+     * @param   attachment
+     *            New attachment, can be null.
+     *
+     * @return  The previous attachment.
+     *
+     * @throws  IllegalStateException
+     *            When the token does not identify a registered channel.
+     */
+    public T attach( long token      ,
+                     T    attachment ) {
+
+        Registration< T > registration = this.registration( token ) ;
+        T                 previous     = registration.attachment    ;
+
+        registration.attachment = attachment ;
+
+        return previous ;
+    }
+}
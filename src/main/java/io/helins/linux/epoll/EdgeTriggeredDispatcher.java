@@ -0,0 +1,446 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import io.helins.linux.epoll.Epoll       ;
+import io.helins.linux.epoll.EpollEvent  ;
+import io.helins.linux.epoll.EpollEvents ;
+import java.io.IOException               ;
+import java.util.Arrays                  ;
+
+
+
+
+/**
+ * Class representing a dispatcher for file descriptors registered in edge-triggered mode, with fair budgets.
+ * <p>
+ * In edge-triggered mode ({@link EpollEvent.Flag#EPOLLT EPOLLT}), an event is reported only when the state of a file
+ * descriptor changes, hence a handler must keep reading or writing until EAGAIN, otherwise it will not be notified
+ * again. Doing so in one go lets a single busy file descriptor starve all the others.
+ * <p>
+ * Instead, this dispatcher keeps a ready list in userspace. Each file descriptor gets a bounded budget per pass, for
+ * instance a maximum number of reads. A handler which exhausts its budget before reaching EAGAIN reports that it is
+ * not done and its file descriptor is queued again at the end of the ready list, without waiting for another event.
+ * When file descriptors are ready, waiting does not block and new events are merged into the ready list, a file
+ * descriptor being never queued twice. Each pass thus serves ready file descriptors in a round-robin fashion.
+ * <p>
+ * The user data of each registered file descriptor is the file descriptor itself. This class is not thread-safe,
+ * it is meant to be driven by a single thread.
+ */
+public class EdgeTriggeredDispatcher implements AutoCloseable {
+
+
+    /**
+     * Default budget given to a file descriptor per pass.
+     */
+    public static final int DEFAULT_BUDGET = 16 ;
+
+
+
+
+    /**
+     * Interface for handling a ready file descriptor within a budget.
+     */
+    @FunctionalInterface
+    public static interface Handler {
+
+
+        /**
+         * Handles a ready file descriptor, doing at most <strong>budget</strong> units of work (eg. reads).
+         *
+         * @param   fd
+         *            File descriptor.
+         *
+         * @param   flags
+         *            Raw flags describing what happened since the file descriptor was last done, tested with
+         *            <strong>{@link EpollEvent.Flags#isSet( int, EpollEvent.Flag ) Flags#isSet}</strong>.
+         *
+         * @param   budget
+         *            How many units of work at most.
+         *
+         * @return  True if the file descriptor has been drained (EAGAIN reached), false if the budget has been
+         *          exhausted and the file descriptor must be handled again during the next pass.
+         *
+         * @throws  IOException
+         *            When something goes wrong, propagated to the caller of the pass.
+         */
+        public boolean handle( int fd     ,
+                               int flags  ,
+                               int budget ) throws IOException ;
+    }
+
+
+
+
+    // Underlying epoll instance.
+    //
+    private final Epoll       epoll    ;
+
+    // Reusable buffer for waiting.
+    //
+    private final EpollEvents events   ;
+
+    // Reusable event for registrations.
+    //
+    private final EpollEvent  event    ;
+
+    // Budget per file descriptor per pass.
+    //
+    private final int         budget   ;
+
+    // Handlers indexed by file descriptor.
+    //
+    private Handler[]         handlers ;
+
+    // Flags accumulated by file descriptor until it is done.
+    //
+    private int[]             pending  ;
+
+    // Is the file descriptor in the ready list ?
+    //
+    private boolean[]         isQueued ;
+
+    // Ready list, a ring of file descriptors whose capacity is a power of 2.
+    //
+    private int[]             ring     ;
+
+    // Position of the first file descriptor in the ring.
+    //
+    private int               head     ;
+
+    // How many file descriptors are in the ring.
+    //
+    private int               count    ;
+
+
+
+
+    /**
+     * Creates a dispatcher retrieving at most {@link EpollEventLoop#DEFAULT_MAX_EVENTS} events per wait and giving
+     * {@link #DEFAULT_BUDGET} units of work per file descriptor per pass.
+     *
+     * @throws  IOException
+     *            When the epoll instance cannot be created.
+     */
+    public EdgeTriggeredDispatcher() throws IOException {
+
+        this( EpollEventLoop.DEFAULT_MAX_EVENTS ,
+              DEFAULT_BUDGET                    ) ;
+    }
+
+
+
+
+    /**
+     * Creates a dispatcher.
+     *
+     * @param   maxEvents
+     *            How many events at most are retrieved by a single wait.
+     *
+     * @param   budget
+     *            How many units of work at most a file descriptor gets per pass.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>maxEvents</strong> or <strong>budget</strong> is less than 1.
+     *
+     * @throws  IOException
+     *            When the epoll instance cannot be created.
+     */
+    public EdgeTriggeredDispatcher( int maxEvents ,
+                                    int budget    ) throws IOException {
+
+        if ( budget < 1 ) {
+
+            throw new IllegalArgumentException( "Budget must be >= 1" ) ;
+        }
+
+        this.events   = new EpollEvents( maxEvents ) ;
+        this.event    = new EpollEvent()             ;
+        this.budget   = budget                       ;
+        this.handlers = new Handler[ 64 ]            ;
+        this.pending  = new int[ 64 ]                ;
+        this.isQueued = new boolean[ 64 ]            ;
+        this.ring     = new int[ 64 ]                ;
+        this.epoll    = new Epoll()                  ;
+    }
+
+
+
+
+    /**
+     * Retrieves the underlying epoll instance.
+     *
+     * @return  The epoll instance.
+     */
+    public Epoll getEpoll() {
+
+        return this.epoll ;
+    }
+
+
+
+
+    /**
+     * Retrieves how many file descriptors are in the ready list.
+     *
+     * @return  The number of file descriptors to handle during the next pass.
+     */
+    public int readyCount() {
+
+        return this.count ;
+    }
+
+
+
+
+    /**
+     * Starts monitoring a file descriptor in edge-triggered mode.
+     *
+     * @param   fd
+     *            File descriptor, non-blocking.
+     *
+     * @param   flags
+     *            Which events should be monitored, {@link EpollEvent.Flag#EPOLLT EPOLLT} is added automatically.
+     *
+     * @param   handler
+     *            Handler called when the file descriptor is ready.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalArgumentException
+     *            When the file descriptor is negative, invalid or has already been registered.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be added.
+     */
+    public EdgeTriggeredDispatcher register( int              fd      ,
+                                             EpollEvent.Flags flags   ,
+                                             Handler          handler ) throws IOException {
+
+        if ( fd < 0 ) {
+
+            throw new IllegalArgumentException( "File descriptor must be >= 0" ) ;
+        }
+
+        if ( handler == null ) {
+
+            throw new IllegalArgumentException( "Handler must not be null" ) ;
+        }
+
+        if ( fd < this.handlers.length && this.handlers[ fd ] != null ) {
+
+            throw new IllegalArgumentException( "Given file descriptor has already been added" ) ;
+        }
+
+        this.epoll.add( fd                                                             ,
+                        this.event.setRawFlags( flags.value | EpollEvent.Flag.EPOLLT.value )
+                                  .setUserData( fd )                                   ) ;
+
+        if ( fd >= this.handlers.length ) {
+
+            int length = Math.max( fd + 1                    ,
+                                   this.handlers.length * 2 ) ;
+
+            this.handlers = Arrays.copyOf( this.handlers ,
+                                           length        ) ;
+            this.pending  = Arrays.copyOf( this.pending  ,
+                                           length        ) ;
+            this.isQueued = Arrays.copyOf( this.isQueued ,
+                                           length        ) ;
+        }
+
+        this.handlers[ fd ] = handler ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Stops monitoring a registered file descriptor, it is skipped if it is in the ready list.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalStateException
+     *            When the file descriptor has not been registered.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be removed.
+     */
+    public EdgeTriggeredDispatcher unregister( int fd ) throws IOException {
+
+        if ( fd < 0 || fd >= this.handlers.length || this.handlers[ fd ] == null ) {
+
+            throw new IllegalStateException( "File descriptor has not been registered : " + fd ) ;
+        }
+
+        this.handlers[ fd ] = null ;
+        this.pending[ fd ]  = 0    ;
+
+        this.epoll.remove( fd ) ;
+
+        return this ;
+    }
+
+
+
+
+    // Adds a file descriptor at the end of the ready list if it is not already in it.
+    //
+    private void enqueue( int fd ) {
+
+        if ( this.isQueued[ fd ] ) {
+
+            return ;
+        }
+
+        if ( this.count == this.ring.length ) {
+
+            int[] ring = new int[ this.ring.length * 2 ] ;
+
+            for ( int i = 0      ;
+                  i < this.count ;
+                  i += 1         ) {
+
+                ring[ i ] = this.ring[ ( this.head + i ) & ( this.ring.length - 1 ) ] ;
+            }
+
+            this.ring = ring ;
+            this.head = 0    ;
+        }
+
+        this.ring[ ( this.head + this.count ) & ( this.ring.length - 1 ) ]  = fd   ;
+        this.count                                                         += 1    ;
+        this.isQueued[ fd ]                                                 = true ;
+    }
+
+
+
+
+    // Removes the file descriptor at the start of the ready list.
+    //
+    private int dequeue() {
+
+        int fd = this.ring[ this.head ] ;
+
+        this.head            = ( this.head + 1 ) & ( this.ring.length - 1 ) ;
+        this.count          -= 1                                            ;
+        this.isQueued[ fd ]  = false                                        ;
+
+        return fd ;
+    }
+
+
+
+
+    /**
+     * Waits once, merges new events into the ready list and then handles each file descriptor of the ready list
+     * once, within its budget.
+     * <p>
+     * Does not block when the ready list is not empty.
+     *
+     * @param   timeout
+     *            How many milliseconds at most should we wait. A timeout of -1 will block
+     *            forever until something happens.
+     *
+     * @return  How many file descriptors have been handled.
+     *
+     * @throws  IllegalStateException
+     *            When the epoll instance has been closed.
+     *
+     * @throws  IOException
+     *            When waiting fails or a handler throws, file descriptors not handled yet remain in the ready list
+     *            as well as the one whose handler failed, unless it has been unregistered.
+     */
+    public int runOnce( int timeout ) throws IOException {
+
+        int ready = this.epoll.wait( this.events               ,
+                                     this.count == 0 ? timeout
+                                                     : 0       ) ;
+
+        EpollEvents.Cursor cursor = this.events.cursor( ready ) ;
+
+        while ( cursor.next() ) {
+
+            int fd = (int)cursor.getUserData() ;
+
+            if ( fd < this.handlers.length && this.handlers[ fd ] != null ) {
+
+                this.pending[ fd ] |= cursor.getRawFlags() ;
+
+                this.enqueue( fd ) ;
+            }
+        }
+
+        // Only file descriptors queued before this pass are handled, those queued again are handled next pass.
+        //
+        int n       = this.count ;
+        int handled = 0          ;
+
+        for ( int i = 0 ;
+              i < n     ;
+              i += 1    ) {
+
+            int     fd      = this.dequeue()      ;
+            Handler handler = this.handlers[ fd ] ;
+
+            if ( handler == null ) {
+
+                continue ;
+            }
+
+            handled += 1 ;
+
+            boolean isDone = false ;
+
+            try {
+
+                isDone = handler.handle( fd                 ,
+                                         this.pending[ fd ] ,
+                                         this.budget        ) ;
+            }
+            finally {
+
+                if ( isDone ) {
+
+                    this.pending[ fd ] = 0 ;
+                }
+                else if ( this.handlers[ fd ] != null ) {
+
+                    // Also when the handler throws, since an edge-triggered file descriptor which is dropped would
+                    // never be reported again.
+                    //
+                    this.enqueue( fd ) ;
+                }
+            }
+        }
+
+        return handled ;
+    }
+
+
+
+
+    /**
+     * Closes the underlying epoll instance.
+     * <p>
+     * Registered file descriptors are not closed since they belong to the user.
+     *
+     * @throws  IOException
+     *            When the epoll instance cannot be closed.
+     */
+    public void close() throws IOException {
+
+        this.epoll.close() ;
+    }
+}
@@ -8,19 +8,20 @@
 package io.helins.linux.epoll ;
 
 
-import com.sun.jna.Memory                ;
-import com.sun.jna.Native                ;
-import com.sun.jna.Pointer               ;
-import com.sun.jna.Structure             ;
-import com.sun.jna.Union                 ;
-import io.helins.linux.Linux             ;
-import io.helins.linux.epoll.EpollEvent  ;
-import io.helins.linux.epoll.EpollEvents ;
-import io.helins.linux.errno.Errno       ;
-import io.helins.linux.io.LinuxIO        ;
-import java.io.IOException               ;
-import java.util.Arrays                  ;
-import java.util.List                    ;
+import com.sun.jna.Memory                              ;
+import com.sun.jna.Native                              ;
+import com.sun.jna.Pointer                              ;
+import io.helins.linux.Linux                           ;
+import io.helins.linux.epoll.EpollEvent                ;
+import io.helins.linux.epoll.EpollEvents               ;
+import io.helins.linux.epoll.SignalSet                 ;
+import io.helins.linux.epoll.internal.NativeEpoll      ;
+import io.helins.linux.errno.Errno                     ;
+import io.helins.linux.io.LinuxIO                      ;
+import java.io.IOException                             ;
+import java.time.Duration                              ;
+import java.util.concurrent.atomic.AtomicInteger       ;
+import java.util.concurrent.locks.LockSupport          ;
 
 
 
@@ -30,16 +31,21 @@ import java.util.List                    ;
  * Class representing an epoll instance.
  * <p>
  * Quite close to the native API but wrapped in a java idiomatic interface.
+ * <p>
+ * An instance is thread-safe. File descriptors can be added, modified and removed from any thread, including while
+ * other threads are waiting, without any lock : each operation only increments and decrements a counter of
+ * operations in progress. Closing wakes up waiting threads, which then return no event, and the file descriptor of
+ * the instance is released only once all operations in progress are over, so that it cannot be reused by the kernel
+ * under their feet.
  *
  * @see <a href="http://man7.org/linux/man-pages/man7/epoll.7.html">Epoll man pages</a>
  */
-public class Epoll implements AutoCloseable {
+public class Epoll implements Poller {
 
 
-    static {
-    
-        Native.register( "c" ) ;
-    }
+    // Backend performing system calls.
+    //
+    private static final NativeEpoll NATIVE = NativeEpoll.INSTANCE ;
 
 
 
@@ -53,23 +59,24 @@ public class Epoll implements AutoCloseable {
 
 
 
+    // Becomes false if the kernel does not support epoll_pwait2 even though the C library does (Linux < 5.11).
     //
-    // Private native functions.
+    private static volatile boolean hasPwait2 = NATIVE.hasPwait2() ;
+
+
+
+
+    // Native struct timespec for waits with a nanosecond timeout, one per thread since waits can be concurrent.
     //
+    private static final ThreadLocal< Memory > TIMESPEC = ThreadLocal.withInitial( () -> new Memory( 2 * Native.LONG_SIZE ) ) ;
 
-    private static native int epoll_create( int size ) ;
 
 
-    private static native int epoll_ctl( int     epfd  ,
-                                         int     op    ,
-                                         int     fd    ,
-                                         Pointer event ) ;
 
+    // Bit of the state meaning that the instance is closed, other bits count operations in progress.
+    //
+    private static final int CLOSED = Integer.MIN_VALUE ;
 
-    private static native int epoll_wait( int     epfd      ,
-                                          Pointer events    ,
-                                          int     maxevents ,
-                                          int     timeout   ) ;
 
 
 
@@ -77,9 +84,17 @@ public class Epoll implements AutoCloseable {
     //
     private int epfd ;
 
-    // Closing an epoll file descriptor twice is an error.
+    // Whether this instance is closed and how many operations are in progress.
+    //
+    private final AtomicInteger state = new AtomicInteger() ;
+
+    // Thread closing this instance, waiting for operations in progress to be over.
+    //
+    private volatile Thread closer ;
+
+    // Records metrics, null when disabled.
     //
-    private boolean isClosed ;
+    private volatile EpollMetricsRecorder metrics ;
 
 
 
@@ -97,11 +112,11 @@ public class Epoll implements AutoCloseable {
      */
     public Epoll() throws IOException {
     
-        this.epfd = epoll_create( 1 ) ;
+        this.epfd = NATIVE.create( 1 ) ;
 
         if ( this.epfd < 0 ) {
 
-            int errno = Linux.getErrno() ;
+            int errno = NATIVE.errno() ;
 
             switch ( errno ) {
 
@@ -119,31 +134,261 @@ public class Epoll implements AutoCloseable {
 
     /**
      * Closes this epoll instance and releases the allocated resources.
+     * <p>
+     * Threads waiting on this instance are woken up and return no event. This method blocks until they are done as
+     * well as operations in progress in other threads, new ones failing with an {@link IllegalStateException}.
+     * Closing an instance which is already closed does nothing.
      *
      * @throws IOException
      *           When an unplanned error occured on the native side.
      */
     public void close() throws IOException {
 
-        if ( this.isClosed == false ) {
+        int state = this.state.get() ;
 
-            if ( LinuxIO.close( this.epfd ) != 0 ) {
-                
-                throw new IOException( "Native error while closing epoll instance : errno " + Linux.getErrno() ) ;
+        while ( true ) {
+
+            if ( state < 0 ) {
+
+                return ;
+            }
+
+            if ( this.state.compareAndSet( state          ,
+                                           state | CLOSED ) ) {
+
+                break ;
+            }
+
+            state = this.state.get() ;
+        }
+
+        IOException failure = null ;
+
+        if ( state != 0 ) {
+
+            try {
+
+                this.drain() ;
+            }
+            catch ( IOException e ) {
+
+                failure = e ;
+            }
+        }
+
+        if ( LinuxIO.close( this.epfd ) != 0 ) {
+
+            throw new IOException( "Native error while closing epoll instance : errno " + Linux.getErrno() ) ;
+        }
+
+        if ( failure != null ) {
+
+            throw failure ;
+        }
+    }
+
+
+
+
+    // Wakes up waiting threads and blocks until all operations in progress are over.
+    //
+    // Waiters are woken up by a readable eventfd. Since epoll wakes up a single waiter per event, the eventfd is
+    // signaled again until all of them are gone.
+    //
+    private void drain() throws IOException {
+
+        this.closer = Thread.currentThread() ;
+
+        EventFd wakeup ;
+
+        try {
+
+            wakeup = new EventFd() ;
+        }
+        catch ( IOException e ) {
+
+            // Cannot wake up waiters, waits for them to time out.
+            //
+            wakeup = null ;
+        }
+
+        try {
+
+            if ( wakeup != null ) {
+
+                EpollEvent event = new EpollEvent().setFlags( new EpollEvent.Flags().set( EpollEvent.Flag.EPOLLIN ) ) ;
+
+                NATIVE.ctl( this.epfd     ,
+                            EPOLL_CTL_ADD ,
+                            wakeup.fd     ,
+                            event.ptr     ) ;
+            }
+
+            boolean isSignaling = wakeup != null ;
+
+            while ( this.state.get() != CLOSED ) {
+
+                if ( isSignaling ) {
+
+                    try {
+
+                        wakeup.signal() ;
+                    }
+                    catch ( IOException e ) {
+
+                        // Practically impossible, waiters will then time out.
+                        //
+                        isSignaling = false ;
+                    }
+                }
+
+                LockSupport.parkNanos( this       ,
+                                       1_000_000L ) ;
+            }
+        }
+        finally {
+
+            if ( wakeup != null ) {
+
+                wakeup.close() ;
+            }
+        }
+    }
+
+
+
+
+    // Starts an operation, throwing an IllegalStateException if this instance is closed.
+    //
+    private void acquire() {
+
+        int state = this.state.get() ;
+
+        while ( true ) {
+
+            if ( state < 0 ) {
+
+                throw new IllegalStateException( "Cannot perform operation on a closed epoll instance" ) ;
+            }
+
+            if ( this.state.compareAndSet( state     ,
+                                           state + 1 ) ) {
+
+                return ;
             }
 
-            this.isClosed = true ;
+            state = this.state.get() ;
+        }
+    }
+
+
+
+
+    // Ends an operation, unparking the closing thread if it was the last one.
+    //
+    private void release() {
+
+        if ( this.state.decrementAndGet() == CLOSED ) {
+
+            LockSupport.unpark( this.closer ) ;
         }
     }
 
 
 
 
+    /**
+     * Retrieves the name of the native backend performing system calls.
+     * <p>
+     * On JDK 22+, the Foreign Function and Memory API is used (<code>ffm</code>) unless the system property
+     * <code>io.helins.linux.epoll.backend</code> is set to <code>jna</code>. Otherwise, JNA is always used
+     * (<code>jna</code>). The API remains the same in both cases.
+     *
+     * @return  Either <code>ffm</code> or <code>jna</code>.
+     */
+    public static String getNativeBackend() {
+    
+        return NATIVE.getName() ;
+    }
+
+
+
+
+    /**
+     * Retrieves why the Foreign Function and Memory API could not be used on JDK 22+, in which case JNA is used
+     * instead.
+     * <p>
+     * For instance, native access might have been denied or a needed function might be missing from the C library.
+     *
+     * @return  The failure, null if the FFM backend is used, has been disabled, or is not available on this JDK.
+     *
+     * @see     #getNativeBackend()
+     */
+    public static RuntimeException getNativeBackendFailure() {
+
+        return NativeEpoll.getFailure() ;
+    }
+
+
+
+
+    /**
+     * Starts recording metrics about this instance, resetting them if they were already recorded.
+     * <p>
+     * Recording is cheap but not free, it is disabled by default.
+     *
+     * @return  This instance.
+     *
+     * @see     #getMetrics()
+     */
+    public Epoll enableMetrics() {
+
+        this.metrics = new EpollMetricsRecorder() ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Stops recording metrics about this instance, removing any overhead.
+     *
+     * @return  This instance.
+     */
+    public Epoll disableMetrics() {
+
+        this.metrics = null ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Takes a snapshot of the metrics of this instance, can be called from any thread.
+     *
+     * @return  A snapshot, or null if metrics are disabled.
+     *
+     * @see     #enableMetrics()
+     */
+    public EpollMetrics getMetrics() {
+
+        EpollMetricsRecorder metrics = this.metrics ;
+
+        return metrics == null ? null
+                               : new EpollMetrics( metrics ) ;
+    }
+
+
+
+
     // Throws an IllegalStateException when the epoll instance is closed.
     //
     private void guardClosed() {
     
-        if ( isClosed ) {
+        if ( this.state.get() < 0 ) {
         
             throw new IllegalStateException( "Cannot perform operation on a closed epoll instance" ) ;
         }
@@ -161,6 +406,8 @@ public class Epoll implements AutoCloseable {
      *
      * @throws  IllegalStateException
      *            When this instance has been closed.
+     *
+     * @see     TieredEpoll
      */
     public int getEpollFD() {
 
@@ -228,12 +475,11 @@ public class Epoll implements AutoCloseable {
             throw new IllegalArgumentException( "Given file descriptor cannot be the same as the file descriptor of this epoll instance" ) ;
         }
 
-        if ( epoll_ctl( this.epfd     ,
-                        EPOLL_CTL_ADD ,
-                        fd            ,
-                        event.ptr     ) < 0 ) {
+        int errno = this.ctl( EPOLL_CTL_ADD ,
+                              fd            ,
+                              event.ptr     ) ;
 
-            int errno = Linux.getErrno() ;
+        if ( errno != 0 ) {
 
             operationException( errno ) ;
 
@@ -282,12 +528,11 @@ public class Epoll implements AutoCloseable {
 
         this.guardClosed() ;
 
-        if ( epoll_ctl( this.epfd     ,
-                        EPOLL_CTL_MOD ,
-                        fd            ,
-                        event.ptr     ) < 0 ) {
+        int errno = this.ctl( EPOLL_CTL_MOD ,
+                              fd            ,
+                              event.ptr     ) ;
 
-            int errno = Linux.getErrno() ;
+        if ( errno != 0 ) {
 
             operationException( errno ) ;
 
@@ -327,12 +572,11 @@ public class Epoll implements AutoCloseable {
 
         this.guardClosed() ;
     
-        if ( epoll_ctl( this.epfd     ,
-                        EPOLL_CTL_DEL ,
-                        fd            ,
-                        null          ) < 0 ) {
+        int errno = this.ctl( EPOLL_CTL_DEL ,
+                              fd            ,
+                              null          ) ;
 
-            int errno = Linux.getErrno() ;
+        if ( errno != 0 ) {
 
             operationException( errno ) ;
 
@@ -350,6 +594,146 @@ public class Epoll implements AutoCloseable {
 
 
 
+    /**
+     * Starts monitoring a file descriptor, reporting failures as an errno instead of throwing.
+     * <p>
+     * Meant for hot paths where building exceptions would be too costly.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   event
+     *            Describing what events should be monitored.
+     *
+     * @return  0 on success, the errno otherwise (eg. EEXIST if the file descriptor has already been added).
+     *
+     * @throws  IllegalStateException
+     *            When this epoll instance has been closed.
+     *
+     * @see     #add( int, EpollEvent )
+     */
+    public int tryAdd( int        fd    ,
+                       EpollEvent event ) {
+
+        this.guardClosed() ;
+
+        return this.ctl( EPOLL_CTL_ADD ,
+                         fd            ,
+                         event.ptr     ) ;
+    }
+
+
+
+
+    /**
+     * Modifies how a file descriptor is monitored, reporting failures as an errno instead of throwing.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   event
+     *            Describing what events should be monitored.
+     *
+     * @return  0 on success, the errno otherwise (eg. ENOENT if the file descriptor has not been added).
+     *
+     * @throws  IllegalStateException
+     *            When this epoll instance has been closed.
+     *
+     * @see     #modify( int, EpollEvent )
+     */
+    public int tryModify( int        fd    ,
+                          EpollEvent event ) {
+
+        this.guardClosed() ;
+
+        return this.ctl( EPOLL_CTL_MOD ,
+                         fd            ,
+                         event.ptr     ) ;
+    }
+
+
+
+
+    /**
+     * Stops monitoring a file descriptor, reporting failures as an errno instead of throwing.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @return  0 on success, the errno otherwise (eg. ENOENT if the file descriptor has not been added).
+     *
+     * @throws  IllegalStateException
+     *            When this epoll instance has been closed.
+     *
+     * @see     #remove( int )
+     */
+    public int tryRemove( int fd ) {
+
+        this.guardClosed() ;
+
+        return this.ctl( EPOLL_CTL_DEL ,
+                         fd            ,
+                         null          ) ;
+    }
+
+
+
+
+    // Calls epoll_ctl and returns 0 or the errno.
+    //
+    private int ctl( int     op    ,
+                     int     fd    ,
+                     Pointer event ) {
+
+        EpollCtlEvent jfrEvent = new EpollCtlEvent() ;
+
+        this.acquire() ;
+
+        jfrEvent.begin() ;
+
+        int errno ;
+
+        try {
+
+            errno = NATIVE.ctl( this.epfd ,
+                                op        ,
+                                fd        ,
+                                event     ) < 0 ? NATIVE.errno()
+                                                : 0              ;
+        }
+        finally {
+
+            this.release() ;
+        }
+
+        jfrEvent.end() ;
+
+        if ( jfrEvent.shouldCommit() ) {
+
+            jfrEvent.commit( this.epfd                                         ,
+                             op == EPOLL_CTL_ADD ? "ADD"
+                                                 : op == EPOLL_CTL_MOD ? "MOD"
+                                                                       : "DEL" ,
+                             fd                                                ,
+                             errno                                             ) ;
+        }
+
+        EpollMetricsRecorder metrics = this.metrics ;
+
+        if ( metrics != null ) {
+
+            metrics.ctl( op == EPOLL_CTL_ADD ? metrics.adds
+                                             : op == EPOLL_CTL_MOD ? metrics.modifies
+                                                                   : metrics.removes  ,
+                         errno                                                         ) ;
+        }
+
+        return errno ;
+    }
+
+
+
+
     /**
      * Waits for an event to happen.
      *
@@ -440,6 +824,8 @@ public class Epoll implements AutoCloseable {
      * <p>
      * The given EpollEvents will be filled by the kernel to describe the type of
      * event that occured and write back the user data.
+     * <p>
+     * When interrupted by a signal (EINTR), waiting resumes transparently with the remaining timeout.
      *
      * @param   events
      *            Will be overwritten by the kernel in order to describe what happened and give back
@@ -462,35 +848,657 @@ public class Epoll implements AutoCloseable {
     public int wait( EpollEvents events  ,
                      int         timeout ) throws IOException {
     
-        return this.wait( events.memory        ,
-                          events.events.length ,
-                          timeout              ) ;
-    }
-
+        int n = this.wait( events.memory ,
+                           events.size   ,
+                           timeout       ) ;
 
+        events.afterWait( n ) ;
 
+        return n ;
+    }
 
-    // Waits for an epoll event using a raw pointer.
-    //
-    private int wait( Pointer events    ,
-                      int     maxEvents ,
-                      int     timeout   ) throws IOException {
-
-        this.guardClosed() ;
 
-        int result = epoll_wait( this.epfd ,
-                                 events    ,
-                                 maxEvents ,
-                                 timeout   ) ;
 
-        if ( result < 0 ) {
-            
-            throw new IOException( "Native error while waiting for an epoll event : errno " + Linux.getErrno() ) ;
-        }
 
-        if ( result == 0 && timeout < 0 ) {
-        
-            throw new IOException( "Epoll unexpectedly unblocked before an event occured" ) ;
+    /**
+     * Waits for events to happen (at most the size of <code>events</code>) within the given timeout,
+     * with nanosecond precision.
+     *
+     * @param   events
+     *            Will be overwritten by the kernel in order to describe what happened and give back
+     *            the previously registered arbitrary long value for each file descriptor involved.
+     *
+     * @param   timeout
+     *            How long at least should we wait. Null or negative will block forever until something happens.
+     *
+     * @return  How many events occured before the timeout elapsed.
+     *
+     * @throws  IllegalStateException
+     *            When this epoll instance has been closed.
+     *
+     * @throws  IOException
+     *            When an unplanned errors occured on the native side.
+     *
+     * @see     #waitNanos( EpollEvents, long, SignalSet )
+     */
+    public int wait( EpollEvents events  ,
+                     Duration    timeout ) throws IOException {
+
+        return this.wait( events  ,
+                          timeout ,
+                          null    ) ;
+    }
+
+
+
+
+    /**
+     * Waits for events to happen (at most the size of <code>events</code>) within the given timeout,
+     * with nanosecond precision, while the signal mask of the calling thread is replaced by the given one.
+     *
+     * @param   events
+     *            Will be overwritten by the kernel in order to describe what happened and give back
+     *            the previously registered arbitrary long value for each file descriptor involved.
+     *
+     * @param   timeout
+     *            How long at least should we wait. Null or negative will block forever until something happens.
+     *
+     * @param   sigmask
+     *            Signal mask used during the wait, null for keeping the current one.
+     *
+     * @return  How many events occured before the timeout elapsed.
+     *
+     * @throws  IllegalStateException
+     *            When this epoll instance has been closed.
+     *
+     * @throws  IOException
+     *            When an unplanned errors occured on the native side.
+     *
+     * @see     #waitNanos( EpollEvents, long, SignalSet )
+     */
+    public int wait( EpollEvents events  ,
+                     Duration    timeout ,
+                     SignalSet   sigmask ) throws IOException {
+
+        long nanos ;
+
+        if ( timeout == null || timeout.isNegative() ) {
+
+            nanos = -1 ;
+        }
+        else {
+
+            try {
+
+                nanos = timeout.toNanos() ;
+            }
+            catch ( ArithmeticException e ) {
+
+                nanos = Long.MAX_VALUE ;
+            }
+        }
+
+        return this.waitNanos( events  ,
+                               nanos   ,
+                               sigmask ) ;
+    }
+
+
+
+
+    /**
+     * Waits for events to happen (at most the size of <code>events</code>) within the given timeout,
+     * with nanosecond precision.
+     *
+     * @param   events
+     *            Will be overwritten by the kernel in order to describe what happened and give back
+     *            the previously registered arbitrary long value for each file descriptor involved.
+     *
+     * @param   timeout
+     *            How many nanoseconds at least should we wait. A negative timeout will block
+     *            forever until something happens.
+     *
+     * @return  How many events occured before the timeout elapsed.
+     *
+     * @throws  IllegalStateException
+     *            When this epoll instance has been closed.
+     *
+     * @throws  IOException
+     *            When an unplanned errors occured on the native side.
+     *
+     * @see     #waitNanos( EpollEvents, long, SignalSet )
+     */
+    public int waitNanos( EpollEvents events  ,
+                          long        timeout ) throws IOException {
+
+        return this.waitNanos( events  ,
+                               timeout ,
+                               null    ) ;
+    }
+
+
+
+
+    /**
+     * Waits for events to happen (at most the size of <code>events</code>) within the given timeout,
+     * with nanosecond precision, while the signal mask of the calling thread is replaced by the given one.
+     * <p>
+     * Relies on <code>epoll_pwait2</code> (Linux 5.11+). On older systems, falls back to <code>epoll_pwait</code>,
+     * or <code>epoll_wait</code> when there is no signal mask, and the timeout is rounded up to the next millisecond.
+     * <p>
+     * Replacing the signal mask is atomic, meaning that signals blocked by the thread but unblocked in the given
+     * mask can only be delivered while waiting. When a signal mask is given, being interrupted by a signal returns
+     * 0 events. Otherwise, waiting resumes transparently with the remaining timeout.
+     *
+     * @param   events
+     *            Will be overwritten by the kernel in order to describe what happened and give back
+     *            the previously registered arbitrary long value for each file descriptor involved.
+     *
+     * @param   timeout
+     *            How many nanoseconds at least should we wait. A negative timeout will block
+     *            forever until something happens.
+     *
+     * @param   sigmask
+     *            Signal mask used during the wait, null for keeping the current one.
+     *
+     * @return  How many events occured before the timeout elapsed.
+     *
+     * @throws  IllegalStateException
+     *            When this epoll instance has been closed.
+     *
+     * @throws  IOException
+     *            When an unplanned errors occured on the native side.
+     *
+     * @see     <a href="http://man7.org/linux/man-pages/man2/epoll_wait.2.html">Man pages</a>
+     */
+    public int waitNanos( EpollEvents events  ,
+                          long        timeout ,
+                          SignalSet   sigmask ) throws IOException {
+
+        int n = this.waitNanos( events.memory                        ,
+                                events.size                          ,
+                                timeout                              ,
+                                sigmask == null ? null : sigmask.ptr ) ;
+
+        events.afterWait( n ) ;
+
+        return n ;
+    }
+
+
+
+
+    /**
+     * Waits for events like {@link #wait( EpollEvents, int )} but reports failures as a negative errno instead of
+     * throwing.
+     *
+     * @param   events
+     *            Will be overwritten by the kernel in order to describe what happened and give back
+     *            the previously registered arbitrary long value for each file descriptor involved.
+     *
+     * @param   timeout
+     *            How many milliseconds at least should we wait. A timeout of -1 will block
+     *            forever until something happens.
+     *
+     * @return  How many events occured before the timeout elapsed, or the negated errno.
+     *
+     * @throws  IllegalStateException
+     *            When this epoll instance has been closed.
+     */
+    public int tryWait( EpollEvents events  ,
+                        int         timeout ) {
+
+        this.guardClosed() ;
+
+        int result = this.waitRaw( events.memory ,
+                                   events.size   ,
+                                   timeout       ) ;
+
+        if ( result >= 0 ) {
+
+            events.afterWait( result ) ;
+        }
+
+        return result ;
+    }
+
+
+
+
+    /**
+     * Waits for events like {@link #waitNanos( EpollEvents, long, SignalSet )} but reports failures as a negative
+     * errno instead of throwing.
+     *
+     * @param   events
+     *            Will be overwritten by the kernel in order to describe what happened and give back
+     *            the previously registered arbitrary long value for each file descriptor involved.
+     *
+     * @param   timeout
+     *            How many nanoseconds at least should we wait. A negative timeout will block
+     *            forever until something happens.
+     *
+     * @param   sigmask
+     *            Signal mask used during the wait, null for keeping the current one.
+     *
+     * @return  How many events occured before the timeout elapsed, or the negated errno.
+     *
+     * @throws  IllegalStateException
+     *            When this epoll instance has been closed.
+     */
+    public int tryWaitNanos( EpollEvents events  ,
+                             long        timeout ,
+                             SignalSet   sigmask ) {
+
+        this.guardClosed() ;
+
+        int result = this.waitNanosRaw( events.memory                        ,
+                                        events.size                          ,
+                                        timeout                              ,
+                                        sigmask == null ? null : sigmask.ptr ) ;
+
+        if ( result >= 0 ) {
+
+            events.afterWait( result ) ;
+        }
+
+        return result ;
+    }
+
+
+
+
+    // Waits for an epoll event using a raw pointer.
+    //
+    private int wait( Pointer events    ,
+                      int     maxEvents ,
+                      int     timeout   ) throws IOException {
+
+        this.guardClosed() ;
+
+        return waitResult( this.waitRaw( events    ,
+                                         maxEvents ,
+                                         timeout   ) ) ;
+    }
+
+
+
+
+    // Waits for an epoll event using raw pointers and a timeout in nanoseconds.
+    //
+    private int waitNanos( Pointer events    ,
+                           int     maxEvents ,
+                           long    timeout   ,
+                           Pointer sigmask   ) throws IOException {
+
+        this.guardClosed() ;
+
+        return waitResult( this.waitNanosRaw( events    ,
+                                              maxEvents ,
+                                              timeout   ,
+                                              sigmask   ) ) ;
+    }
+
+
+
+
+    // Waits for an epoll event and returns how many events occured or the negated errno, recording metrics and
+    // emitting a JFR event if needed.
+    //
+    private int waitRaw( Pointer events    ,
+                         int     maxEvents ,
+                         int     timeout   ) {
+
+        EpollMetricsRecorder metrics  = this.metrics                           ;
+        EpollWaitEvent       jfrEvent = new EpollWaitEvent()                   ;
+        long                 start    = metrics == null ? 0
+                                                        : metrics.enterWait()  ;
+
+        this.acquire() ;
+
+        jfrEvent.begin() ;
+
+        int result ;
+
+        try {
+
+            result = this.waitRetrying( events    ,
+                                        maxEvents ,
+                                        timeout   ) ;
+
+            // Woken up by closing, what has been reported is not relevant anymore.
+            //
+            if ( this.state.get() < 0 ) {
+
+                result = 0 ;
+            }
+        }
+        finally {
+
+            this.release() ;
+        }
+
+        jfrEvent.end() ;
+
+        if ( metrics != null ) {
+
+            metrics.exitWait( start     ,
+                              result    ,
+                              maxEvents ) ;
+        }
+
+        if ( jfrEvent.shouldCommit() ) {
+
+            jfrEvent.commit( this.epfd                          ,
+                             timeout < 0 ? -1L
+                                         : timeout * 1_000_000L ,
+                             maxEvents                          ,
+                             result                             ) ;
+        }
+
+        return result ;
+    }
+
+
+
+
+    // Waits for an epoll event and returns how many events occured or the negated errno.
+    //
+    // Retries transparently when interrupted by a signal (EINTR), recomputing the timeout so that the deadline holds.
+    //
+    private int waitRetrying( Pointer events    ,
+                              int     maxEvents ,
+                              int     timeout   ) {
+
+        long deadline = timeout > 0 ? System.nanoTime() + timeout * 1_000_000L
+                                    : 0                                         ;
+
+        while ( true ) {
+
+            int result = NATIVE.wait( this.epfd ,
+                                      events    ,
+                                      maxEvents ,
+                                      timeout   ) ;
+
+            if ( result > 0 ) {
+
+                return result ;
+            }
+
+            if ( result == 0 ) {
+
+                // A blocking wait cannot time out, retries if it ever happens.
+                //
+                if ( timeout >= 0 ) {
+
+                    return 0 ;
+                }
+            }
+            else {
+
+                int errno = NATIVE.errno() ;
+
+                if ( errno != Errno.EINTR ) {
+
+                    return -errno ;
+                }
+
+                if ( timeout > 0 ) {
+
+                    long remaining = deadline - System.nanoTime() ;
+
+                    if ( remaining <= 0 ) {
+
+                        return 0 ;
+                    }
+
+                    timeout = toMillis( remaining ) ;
+                }
+            }
+        }
+    }
+
+
+
+
+    // Waits for an epoll event using a timeout in nanoseconds and returns how many events occured or the negated
+    // errno, recording metrics and emitting a JFR event if needed.
+    //
+    private int waitNanosRaw( Pointer events    ,
+                              int     maxEvents ,
+                              long    timeout   ,
+                              Pointer sigmask   ) {
+
+        EpollMetricsRecorder metrics  = this.metrics                           ;
+        EpollWaitEvent       jfrEvent = new EpollWaitEvent()                   ;
+        long                 start    = metrics == null ? 0
+                                                        : metrics.enterWait()  ;
+
+        this.acquire() ;
+
+        jfrEvent.begin() ;
+
+        int result ;
+
+        try {
+
+            result = this.waitNanosRetrying( events    ,
+                                             maxEvents ,
+                                             timeout   ,
+                                             sigmask   ) ;
+
+            // Woken up by closing, what has been reported is not relevant anymore.
+            //
+            if ( this.state.get() < 0 ) {
+
+                result = 0 ;
+            }
+        }
+        finally {
+
+            this.release() ;
+        }
+
+        jfrEvent.end() ;
+
+        if ( metrics != null ) {
+
+            metrics.exitWait( start     ,
+                              result    ,
+                              maxEvents ) ;
+        }
+
+        if ( jfrEvent.shouldCommit() ) {
+
+            jfrEvent.commit( this.epfd             ,
+                             timeout < 0 ? -1L
+                                         : timeout ,
+                             maxEvents             ,
+                             result                ) ;
+        }
+
+        return result ;
+    }
+
+
+
+
+    // Waits for an epoll event using a timeout in nanoseconds and returns how many events occured or the negated
+    // errno.
+    //
+    // Retries transparently when interrupted by a signal (EINTR), recomputing the timeout so that the deadline holds,
+    // unless a signal mask is given since being interrupted by a signal is then most likely what the user is
+    // waiting for.
+    //
+    private int waitNanosRetrying( Pointer events    ,
+                                   int     maxEvents ,
+                                   long    timeout   ,
+                                   Pointer sigmask   ) {
+
+        // Relying on overflow when computing the remaining time in case of a very large timeout.
+        //
+        long deadline = System.nanoTime() + timeout ;
+
+        while ( true ) {
+
+            int result = this.waitNanosOnce( events    ,
+                                             maxEvents ,
+                                             timeout   ,
+                                             sigmask   ) ;
+
+            if ( result > 0 ) {
+
+                return result ;
+            }
+
+            if ( result == 0 ) {
+
+                if ( timeout >= 0 ) {
+
+                    return 0 ;
+                }
+            }
+            else {
+
+                if ( result != -Errno.EINTR ) {
+
+                    return result ;
+                }
+
+                if ( sigmask != null ) {
+
+                    return 0 ;
+                }
+
+                if ( timeout > 0 ) {
+
+                    timeout = deadline - System.nanoTime() ;
+
+                    if ( timeout <= 0 ) {
+
+                        return 0 ;
+                    }
+                }
+            }
+        }
+    }
+
+
+
+
+    // Performs a single wait with a timeout in nanoseconds, falling back to millisecond precision if needed.
+    //
+    // Returns how many events occured or the negated errno.
+    //
+    private int waitNanosOnce( Pointer events    ,
+                               int     maxEvents ,
+                               long    timeout   ,
+                               Pointer sigmask   ) {
+
+        int result ;
+
+        if ( hasPwait2 ) {
+
+            result = NATIVE.pwait2( this.epfd                                ,
+                                    events                                   ,
+                                    maxEvents                                ,
+                                    timeout < 0 ? null : timespec( timeout ) ,
+                                    sigmask                                  ) ;
+
+            if ( result >= 0 ) {
+
+                return result ;
+            }
+
+            int errno = NATIVE.errno() ;
+
+            if ( errno != Errno.ENOSYS ) {
+
+                return -errno ;
+            }
+
+            hasPwait2 = false ;
+        }
+
+        int timeoutMillis = toMillis( timeout ) ;
+
+        result = sigmask == null ? NATIVE.wait( this.epfd     ,
+                                                events        ,
+                                                maxEvents     ,
+                                                timeoutMillis )
+                                 : NATIVE.pwait( this.epfd     ,
+                                                 events        ,
+                                                 maxEvents     ,
+                                                 timeoutMillis ,
+                                                 sigmask       ) ;
+
+        return result < 0 ? -NATIVE.errno()
+                          : result          ;
+    }
+
+
+
+
+    // Fills the native timespec of the current thread with the given nanoseconds.
+    //
+    private static Pointer timespec( long nanos ) {
+
+        Memory timespec = TIMESPEC.get() ;
+
+        long seconds     = nanos / 1_000_000_000L ;
+        long nanoseconds = nanos % 1_000_000_000L ;
+
+        if ( Native.LONG_SIZE == 8 ) {
+
+            timespec.setLong( 0           ,
+                              seconds     ) ;
+            timespec.setLong( 8           ,
+                              nanoseconds ) ;
+        }
+        else {
+
+            timespec.setInt( 0                                    ,
+                             (int)Math.min( seconds           ,
+                                            Integer.MAX_VALUE ) ) ;
+            timespec.setInt( 4                                    ,
+                             (int)nanoseconds                     ) ;
+        }
+
+        return timespec ;
+    }
+
+
+
+
+    // Rounds up a timeout in nanoseconds to milliseconds, so that a wait never returns before the deadline.
+    //
+    private static int toMillis( long nanos ) {
+
+        if ( nanos < 0 ) {
+
+            return -1 ;
+        }
+
+        long millis = nanos / 1_000_000L ;
+
+        if ( nanos % 1_000_000L != 0 ) {
+
+            millis += 1 ;
+        }
+
+        return (int)Math.min( millis            ,
+                              Integer.MAX_VALUE ) ;
+    }
+
+
+
+
+    // Throws if a wait failed.
+    //
+    private static int waitResult( int result ) throws IOException {
+
+        if ( result < 0 ) {
+            
+            throw new IOException( "Native error while waiting for an epoll event : errno " + -result ) ;
         }
 
         return result ;
@@ -0,0 +1,622 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import io.helins.linux.epoll.Epoll       ;
+import io.helins.linux.epoll.EpollEvent  ;
+import io.helins.linux.epoll.EpollEvents ;
+import io.helins.linux.errno.Errno       ;
+import java.io.IOException               ;
+import java.util.Arrays                  ;
+
+
+
+
+/**
+ * Class recording interest changes for an epoll instance and applying only the net result right before waiting,
+ * in the spirit of the changelist of kqueue.
+ * <p>
+ * A shadow table holds, for each file descriptor, what the kernel currently knows and what is wanted. Any number of
+ * changes for the same file descriptor between two waits, such as enabling and disabling EPOLLOUT several times,
+ * result in at most one <code>epoll_ctl</code>, or none at all if nothing changed in the end. Adding a file descriptor
+ * twice or removing one which is not monitored is not an error anymore.
+ * <p>
+ * The shadow table assumes that it is the only one modifying the epoll instance. While the epoll instance itself
+ * supports concurrent registrations, the change list does not: it must be used by a single thread, typically the one
+ * waiting.
+ * <p>
+ * Beware, closing a file descriptor removes it from the epoll instance. Hence, a file descriptor about to be closed
+ * should be {@link #forget( int ) forgotten} instead of removed, otherwise the deferred removal could target another
+ * file descriptor reusing the same number.
+ */
+public class EpollChangeList {
+
+
+    // Bits describing the state of a file descriptor.
+    //
+    private static final byte REGISTERED = 1 ;
+    private static final byte WANTED     = 2 ;
+    private static final byte DIRTY      = 4 ;
+    private static final byte REARM      = 8 ;
+
+
+
+
+    // Epoll instance changes are applied to.
+    //
+    private final Epoll      epoll        ;
+
+    // Reusable event for applying changes.
+    //
+    private final EpollEvent event        ;
+
+    // State of each file descriptor.
+    //
+    private byte[]           states       ;
+
+    // Flags and user data known by the kernel.
+    //
+    private int[]            currentFlags ;
+    private long[]           currentData  ;
+
+    // Flags and user data wanted after the next flush.
+    //
+    private int[]            wantedFlags  ;
+    private long[]           wantedData   ;
+
+    // File descriptors with pending changes.
+    //
+    private int[]            dirty        ;
+    private int              dirtyCount   ;
+
+
+
+
+    /**
+     * Creates a changelist for the given epoll instance.
+     *
+     * @param   epoll
+     *            Epoll instance changes are applied to, this changelist should be the only one modifying it.
+     */
+    public EpollChangeList( Epoll epoll ) {
+
+        this.epoll        = epoll            ;
+        this.event        = new EpollEvent() ;
+        this.states       = new byte[ 64 ]   ;
+        this.currentFlags = new int[ 64 ]    ;
+        this.currentData  = new long[ 64 ]   ;
+        this.wantedFlags  = new int[ 64 ]    ;
+        this.wantedData   = new long[ 64 ]   ;
+        this.dirty        = new int[ 64 ]    ;
+    }
+
+
+
+
+    /**
+     * Retrieves the underlying epoll instance.
+     *
+     * @return  The epoll instance.
+     */
+    public Epoll getEpoll() {
+
+        return this.epoll ;
+    }
+
+
+
+
+    // Ensures the shadow table can hold the given file descriptor.
+    //
+    private void ensureCapacity( int fd ) {
+
+        if ( fd < 0 ) {
+
+            throw new IllegalArgumentException( "File descriptor must be >= 0" ) ;
+        }
+
+        if ( fd >= this.states.length ) {
+
+            int capacity = Math.max( fd + 1                 ,
+                                     this.states.length * 2 ) ;
+
+            this.states       = Arrays.copyOf( this.states       ,
+                                               capacity          ) ;
+            this.currentFlags = Arrays.copyOf( this.currentFlags ,
+                                               capacity          ) ;
+            this.currentData  = Arrays.copyOf( this.currentData  ,
+                                               capacity          ) ;
+            this.wantedFlags  = Arrays.copyOf( this.wantedFlags  ,
+                                               capacity          ) ;
+            this.wantedData   = Arrays.copyOf( this.wantedData   ,
+                                               capacity          ) ;
+        }
+    }
+
+
+
+
+    // Remembers that the given file descriptor has pending changes.
+    //
+    private void markDirty( int fd ) {
+
+        if ( ( this.states[ fd ] & DIRTY ) == 0 ) {
+
+            if ( this.dirtyCount == this.dirty.length ) {
+
+                this.dirty = Arrays.copyOf( this.dirty          ,
+                                            this.dirtyCount * 2 ) ;
+            }
+
+            this.dirty[ this.dirtyCount ]  = fd    ;
+            this.dirtyCount               += 1     ;
+            this.states[ fd ]             |= DIRTY ;
+        }
+    }
+
+
+
+
+    /**
+     * Sets what should be monitored for the given file descriptor, whether it is already monitored or not.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   flags
+     *            Which events should be monitored.
+     *
+     * @param   userData
+     *            Arbitrary long value given back when an event occurs.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalArgumentException
+     *            When the file descriptor is negative.
+     */
+    public EpollChangeList set( int              fd       ,
+                                EpollEvent.Flags flags    ,
+                                long             userData ) {
+
+        return this.set( fd          ,
+                         flags.value ,
+                         userData    ) ;
+    }
+
+
+
+
+    /**
+     * Sets what should be monitored for the given file descriptor using raw flags, whether it is already monitored
+     * or not.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   flags
+     *            Raw flags describing which events should be monitored.
+     *
+     * @param   userData
+     *            Arbitrary long value given back when an event occurs.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalArgumentException
+     *            When the file descriptor is negative.
+     *
+     * @see     EpollEvent.Flag#getValue()
+     */
+    public EpollChangeList set( int  fd       ,
+                                int  flags    ,
+                                long userData ) {
+
+        this.ensureCapacity( fd ) ;
+
+        this.wantedFlags[ fd ]  = flags    ;
+        this.wantedData[ fd ]   = userData ;
+        this.states[ fd ]      |= WANTED   ;
+
+        this.markDirty( fd ) ;
+
+        return this ;
+    }
+
+
+
+
+    // Throws an IllegalStateException if the given file descriptor is not wanted.
+    //
+    private void guardWanted( int fd ) {
+
+        if ( this.isMonitored( fd ) == false ) {
+
+            throw new IllegalStateException( "File descriptor is not monitored : " + fd ) ;
+        }
+    }
+
+
+
+
+    /**
+     * Starts monitoring the given flag for an already monitored file descriptor.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   flag
+     *            Flag to set.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalStateException
+     *            When the file descriptor is not monitored.
+     */
+    public EpollChangeList enable( int             fd   ,
+                                   EpollEvent.Flag flag ) {
+
+        this.guardWanted( fd ) ;
+
+        this.wantedFlags[ fd ] |= flag.value ;
+
+        this.markDirty( fd ) ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Stops monitoring the given flag for an already monitored file descriptor.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   flag
+     *            Flag to unset.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalStateException
+     *            When the file descriptor is not monitored.
+     */
+    public EpollChangeList disable( int             fd   ,
+                                    EpollEvent.Flag flag ) {
+
+        this.guardWanted( fd ) ;
+
+        this.wantedFlags[ fd ] &= ~flag.value ;
+
+        this.markDirty( fd ) ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Forces the current interest of a file descriptor to be sent again even if it did not change.
+     * <p>
+     * Needed for rearming a file descriptor registered with {@link EpollEvent.Flag#EPOLLONESHOT EPOLLONESHOT}
+     * after it fired, since the kernel disabled it without this changelist knowing.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalStateException
+     *            When the file descriptor is not monitored.
+     */
+    public EpollChangeList rearm( int fd ) {
+
+        this.guardWanted( fd ) ;
+
+        this.states[ fd ] |= REARM ;
+
+        this.markDirty( fd ) ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Stops monitoring the given file descriptor, does nothing if it is not monitored.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @return  This instance.
+     */
+    public EpollChangeList remove( int fd ) {
+
+        if ( this.isMonitored( fd ) ) {
+
+            this.states[ fd ] &= ~WANTED ;
+
+            this.markDirty( fd ) ;
+        }
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Forgets everything about a file descriptor without any system call, cancelling pending changes.
+     * <p>
+     * Meant to be called right before closing a file descriptor, since closing it removes it from the epoll instance
+     * anyway (unless it has been duplicated).
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @return  This instance.
+     */
+    public EpollChangeList forget( int fd ) {
+
+        if ( fd >= 0 && fd < this.states.length ) {
+
+            // If it is still in the dirty list, it will be skipped during next flush.
+            //
+            this.states[ fd ] &= DIRTY ;
+        }
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Is the given file descriptor monitored, taking into account pending changes ?
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @return  True if it is.
+     */
+    public boolean isMonitored( int fd ) {
+
+        return fd >= 0 && fd < this.states.length && ( this.states[ fd ] & WANTED ) != 0 ;
+    }
+
+
+
+
+    /**
+     * Retrieves how many file descriptors have pending changes.
+     *
+     * @return  The number of file descriptors which might need a system call during the next flush.
+     */
+    public int pending() {
+
+        return this.dirtyCount ;
+    }
+
+
+
+
+    // Describes the failure of an epoll_ctl on the given file descriptor.
+    //
+    private static Exception failure( int fd    ,
+                                      int errno ) {
+
+        switch ( errno ) {
+
+            case Errno.EBADF  : return new IllegalArgumentException( "Given file descriptor is invalid : " + fd )                              ;
+
+            case Errno.EPERM  : return new UnsupportedOperationException( "Given file descriptor does not support epoll : " + fd )             ;
+
+            case Errno.ENOSPC : return new IOException( "Limit of maximum user epoll watches reached" )                                        ;
+
+            default           : return new IOException( "Native error while applying changes to file descriptor " + fd + " : errno " + errno ) ;
+        }
+    }
+
+
+
+
+    /**
+     * Applies the net result of all pending changes to the epoll instance.
+     * <p>
+     * The shadow table is reconciled with the kernel when they drifted apart : a file descriptor unexpectedly already
+     * registered is modified, one unexpectedly not registered is added, and removing one the kernel does not know
+     * anymore (eg. closed without being {@link #forget( int ) forgotten}) succeeds.
+     * <p>
+     * If applying the changes of a file descriptor still fails, what is wanted for it is reset to what the kernel
+     * holds and remaining changes are still applied. The first failure is then thrown, others being suppressed.
+     *
+     * @return  How many <code>epoll_ctl</code> calls were needed.
+     *
+     * @throws  IllegalArgumentException
+     *            When a file descriptor is invalid.
+     *
+     * @throws  IllegalStateException
+     *            When the epoll instance has been closed.
+     *
+     * @throws  IOException
+     *            When a change cannot be applied.
+     *
+     * @throws  UnsupportedOperationException
+     *            When a file descriptor does not support epoll.
+     *
+     * @see     Epoll#tryAdd( int, EpollEvent )
+     * @see     Epoll#tryModify( int, EpollEvent )
+     * @see     Epoll#tryRemove( int )
+     */
+    public int flush() throws IOException {
+
+        int       calls   = 0    ;
+        Exception failure = null ;
+
+        for ( int i = 0           ;
+              i < this.dirtyCount ;
+              i += 1              ) {
+
+            int  fd    = this.dirty[ i ]   ;
+            byte state = this.states[ fd ] ;
+
+            this.states[ fd ] = (byte)( state & ~( DIRTY | REARM ) ) ;
+
+            boolean isRegistered = ( state & REGISTERED ) != 0 ;
+            boolean isWanted     = ( state & WANTED     ) != 0 ;
+
+            // Whether the kernel holds the file descriptor if the change fails, and whether its interest is then
+            // known.
+            //
+            boolean   isHeld  = isRegistered ;
+            boolean   isKnown = true         ;
+            int       errno   = 0            ;
+            Exception error   = null         ;
+
+            try {
+
+                if ( isWanted ) {
+
+                    this.event.setRawFlags( this.wantedFlags[ fd ] )
+                              .setUserData( this.wantedData[ fd ] ) ;
+
+                    if ( isRegistered == false ) {
+
+                        calls += 1                               ;
+                        errno  = this.epoll.tryAdd( fd         ,
+                                                    this.event ) ;
+
+                        if ( errno == Errno.EEXIST ) {
+
+                            isHeld  = true                               ;
+                            isKnown = false                              ;
+                            calls  += 1                                  ;
+                            errno   = this.epoll.tryModify( fd         ,
+                                                            this.event ) ;
+                        }
+                    }
+                    else if (    ( state & REARM ) != 0
+                              || this.currentFlags[ fd ] != this.wantedFlags[ fd ]
+                              || this.currentData[ fd ]  != this.wantedData[ fd ]  ) {
+
+                        calls += 1                                  ;
+                        errno  = this.epoll.tryModify( fd         ,
+                                                       this.event ) ;
+
+                        if ( errno == Errno.ENOENT ) {
+
+                            isHeld  = false                           ;
+                            calls  += 1                               ;
+                            errno   = this.epoll.tryAdd( fd         ,
+                                                         this.event ) ;
+                        }
+                    }
+
+                    if ( errno == 0 ) {
+
+                        this.states[ fd ]       |= REGISTERED             ;
+                        this.currentFlags[ fd ]  = this.wantedFlags[ fd ] ;
+                        this.currentData[ fd ]   = this.wantedData[ fd ]  ;
+                    }
+                }
+                else if ( isRegistered ) {
+
+                    calls += 1                          ;
+                    errno  = this.epoll.tryRemove( fd ) ;
+
+                    // Already gone from the kernel, typically closed meanwhile.
+                    //
+                    if ( errno == 0 || errno == Errno.ENOENT || errno == Errno.EBADF ) {
+
+                        errno              = 0           ;
+                        this.states[ fd ] &= ~REGISTERED ;
+                    }
+                }
+
+                if ( errno != 0 ) {
+
+                    error = failure( fd    ,
+                                     errno ) ;
+                }
+            }
+            catch ( RuntimeException e ) {
+
+                error = e ;
+            }
+
+            if ( error != null ) {
+
+                // Keeps what the kernel holds, an unknown interest is sent again the next time the file descriptor
+                // changes.
+                //
+                this.states[ fd ]      = (byte)( isHeld ? REGISTERED | WANTED | ( isKnown ? 0 : REARM ) : 0 ) ;
+                this.wantedFlags[ fd ] = this.currentFlags[ fd ]                                              ;
+                this.wantedData[ fd ]  = this.currentData[ fd ]                                               ;
+
+                if ( failure == null ) {
+
+                    failure = error ;
+                }
+                else {
+
+                    failure.addSuppressed( error ) ;
+                }
+            }
+        }
+
+        this.dirtyCount = 0 ;
+
+        if ( failure instanceof IOException ) {
+
+            throw (IOException)failure ;
+        }
+
+        if ( failure != null ) {
+
+            throw (RuntimeException)failure ;
+        }
+
+        return calls ;
+    }
+
+
+
+
+    /**
+     * Applies pending changes and then waits for events.
+     *
+     * @param   events
+     *            Will be overwritten by the kernel in order to describe what happened and give back
+     *            the previously registered arbitrary long value for each file descriptor involved.
+     *
+     * @param   timeout
+     *            How many milliseconds at least should we wait. A timeout of -1 will block
+     *            forever until something happens.
+     *
+     * @return  How many events occured before the timeout elapsed.
+     *
+     * @throws  IllegalStateException
+     *            When the epoll instance has been closed.
+     *
+     * @throws  IOException
+     *            When a change cannot be applied or when an unplanned error occured while waiting.
+     *
+     * @see     #flush()
+     * @see     Epoll#wait( EpollEvents, int )
+     */
+    public int wait( EpollEvents events  ,
+                     int         timeout ) throws IOException {
+
+        this.flush() ;
+
+        return this.epoll.wait( events  ,
+                                timeout ) ;
+    }
+}
@@ -0,0 +1,62 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import jdk.jfr.Category    ;
+import jdk.jfr.Description ;
+import jdk.jfr.Event       ;
+import jdk.jfr.Label       ;
+import jdk.jfr.Name        ;
+import jdk.jfr.Threshold   ;
+
+
+
+
+// JFR event describing a registration, a modification or a removal on an epoll instance.
+//
+@Name( "io.helins.linux.epoll.Ctl" )
+@Label( "Epoll Control" )
+@Category( { "Linux", "Epoll" } )
+@Description( "Adding, modifying or removing a file descriptor on an epoll instance" )
+@Threshold( "1 ms" )
+final class EpollCtlEvent extends Event {
+
+
+    @Label( "Epoll File Descriptor" )
+    int    epfd      ;
+
+    @Label( "Operation" )
+    @Description( "ADD, MOD or DEL" )
+    String operation ;
+
+    @Label( "File Descriptor" )
+    int    fd        ;
+
+    @Label( "Errno" )
+    @Description( "Error number, 0 if the operation succeeded" )
+    int    errno     ;
+
+
+
+
+    // Fills this event and commits it.
+    //
+    void commit( int    epfd      ,
+                 String operation ,
+                 int    fd        ,
+                 int    errno     ) {
+
+        this.epfd      = epfd      ;
+        this.operation = operation ;
+        this.fd        = fd        ;
+        this.errno     = errno     ;
+
+        this.commit() ;
+    }
+}
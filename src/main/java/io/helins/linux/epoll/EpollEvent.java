@@ -86,6 +86,17 @@ public class EpollEvent {
          */
         EPOLLRDHUP  ( 0x2000  ) ,
 
+        /**
+         * Exclusive wake up when the same file descriptor is monitored by several epoll instances.
+         * <p>
+         * Instead of waking up all instances (thundering herd), only one or some of them are woken up. Meant
+         * for sharing for instance a listening socket between several threads, each with its own epoll instance.
+         * <p>
+         * Can only be used with <strong>{@link Epoll#add( int, EpollEvent ) Epoll#add}</strong> and only along
+         * EPOLLIN, EPOLLOUT, EPOLLWAKEUP and EPOLLT. Requires Linux 4.5+.
+         */
+        EPOLLEXCLUSIVE( 1 << 28 ) ,
+
         /**
          * Prevents hibernation, only to be used when really knowing what it does.
          */
@@ -94,13 +105,17 @@ public class EpollEvent {
         /**
          * One-shot behavior, meaning that after an event happens, it will not be monitored anymore.
          * <p>
-         * The user can reactive it by calling <strong>{@link Epoll#add( int, EpollEvent ) Epoll#add}</strong> with the related
-         * file descriptor.
+         * The file descriptor remains in the interest list, disabled. The user can reactivate it by calling
+         * <strong>{@link Epoll#modify( int, EpollEvent ) Epoll#modify}</strong> with the related file descriptor,
+         * adding it again fails since it is still there.
          */
         EPOLLONESHOT( 1 << 30 ) ,
 
         /**
-         * Edge Triggered behavior, only to be used when really knowing what it does.
+         * Edge Triggered behavior (EPOLLET), only to be used when really knowing what it does.
+         * <p>
+         * An event is reported only when the state of the file descriptor changes, hence it must be drained until
+         * EAGAIN before waiting again. See {@link EdgeTriggeredDispatcher} for doing so fairly.
          */
         EPOLLT      ( 1 << 31 ) ;
 
@@ -120,6 +135,21 @@ public class EpollEvent {
         
             this.value = flag ;
         }
+
+
+
+
+        /**
+         * Retrieves the native value of this flag, meant for testing raw flags without allocating.
+         *
+         * @return  The bit mask of this flag.
+         *
+         * @see     Flags#isSet( int, Flag )
+         */
+        public int getValue() {
+        
+            return this.value ;
+        }
     }
 
 
@@ -175,7 +205,44 @@ public class EpollEvent {
          */
         public boolean isSet( Flag flag ) {
         
-            return ( this.value & flag.value ) > 0 ;
+            return isSet( this.value ,
+                          flag       ) ;
+        }
+
+
+
+
+        /**
+         * Is the given event flag set in the given raw flags ?
+         * <p>
+         * Useful for testing what happened without allocating a container, for instance with
+         * <strong>{@link EpollEvents#getRawFlags( int ) EpollEvents#getRawFlags}</strong>.
+         *
+         * @param  flags
+         *           Raw flags.
+         *
+         * @param  flag
+         *           The tested event flag.
+         *
+         * @return True if this flag is set.
+         */
+        public static boolean isSet( int  flags ,
+                                     Flag flag  ) {
+        
+            return ( flags & flag.value ) != 0 ;
+        }
+
+
+
+
+        /**
+         * Retrieves the raw value of these flags.
+         *
+         * @return  The bit mask of all set flags.
+         */
+        public int getValue() {
+        
+            return this.value ;
         }
 
 
@@ -283,7 +350,41 @@ public class EpollEvent {
      */
     public Flags getFlags() {
 
-        return new Flags( this.ptr.getInt( NativeEpollEvent.OFFSET_EVENTS ) ) ;
+        return new Flags( this.getRawFlags() ) ;
+    }
+
+
+
+
+    /**
+     * Retrieves the flags describing the type of events this instance is associated with by reusing
+     * the given container instead of allocating a new one.
+     *
+     * @param   flags
+     *            Container which will be overwritten.
+     *
+     * @return  The given container.
+     */
+    public Flags getFlags( Flags flags ) {
+
+        flags.value = this.getRawFlags() ;
+
+        return flags ;
+    }
+
+
+
+
+    /**
+     * Retrieves the raw flags describing the type of events this instance is associated with.
+     *
+     * @return  The bit mask of all set flags.
+     *
+     * @see     Flags#isSet( int, Flag )
+     */
+    public int getRawFlags() {
+
+        return this.ptr.getInt( NativeEpollEvent.OFFSET_EVENTS ) ;
     }
 
 
@@ -299,8 +400,26 @@ public class EpollEvent {
      */
     public EpollEvent setFlags( Flags flags ) {
 
+        return this.setRawFlags( flags.value ) ;
+    }
+
+
+
+
+    /**
+     * Sets the raw flags describing the type of events this instance responds to.
+     *
+     * @param   flags
+     *            Bit mask of flag values.
+     *
+     * @return  This instance.
+     *
+     * @see     Flag#getValue()
+     */
+    public EpollEvent setRawFlags( int flags ) {
+
         this.ptr.setInt( NativeEpollEvent.OFFSET_EVENTS ,
-                         flags.value                    ) ;
+                         flags                          ) ;
     
         return this ;
     }
@@ -0,0 +1,1107 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import io.helins.linux.epoll.Epoll                     ;
+import io.helins.linux.epoll.EpollEvent                ;
+import io.helins.linux.epoll.EpollEvents               ;
+import io.helins.linux.epoll.TimingWheel               ;
+import java.io.IOException                             ;
+import java.io.UncheckedIOException                    ;
+import java.util.Arrays                                ;
+import java.util.Queue                                 ;
+import java.util.concurrent.CancellationException      ;
+import java.util.concurrent.CompletableFuture          ;
+import java.util.concurrent.CompletionStage            ;
+import java.util.concurrent.ConcurrentLinkedQueue      ;
+import java.util.concurrent.Executor                   ;
+import java.util.concurrent.Future                     ;
+import java.util.concurrent.RejectedExecutionException ;
+import java.util.concurrent.TimeUnit                   ;
+import java.util.concurrent.atomic.AtomicBoolean       ;
+
+
+
+
+/**
+ * Class representing a single-threaded event loop built on an epoll instance.
+ * <p>
+ * File descriptors are registered with a handler. Then, the thread running the loop waits for events and dispatches
+ * them to the relevant handlers. Dispatching does not allocate anything: the user data of each registered file
+ * descriptor is the file descriptor itself and handlers are kept in an array indexed by file descriptor.
+ * <p>
+ * Unless stated otherwise, methods must be called either from the thread running the loop (eg. from a handler) or
+ * while the loop is not running. Other threads submit work to the loop thread using {@link #execute( Runnable )},
+ * tasks are run after each batch of events has been dispatched. The loop thread is woken up if needed using an eventfd
+ * registered internally, at most once per wait regardless of how many tasks are submitted.
+ * <p>
+ * Readiness can also be awaited asynchronously using {@link #whenReady( int, EpollEvent.Flags )}.
+ * <p>
+ * Timers are managed by a {@link TimingWheel}. Each wait is automatically bounded by the next due timer and expired
+ * timers are run right after the events of the same wait have been dispatched.
+ * <p>
+ * A file descriptor must be unregistered before being closed, otherwise a new file descriptor reusing the same number
+ * could be dispatched to the wrong handler.
+ */
+public class EpollEventLoop implements AutoCloseable ,
+                                       Executor      {
+
+
+    /**
+     * Default number of events retrieved by a single wait.
+     */
+    public static final int DEFAULT_MAX_EVENTS = 256 ;
+
+
+
+
+    /**
+     * Interface for handling events occuring on a file descriptor.
+     */
+    @FunctionalInterface
+    public static interface Handler {
+
+
+        /**
+         * Handles events that occured on a file descriptor.
+         *
+         * @param   fd
+         *            File descriptor.
+         *
+         * @param   flags
+         *            Raw flags describing what happened, tested with
+         *            <strong>{@link EpollEvent.Flags#isSet( int, EpollEvent.Flag ) Flags#isSet}</strong>.
+         *
+         * @throws  IOException
+         *            When something goes wrong, stops the loop.
+         */
+        public void handle( int fd    ,
+                            int flags ) throws IOException ;
+    }
+
+
+
+
+    // Underlying epoll instance.
+    //
+    final Epoll             epoll      ;
+
+    // Reusable buffer for waiting.
+    //
+    final EpollEvents       events     ;
+
+    // Reusable event for registrations.
+    //
+    final EpollEvent        event      ;
+
+    // Handlers indexed by file descriptor.
+    //
+    Handler[]               handlers   ;
+
+    // How many file descriptors are registered.
+    //
+    int                     size       ;
+
+    // Thread currently running the loop, null if the loop is not running.
+    //
+    volatile Thread         thread     ;
+
+    // Has stopping been requested ?
+    //
+    volatile boolean        isStopping ;
+
+    // Has the loop been closed ?
+    //
+    volatile boolean        isClosed   ;
+
+    // Have the epoll instance and the eventfd been closed ? Guarded by this instance.
+    //
+    boolean                 isReleased ;
+
+    // Used for waking up the loop thread.
+    //
+    final EventFd           wakeup     ;
+
+    // True while the loop thread is about to block or is blocked in a wait, meaning it needs to be woken up.
+    //
+    final AtomicBoolean     isParked   ;
+
+    // Tasks submitted by any thread.
+    //
+    final Queue< Runnable > tasks      ;
+
+    // Timers run by the loop thread.
+    //
+    final TimingWheel       timers     ;
+
+    // Spin-then-block strategy, null when waits simply block.
+    //
+    BusyPoll                busyPoll   ;
+
+
+
+
+    /**
+     * Creates an event loop retrieving at most {@link #DEFAULT_MAX_EVENTS} events per wait.
+     *
+     * @throws  IOException
+     *            When the epoll instance cannot be created.
+     *
+     * @see     Epoll#Epoll()
+     */
+    public EpollEventLoop() throws IOException {
+
+        this( DEFAULT_MAX_EVENTS ) ;
+    }
+
+
+
+
+    /**
+     * Creates an event loop.
+     *
+     * @param   maxEvents
+     *            How many events at most are retrieved by a single wait.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>maxEvents</strong> is less than 1.
+     *
+     * @throws  IOException
+     *            When the epoll instance cannot be created.
+     *
+     * @see     Epoll#Epoll()
+     */
+    public EpollEventLoop( int maxEvents ) throws IOException {
+
+        this.events   = new EpollEvents( maxEvents )            ;
+        this.event    = new EpollEvent()                        ;
+        this.handlers = new Handler[ 64 ]                       ;
+        this.isParked = new AtomicBoolean()                     ;
+        this.tasks    = new ConcurrentLinkedQueue< Runnable >() ;
+        this.timers   = new TimingWheel()                       ;
+        this.epoll    = new Epoll()                             ;
+
+        EventFd wakeup = null ;
+
+        try {
+
+            wakeup = new EventFd() ;
+
+            this.epoll.add( wakeup.fd                                                         ,
+                            this.event.setFlags( new EpollEvent.Flags().set( EpollEvent.Flag.EPOLLIN ) )
+                                      .setUserData( wakeup.fd )                               ) ;
+        }
+        catch ( IOException | RuntimeException e ) {
+
+            try {
+
+                if ( wakeup != null ) {
+
+                    wakeup.close() ;
+                }
+
+                this.epoll.close() ;
+            }
+            catch ( IOException closingFailure ) {
+
+                e.addSuppressed( closingFailure ) ;
+            }
+
+            throw e ;
+        }
+
+        this.wakeup = wakeup ;
+    }
+
+
+
+
+    /**
+     * Retrieves the underlying epoll instance.
+     * <p>
+     * File descriptors should be registered through this loop and not directly.
+     *
+     * @return  The epoll instance.
+     */
+    public Epoll getEpoll() {
+
+        return this.epoll ;
+    }
+
+
+
+
+    /**
+     * Sets a spin-then-block strategy for waits, trading CPU for latency.
+     *
+     * @param   busyPoll
+     *            Strategy used by this loop only, null for simply blocking.
+     *
+     * @return  This instance.
+     */
+    public EpollEventLoop setBusyPoll( BusyPoll busyPoll ) {
+
+        this.busyPoll = busyPoll ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Retrieves the timing wheel of this loop.
+     * <p>
+     * Like registrations, timers must be scheduled and cancelled from the loop thread or while the loop is not
+     * running.
+     *
+     * @return  The timing wheel.
+     */
+    public TimingWheel getTimers() {
+
+        return this.timers ;
+    }
+
+
+
+
+    /**
+     * Schedules a task to be run on the loop thread after the given delay.
+     * <p>
+     * Must be called from the loop thread or while the loop is not running. Other threads can submit the scheduling
+     * using {@link #execute( Runnable )}.
+     *
+     * @param   task
+     *            Task to run.
+     *
+     * @param   delay
+     *            Delay before running the task.
+     *
+     * @param   unit
+     *            Unit of <strong>delay</strong>.
+     *
+     * @return  The timer, which can be cancelled or scheduled again.
+     *
+     * @see     TimingWheel#schedule( Runnable, long, TimeUnit )
+     */
+    public TimingWheel.Timer schedule( Runnable task  ,
+                                       long     delay ,
+                                       TimeUnit unit  ) {
+
+        return this.timers.schedule( task  ,
+                                     delay ,
+                                     unit  ) ;
+    }
+
+
+
+
+    /**
+     * Retrieves how many file descriptors are currently registered.
+     *
+     * @return  The number of registered file descriptors.
+     */
+    public int size() {
+
+        return this.size ;
+    }
+
+
+
+
+    /**
+     * Starts monitoring a file descriptor and dispatching its events to the given handler.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   flags
+     *            Which events should be monitored.
+     *
+     * @param   handler
+     *            Handler called from the loop thread when something happens.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalArgumentException
+     *            When the file descriptor is negative, invalid or has already been registered.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be added.
+     *
+     * @see     Epoll#add( int, EpollEvent )
+     */
+    public EpollEventLoop register( int              fd      ,
+                                    EpollEvent.Flags flags   ,
+                                    Handler          handler ) throws IOException {
+
+        if ( fd < 0 ) {
+
+            throw new IllegalArgumentException( "File descriptor must be >= 0" ) ;
+        }
+
+        if ( handler == null ) {
+
+            throw new IllegalArgumentException( "Handler must not be null" ) ;
+        }
+
+        if ( fd < this.handlers.length && this.handlers[ fd ] != null ) {
+
+            throw new IllegalArgumentException( "Given file descriptor has already been added" ) ;
+        }
+
+        this.epoll.add( fd                                  ,
+                        this.event.setFlags( flags )
+                                  .setUserData( fd )        ) ;
+
+        if ( fd >= this.handlers.length ) {
+
+            this.handlers = Arrays.copyOf( this.handlers                         ,
+                                           Math.max( fd + 1                    ,
+                                                     this.handlers.length * 2 ) ) ;
+        }
+
+        this.handlers[ fd ]  = handler ;
+        this.size           += 1       ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Modifies which events are monitored for a registered file descriptor.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   flags
+     *            Which events should be monitored.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalStateException
+     *            When the file descriptor has not been registered.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be modified.
+     *
+     * @see     Epoll#modify( int, EpollEvent )
+     */
+    public EpollEventLoop modify( int              fd    ,
+                                  EpollEvent.Flags flags ) throws IOException {
+
+        this.guardRegistered( fd ) ;
+
+        this.epoll.modify( fd                           ,
+                           this.event.setFlags( flags )
+                                     .setUserData( fd ) ) ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Stops monitoring a registered file descriptor.
+     * <p>
+     * If called from a handler, pending events for this file descriptor will not be dispatched.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalStateException
+     *            When the file descriptor has not been registered.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be removed.
+     *
+     * @see     Epoll#remove( int )
+     */
+    public EpollEventLoop unregister( int fd ) throws IOException {
+
+        this.guardRegistered( fd ) ;
+
+        Handler handler = this.handlers[ fd ] ;
+
+        this.handlers[ fd ]  = null ;
+        this.size           -= 1    ;
+
+        this.epoll.remove( fd ) ;
+
+        if ( handler instanceof ReadinessHandler ) {
+
+            ( (ReadinessHandler)handler ).cancel( "File descriptor has been unregistered" ) ;
+        }
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Returns a stage completed from the loop thread the next time the given file descriptor is ready, can be called
+     * from any thread.
+     * <p>
+     * The file descriptor is registered the first time with {@link EpollEvent.Flag#EPOLLONESHOT EPOLLONESHOT} and
+     * stays registered, disabled, once the stage completes. Calling this method again rearms it by modifying the
+     * registration, reusing the same internal handler, hence steady-state rearming costs a single system call and
+     * allocates only the returned future. The file descriptor must be unregistered before being closed, which cancels
+     * a pending stage.
+     * <p>
+     * At most one stage can be pending per file descriptor, asking again while one is pending returns that same
+     * stage when called from the loop thread, regardless of the requested flags.
+     *
+     * @param   fd
+     *            File descriptor, not registered or already used with this method.
+     *
+     * @param   flags
+     *            Which events are awaited.
+     *
+     * @return  A stage completed with the flags describing what happened, or completed exceptionally if the file
+     *          descriptor cannot be registered (eg. with an IllegalStateException if it is registered with a
+     *          regular handler or already awaited from another thread).
+     *
+     * @throws  RejectedExecutionException
+     *            When called from another thread after the loop has been closed.
+     */
+    public CompletionStage< EpollEvent.Flags > whenReady( int              fd    ,
+                                                          EpollEvent.Flags flags ) {
+
+        int rawFlags = flags.value | EpollEvent.Flag.EPOLLONESHOT.value ;
+
+        if ( this.inLoop() ) {
+
+            return this.arm( fd       ,
+                             rawFlags ,
+                             null     ) ;
+        }
+
+        ArmTask task = new ArmTask( fd       ,
+                                    rawFlags ) ;
+
+        this.execute( task ) ;
+
+        return task.future ;
+    }
+
+
+
+
+    // Registers or rearms a file descriptor for a readiness stage.
+    //
+    // When the given future is null, returns the pending one if there is one or a new one.
+    //
+    private CompletableFuture< EpollEvent.Flags > arm( int                                   fd       ,
+                                                       int                                   rawFlags ,
+                                                       CompletableFuture< EpollEvent.Flags > future   ) {
+
+        Handler handler = fd >= 0 && fd < this.handlers.length ? this.handlers[ fd ]
+                                                               : null                ;
+
+        if ( handler instanceof ReadinessHandler && ( (ReadinessHandler)handler ).future != null ) {
+
+            if ( future == null ) {
+
+                return ( (ReadinessHandler)handler ).future ;
+            }
+
+            future.completeExceptionally( new IllegalStateException( "File descriptor is already awaited : " + fd ) ) ;
+
+            return future ;
+        }
+
+        if ( future == null ) {
+
+            future = new CompletableFuture< EpollEvent.Flags >() ;
+        }
+
+        try {
+
+            if ( handler == null ) {
+
+                ReadinessHandler readinessHandler = new ReadinessHandler() ;
+
+                this.register( fd                               ,
+                               new EpollEvent.Flags( rawFlags ) ,
+                               readinessHandler                 ) ;
+
+                readinessHandler.future = future ;
+            }
+            else if ( handler instanceof ReadinessHandler ) {
+
+                this.epoll.modify( fd                                  ,
+                                   this.event.setRawFlags( rawFlags )
+                                             .setUserData( fd )        ) ;
+
+                ( (ReadinessHandler)handler ).future = future ;
+            }
+            else {
+
+                throw new IllegalStateException( "File descriptor is registered with a regular handler : " + fd ) ;
+            }
+        }
+        catch ( IOException | RuntimeException e ) {
+
+            future.completeExceptionally( e ) ;
+        }
+
+        return future ;
+    }
+
+
+
+
+    // Throws an IllegalStateException if the given file descriptor is not registered.
+    //
+    private void guardRegistered( int fd ) {
+
+        if ( fd < 0 || fd >= this.handlers.length || this.handlers[ fd ] == null || fd == this.wakeup.fd ) {
+
+            throw new IllegalStateException( "File descriptor has not been registered : " + fd ) ;
+        }
+    }
+
+
+
+
+    /**
+     * Waits once, dispatches events to handlers, runs expired timers and then runs submitted tasks.
+     * <p>
+     * Does not block if tasks are pending or stopping has been requested, and does not block longer than the next
+     * due timer.
+     *
+     * @param   timeout
+     *            How many milliseconds at most should we wait. A timeout of -1 will block
+     *            forever until something happens.
+     *
+     * @return  How many events have been dispatched.
+     *
+     * @throws  IllegalStateException
+     *            When the loop has been closed.
+     *
+     * @throws  IOException
+     *            When waiting fails or a handler throws.
+     */
+    public int runOnce( int timeout ) throws IOException {
+
+        if ( timeout != 0 ) {
+
+            // Announces that the loop needs to be woken up before checking for work, so that a task submitted
+            // concurrently is either seen now or triggers a wake up.
+            //
+            this.isParked.set( true ) ;
+
+            if ( this.tasks.isEmpty() == false || this.isStopping ) {
+
+                timeout = 0 ;
+            }
+            else {
+
+                int timersTimeout = this.timers.nextTimeout( System.nanoTime() ) ;
+
+                if ( timersTimeout >= 0 && ( timeout < 0 || timersTimeout < timeout ) ) {
+
+                    timeout = timersTimeout ;
+                }
+            }
+        }
+
+        int n ;
+
+        try {
+
+            BusyPoll busyPoll = this.busyPoll ;
+
+            n = busyPoll == null ? this.epoll.wait( this.events ,
+                                                    timeout     )
+                                 : busyPoll.wait( this.epoll  ,
+                                                  this.events ,
+                                                  timeout     ) ;
+        }
+        finally {
+
+            this.isParked.lazySet( false ) ;
+        }
+
+        int dispatched = this.dispatch( n ) ;
+
+        if ( this.timers.size() != 0 ) {
+
+            this.timers.expire( System.nanoTime() ) ;
+        }
+
+        this.runTasks() ;
+
+        return dispatched ;
+    }
+
+
+
+
+    // Runs all pending tasks.
+    //
+    void runTasks() {
+
+        Runnable task ;
+
+        while ( ( task = this.tasks.poll() ) != null ) {
+
+            task.run() ;
+        }
+    }
+
+
+
+
+    // Dispatches the first `n` events of the buffer.
+    //
+    int dispatch( int n ) throws IOException {
+
+        EpollEvents events     = this.events    ;
+        int         wakeupFd   = this.wakeup.fd ;
+        int         dispatched = 0              ;
+
+        for ( int i = 0 ;
+              i < n     ;
+              i += 1    ) {
+
+            int       fd       = (int)events.getUserData( i ) ;
+            Handler[] handlers = this.handlers                ;
+
+            if ( fd == wakeupFd ) {
+
+                this.wakeup.drain() ;
+            }
+            else if ( fd < handlers.length ) {
+
+                Handler handler = handlers[ fd ] ;
+
+                if ( handler != null ) {
+
+                    handler.handle( fd                        ,
+                                    events.getRawFlags( i ) ) ;
+
+                    dispatched += 1 ;
+                }
+            }
+        }
+
+        return dispatched ;
+    }
+
+
+
+
+    /**
+     * Runs the loop on the current thread until {@link #stop()} is called.
+     * <p>
+     * Tasks still pending when the loop stops are run before returning.
+     *
+     * @throws  IllegalStateException
+     *            When the loop is already running or has been closed.
+     *
+     * @throws  IOException
+     *            When waiting fails or a handler throws, the loop is then stopped but not closed.
+     */
+    public void run() throws IOException {
+
+        this.enter() ;
+
+        Exception failure = null ;
+
+        try {
+
+            while ( this.isStopping == false ) {
+
+                this.runOnce( -1 ) ;
+            }
+
+            this.runTasks() ;
+        }
+        catch ( IOException | RuntimeException e ) {
+
+            failure = e ;
+
+            throw e ;
+        }
+        finally {
+
+            this.exit() ;
+
+            // Closing from the loop thread is completed here, once the batch being dispatched is done with the
+            // epoll instance and the eventfd.
+            //
+            if ( this.isClosed ) {
+
+                try {
+
+                    this.release() ;
+                }
+                catch ( IOException | RuntimeException releasingFailure ) {
+
+                    if ( failure == null ) {
+
+                        throw releasingFailure ;
+                    }
+
+                    failure.addSuppressed( releasingFailure ) ;
+                }
+            }
+        }
+    }
+
+
+
+
+    // Marks the current thread as running the loop.
+    //
+    void enter() {
+
+        synchronized ( this ) {
+
+            if ( this.thread != null ) {
+
+                throw new IllegalStateException( "Event loop is already running" ) ;
+            }
+
+            this.epoll.getEpollFD() ;
+
+            this.thread = Thread.currentThread() ;
+        }
+    }
+
+
+
+
+    // Marks the loop as not running anymore.
+    //
+    void exit() {
+
+        synchronized ( this ) {
+
+            this.thread     = null  ;
+            this.isStopping = false ;
+
+            this.notifyAll() ;
+        }
+    }
+
+
+
+
+    /**
+     * Is the loop currently running ?
+     *
+     * @return  True if it is.
+     */
+    public boolean isRunning() {
+
+        return this.thread != null ;
+    }
+
+
+
+
+    /**
+     * Is the current thread the one running the loop ?
+     *
+     * @return  True if it is.
+     */
+    public boolean inLoop() {
+
+        return this.thread == Thread.currentThread() ;
+    }
+
+
+
+
+    /**
+     * Submits a task to be run on the loop thread, can be called from any thread.
+     * <p>
+     * Tasks are run in submission order, after the current batch of events has been dispatched. The loop thread
+     * is woken up only if it is blocked in a wait and has not been woken up already, hence submitting many tasks
+     * costs at most one system call.
+     *
+     * @param   task
+     *            Task to run.
+     *
+     * @throws  RejectedExecutionException
+     *            When the loop has been closed.
+     */
+    public void execute( Runnable task ) {
+
+        if ( task == null ) {
+
+            throw new NullPointerException( "Task must not be null" ) ;
+        }
+
+        if ( this.isClosed ) {
+
+            throw new RejectedExecutionException( "Event loop has been closed" ) ;
+        }
+
+        this.tasks.offer( task ) ;
+
+        // Closed meanwhile, the task might have been missed when pending tasks were rejected.
+        //
+        if ( this.isClosed && this.tasks.remove( task ) ) {
+
+            throw new RejectedExecutionException( "Event loop has been closed" ) ;
+        }
+
+        if ( this.inLoop() == false ) {
+
+            this.wakeup() ;
+        }
+    }
+
+
+
+
+    /**
+     * Wakes up the loop thread if it is blocked in a wait, can be called from any thread.
+     *
+     * @return  This instance.
+     *
+     * @throws  UncheckedIOException
+     *            When the eventfd cannot be written to.
+     */
+    public EpollEventLoop wakeup() {
+
+        if ( this.isParked.compareAndSet( true  ,
+                                          false ) ) {
+
+            try {
+
+                this.wakeup.signal() ;
+            }
+            catch ( IOException e ) {
+
+                throw new UncheckedIOException( e ) ;
+            }
+        }
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Requests the loop to stop, can be called from any thread.
+     * <p>
+     * When called from a handler, the loop stops after the current batch of events has been dispatched.
+     * Otherwise, the loop thread is woken up if needed.
+     *
+     * @return  This instance.
+     */
+    public EpollEventLoop stop() {
+
+        if ( this.thread != null ) {
+
+            this.isStopping = true ;
+
+            this.wakeup() ;
+        }
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Stops the loop if needed and closes the underlying epoll instance.
+     * <p>
+     * Registered file descriptors are not closed since they belong to the user. Tasks submitted afterwards are
+     * rejected. Tasks still pending once the loop has stopped are dropped, cancelling those which are futures, and
+     * pending readiness stages are completed with a {@link CancellationException}.
+     * <p>
+     * When called from the loop thread (eg. from a handler), only stops the loop, which is closed by
+     * {@link #run()} once the current batch of events has been dispatched.
+     * When called from another thread while the loop is running, blocks until the loop exits. Being interrupted
+     * meanwhile does not prevent that, the interrupt status is restored afterwards.
+     *
+     * @throws  IOException
+     *            When the epoll instance cannot be closed.
+     */
+    public void close() throws IOException {
+
+        this.isClosed = true ;
+
+        this.stop() ;
+
+        if ( this.inLoop() ) {
+
+            return ;
+        }
+
+        boolean isInterrupted = false ;
+
+        synchronized ( this ) {
+
+            while ( this.thread != null ) {
+
+                try {
+
+                    this.wait() ;
+                }
+                catch ( InterruptedException e ) {
+
+                    isInterrupted = true ;
+                }
+            }
+        }
+
+        if ( isInterrupted ) {
+
+            Thread.currentThread().interrupt() ;
+        }
+
+        this.release() ;
+    }
+
+
+
+
+    // Rejects what is still pending and closes the epoll instance and the eventfd, only once.
+    //
+    private synchronized void release() throws IOException {
+
+        if ( this.isReleased ) {
+
+            return ;
+        }
+
+        this.isReleased = true ;
+
+        Runnable task ;
+
+        while ( ( task = this.tasks.poll() ) != null ) {
+
+            if ( task instanceof ArmTask ) {
+
+                ( (ArmTask)task ).future.completeExceptionally( new RejectedExecutionException( "Event loop has been closed" ) ) ;
+            }
+            else if ( task instanceof Future ) {
+
+                ( (Future< ? >)task ).cancel( false ) ;
+            }
+        }
+
+        for ( Handler handler : this.handlers ) {
+
+            if ( handler instanceof ReadinessHandler ) {
+
+                ( (ReadinessHandler)handler ).cancel( "Event loop has been closed" ) ;
+            }
+        }
+
+        try {
+
+            this.epoll.close() ;
+        }
+        finally {
+
+            this.wakeup.close() ;
+        }
+    }
+
+
+
+
+
+
+
+
+    // Task registering or rearming a file descriptor for a readiness stage on behalf of another thread, recognized
+    // when the loop is closed so that its stage does not stay pending forever.
+    //
+    private final class ArmTask implements Runnable {
+
+
+        final int                                   fd       ;
+        final int                                   rawFlags ;
+        final CompletableFuture< EpollEvent.Flags > future   ;
+
+
+
+
+        ArmTask( int fd       ,
+                 int rawFlags ) {
+
+            this.fd       = fd                                          ;
+            this.rawFlags = rawFlags                                    ;
+            this.future   = new CompletableFuture< EpollEvent.Flags >() ;
+        }
+
+
+
+
+        public void run() {
+
+            EpollEventLoop.this.arm( this.fd       ,
+                                     this.rawFlags ,
+                                     this.future   ) ;
+        }
+    }
+
+
+
+
+    // Handler completing the pending readiness stage of a file descriptor, kept while the file descriptor is
+    // registered so that rearming does not allocate it again.
+    //
+    private static final class ReadinessHandler implements Handler {
+
+
+        // Pending stage, null if there is none.
+        //
+        CompletableFuture< EpollEvent.Flags > future ;
+
+
+
+
+        public void handle( int fd    ,
+                            int flags ) {
+
+            CompletableFuture< EpollEvent.Flags > future = this.future ;
+
+            if ( future != null ) {
+
+                this.future = null ;
+
+                future.complete( new EpollEvent.Flags( flags ) ) ;
+            }
+        }
+
+
+
+
+        // Cancels the pending stage, if any.
+        //
+        void cancel( String reason ) {
+
+            CompletableFuture< EpollEvent.Flags > future = this.future ;
+
+            if ( future != null ) {
+
+                this.future = null ;
+
+                future.completeExceptionally( new CancellationException( reason ) ) ;
+            }
+        }
+    }
+}
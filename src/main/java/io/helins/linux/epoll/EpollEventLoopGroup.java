@@ -0,0 +1,421 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import io.helins.linux.epoll.EpollEvent          ;
+import io.helins.linux.epoll.EpollEventLoop      ;
+import java.io.IOException                       ;
+import java.io.UncheckedIOException              ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+
+
+
+/**
+ * Class representing a group of event loops, each running on its own thread with its own epoll instance.
+ * <p>
+ * File descriptors shared by all loops, typically listening sockets, are registered in every loop with
+ * {@link EpollEvent.Flag#EPOLLEXCLUSIVE EPOLLEXCLUSIVE} so that only one of the loops is woken up when something
+ * happens instead of all of them. Other file descriptors, typically accepted connections, are assigned to a single
+ * loop.
+ * <p>
+ * For instance, the handler of a shared listening socket accepts a connection and registers it in the loop running
+ * the current thread, as retrieved by {@link #currentLoop()}. That way, accepting scales with the number of loops.
+ *
+ * @see EpollEventLoop
+ */
+public class EpollEventLoopGroup implements AutoCloseable {
+
+
+    // Event loops.
+    //
+    private final EpollEventLoop[] loops     ;
+
+    // Threads running the loops, null until started.
+    //
+    private final Thread[]         threads   ;
+
+    // Counter for assigning file descriptors in a round-robin fashion.
+    //
+    private final AtomicInteger    next      ;
+
+    // Has the group been started ?
+    //
+    private boolean                isStarted ;
+
+
+
+
+    /**
+     * Creates a group of event loops, each retrieving at most {@link EpollEventLoop#DEFAULT_MAX_EVENTS} events per
+     * wait.
+     *
+     * @param   size
+     *            How many loops, typically the number of available cores.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>size</strong> is less than 1.
+     *
+     * @throws  IOException
+     *            When an epoll instance cannot be created.
+     */
+    public EpollEventLoopGroup( int size ) throws IOException {
+
+        this( size                              ,
+              EpollEventLoop.DEFAULT_MAX_EVENTS ) ;
+    }
+
+
+
+
+    /**
+     * Creates a group of event loops.
+     *
+     * @param   size
+     *            How many loops, typically the number of available cores.
+     *
+     * @param   maxEvents
+     *            How many events at most are retrieved by a single wait in each loop.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>size</strong> or <strong>maxEvents</strong> is less than 1.
+     *
+     * @throws  IOException
+     *            When an epoll instance cannot be created.
+     */
+    public EpollEventLoopGroup( int size      ,
+                                int maxEvents ) throws IOException {
+
+        if ( size < 1 ) {
+
+            throw new IllegalArgumentException( "The number of event loops must be >= 1" ) ;
+        }
+
+        this.loops   = new EpollEventLoop[ size ] ;
+        this.threads = new Thread[ size ]         ;
+        this.next    = new AtomicInteger()        ;
+
+        try {
+
+            for ( int i = 0 ;
+                  i < size  ;
+                  i += 1    ) {
+
+                this.loops[ i ] = new EpollEventLoop( maxEvents ) ;
+            }
+        }
+        catch ( IOException | RuntimeException e ) {
+
+            try {
+
+                this.closeLoops() ;
+            }
+            catch ( IOException closingFailure ) {
+
+                e.addSuppressed( closingFailure ) ;
+            }
+
+            throw e ;
+        }
+    }
+
+
+
+
+    /**
+     * Retrieves how many loops this group holds.
+     *
+     * @return  The number of loops.
+     */
+    public int size() {
+
+        return this.loops.length ;
+    }
+
+
+
+
+    /**
+     * Retrieves the loop located at `<strong>index</strong>`.
+     *
+     * @param   index
+     *            Position of the loop.
+     *
+     * @return  The requested loop.
+     */
+    public EpollEventLoop getLoop( int index ) {
+
+        return this.loops[ index ] ;
+    }
+
+
+
+
+    /**
+     * Retrieves the next loop in a round-robin fashion, can be called from any thread.
+     *
+     * @return  A loop.
+     */
+    public EpollEventLoop next() {
+
+        return this.loops[ Math.floorMod( this.next.getAndIncrement() ,
+                                          this.loops.length           ) ] ;
+    }
+
+
+
+
+    /**
+     * Retrieves the loop running on the current thread.
+     *
+     * @return  The loop or null if the current thread is not running a loop of this group.
+     */
+    public EpollEventLoop currentLoop() {
+
+        for ( EpollEventLoop loop : this.loops ) {
+
+            if ( loop.inLoop() ) {
+
+                return loop ;
+            }
+        }
+
+        return null ;
+    }
+
+
+
+
+    /**
+     * Registers a file descriptor in a single loop chosen in a round-robin fashion.
+     * <p>
+     * Like any registration, must happen before the group is started or from the thread of the chosen loop, see
+     * {@link #currentLoop()} for registering in the loop of the current thread. Otherwise, use {@link #next()} and
+     * submit the registration to the chosen loop using {@link EpollEventLoop#execute( Runnable )}.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   flags
+     *            Which events should be monitored.
+     *
+     * @param   handler
+     *            Handler called from the loop thread when something happens.
+     *
+     * @return  The loop the file descriptor has been registered in.
+     *
+     * @throws  IllegalArgumentException
+     *            When the file descriptor is negative, invalid or has already been registered.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be added.
+     *
+     * @see     EpollEventLoop#register( int, EpollEvent.Flags, EpollEventLoop.Handler )
+     */
+    public EpollEventLoop register( int                    fd      ,
+                                    EpollEvent.Flags       flags   ,
+                                    EpollEventLoop.Handler handler ) throws IOException {
+
+        EpollEventLoop loop = this.next() ;
+
+        loop.register( fd      ,
+                       flags   ,
+                       handler ) ;
+
+        return loop ;
+    }
+
+
+
+
+    /**
+     * Registers a file descriptor in all loops with {@link EpollEvent.Flag#EPOLLEXCLUSIVE EPOLLEXCLUSIVE}.
+     * <p>
+     * Must happen before the group is started. The same handler is called from whichever loop is woken up, hence
+     * it must be thread-safe, or at least use {@link #currentLoop()} for registering new file descriptors.
+     * A shared file descriptor cannot be modified afterwards. If any loop fails to register it, it is removed from
+     * the others so that nothing remains registered.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   flags
+     *            Which events should be monitored, EPOLLEXCLUSIVE is added automatically.
+     *
+     * @param   handler
+     *            Handler called from any loop thread when something happens.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalArgumentException
+     *            When the file descriptor is negative, invalid or has already been registered.
+     *
+     * @throws  IllegalStateException
+     *            When the group has already been started.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be added.
+     */
+    public EpollEventLoopGroup registerShared( int                    fd      ,
+                                               EpollEvent.Flags       flags   ,
+                                               EpollEventLoop.Handler handler ) throws IOException {
+
+        synchronized ( this ) {
+
+            if ( this.isStarted ) {
+
+                throw new IllegalStateException( "Cannot share a file descriptor once the group has started" ) ;
+            }
+        }
+
+        EpollEvent.Flags exclusiveFlags = new EpollEvent.Flags( flags.value ).set( EpollEvent.Flag.EPOLLEXCLUSIVE ) ;
+
+        int registered = 0 ;
+
+        try {
+
+            for ( int i = 0               ;
+                  i < this.loops.length   ;
+                  i += 1                  ) {
+
+                this.loops[ i ].register( fd             ,
+                                          exclusiveFlags ,
+                                          handler        ) ;
+
+                registered += 1 ;
+            }
+        }
+        catch ( IOException | RuntimeException e ) {
+
+            // Loops which already share the file descriptor give it back so that registering can be retried.
+            //
+            for ( int i = 0        ;
+                  i < registered   ;
+                  i += 1           ) {
+
+                try {
+
+                    this.loops[ i ].unregister( fd ) ;
+                }
+                catch ( IOException | RuntimeException unregisteringFailure ) {
+
+                    e.addSuppressed( unregisteringFailure ) ;
+                }
+            }
+
+            throw e ;
+        }
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Starts one thread per loop.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalStateException
+     *            When the group has already been started.
+     */
+    public EpollEventLoopGroup start() {
+
+        synchronized ( this ) {
+
+            if ( this.isStarted ) {
+
+                throw new IllegalStateException( "Group of event loops has already been started" ) ;
+            }
+
+            this.isStarted = true ;
+
+            for ( int i = 0               ;
+                  i < this.loops.length   ;
+                  i += 1                  ) {
+
+                EpollEventLoop loop = this.loops[ i ] ;
+
+                this.threads[ i ] = new Thread( () -> runLoop( loop ) ,
+                                                "epoll-loop-" + i     ) ;
+
+                this.threads[ i ].start() ;
+            }
+        }
+
+        return this ;
+    }
+
+
+
+
+    // Runs a loop until it is stopped, a failure ends up in the uncaught exception handler of the thread.
+    //
+    private static void runLoop( EpollEventLoop loop ) {
+
+        try {
+
+            loop.run() ;
+        }
+        catch ( IOException e ) {
+
+            throw new UncheckedIOException( e ) ;
+        }
+    }
+
+
+
+
+    // Closes all loops, keeping the first failure.
+    //
+    private void closeLoops() throws IOException {
+
+        IOException failure = null ;
+
+        for ( EpollEventLoop loop : this.loops ) {
+
+            if ( loop != null ) {
+
+                try {
+
+                    loop.close() ;
+                }
+                catch ( IOException e ) {
+
+                    if ( failure == null ) {
+
+                        failure = e ;
+                    }
+                }
+            }
+        }
+
+        if ( failure != null ) {
+
+            throw failure ;
+        }
+    }
+
+
+
+
+    /**
+     * Stops and closes all loops.
+     *
+     * @throws  IOException
+     *            When an epoll instance cannot be closed.
+     *
+     * @see     EpollEventLoop#close()
+     */
+    public void close() throws IOException {
+
+        this.closeLoops() ;
+    }
+}
@@ -11,19 +11,25 @@ package io.helins.linux.epoll ;
 import com.sun.jna.Memory                              ;
 import io.helins.linux.epoll.EpollEvent                ;
 import io.helins.linux.epoll.internal.NativeEpollEvent ;
+import java.nio.ByteBuffer                             ;
+import java.nio.ByteOrder                              ;
 
 
 
 
 /**
  * Class representing several epoll events meant to be used with <strong>{@link Epoll#wait( EpollEvents ) Epoll#wait}</strong>.
+ * <p>
+ * Besides retrieving events as {@link EpollEvent} instances, what happened can be read directly from native memory
+ * without allocating anything, either by index, by using the {@link Cursor cursor}, or by decoding everything at once
+ * into primitive arrays.
  *
  * @see EpollEvent
  */
 public class EpollEvents {
 
 
-    // Array of instanciated epoll events mapping to native memory.
+    // Array of lazily instanciated epoll events mapping to native memory.
     //
     EpollEvent[] events ;
 
@@ -31,6 +37,18 @@ public class EpollEvents {
     //
     Memory       memory ;
 
+    // View of the native memory for reading events without going through JNA.
+    //
+    ByteBuffer   buffer ;
+
+    // How many events are allocated.
+    //
+    int          size   ;
+
+    // Reusable cursor.
+    //
+    Cursor       cursor ;
+
 
 
 
@@ -46,22 +64,41 @@ public class EpollEvents {
     public EpollEvents( int size ) {
 
         if ( size < 1 ) {
-        
+
             throw new IllegalArgumentException( "The number of epoll events must be >= 1" ) ;
         }
-    
-        this.memory = new Memory( size * NativeEpollEvent.SIZE ) ;
-        this.events = new EpollEvent[ size ]                     ;
+
+        this.memory = new Memory( size * NativeEpollEvent.SIZE )            ;
+        this.buffer = this.memory.getByteBuffer( 0                       ,
+                                                 this.memory.size()      )
+                                 .order( ByteOrder.nativeOrder() )          ;
+        this.events = new EpollEvent[ size ]                                ;
+        this.size   = size                                                  ;
+        this.cursor = new Cursor( this )                                    ;
 
         this.memory.clear() ;
+    }
 
-        for ( int i = 0 ;
-              i < size  ;
-              i += 1    ) {
-            
-            events[ i ] = new EpollEvent( this.memory.share(   i
-                                                             * NativeEpollEvent.SIZE ) ) ;
-        }
+
+
+
+    // Called after each successful wait with how many events occured, does nothing by default.
+    //
+    // The first `n` events must remain readable afterwards.
+    //
+    void afterWait( int n ) {}
+
+
+
+
+    /**
+     * Retrieves how many events are allocated.
+     *
+     * @return  The maximum number of events a single wait can report.
+     */
+    public int getSize() {
+
+        return this.size ;
     }
 
 
@@ -69,6 +106,8 @@ public class EpollEvents {
 
     /**
      * Gets the epoll event located at `<strong>index</strong>`.
+     * <p>
+     * The instance is created the first time it is requested and then reused.
      *
      * @param   index
      *            The position of the event.
@@ -76,7 +115,306 @@ public class EpollEvents {
      * @return  The requested EpollEvent.
      */
     public EpollEvent getEpollEvent( int index ) {
-    
-        return events[ index ] ;
+
+        EpollEvent event = this.events[ index ] ;
+
+        if ( event == null ) {
+
+            event                = new EpollEvent( this.memory.share(   index
+                                                                      * NativeEpollEvent.SIZE ) ) ;
+            this.events[ index ] = event                                                          ;
+        }
+
+        return event ;
+    }
+
+
+
+
+    // Throws an IndexOutOfBoundsException if the index is not valid.
+    //
+    private void guardIndex( int index ) {
+
+        if ( index < 0 || index >= this.size ) {
+
+            throw new IndexOutOfBoundsException( "Index of epoll event out of bounds : " + index ) ;
+        }
+    }
+
+
+
+
+    /**
+     * Retrieves the raw flags of the event located at `<strong>index</strong>`, without allocating.
+     *
+     * @param   index
+     *            The position of the event.
+     *
+     * @return  The bit mask of all set flags.
+     *
+     * @throws  IndexOutOfBoundsException
+     *            When the index is out of bounds.
+     *
+     * @see     EpollEvent.Flags#isSet( int, EpollEvent.Flag )
+     */
+    public int getRawFlags( int index ) {
+
+        this.guardIndex( index ) ;
+
+        return this.buffer.getInt(   index * NativeEpollEvent.SIZE
+                                   + NativeEpollEvent.OFFSET_EVENTS ) ;
+    }
+
+
+
+
+    /**
+     * Retrieves the user data of the event located at `<strong>index</strong>`, without allocating.
+     *
+     * @param   index
+     *            The position of the event.
+     *
+     * @return  A long value.
+     *
+     * @throws  IndexOutOfBoundsException
+     *            When the index is out of bounds.
+     */
+    public long getUserData( int index ) {
+
+        this.guardIndex( index ) ;
+
+        return this.buffer.getLong(   index * NativeEpollEvent.SIZE
+                                    + NativeEpollEvent.OFFSET_USER_DATA ) ;
+    }
+
+
+
+
+    /**
+     * Copies the raw flags and the user data of the first `<strong>n</strong>` events into the given arrays, in one pass.
+     * <p>
+     * Typically, <strong>n</strong> is what the last wait returned.
+     *
+     * @param   n
+     *            How many events should be decoded.
+     *
+     * @param   flags
+     *            Array receiving the raw flags, at least of size <strong>n</strong>, null if not needed.
+     *
+     * @param   userData
+     *            Array receiving the user data, at least of size <strong>n</strong>, null if not needed.
+     *
+     * @return  <strong>n</strong>.
+     *
+     * @throws  IndexOutOfBoundsException
+     *            When <strong>n</strong> is negative, greater than the number of allocated events, or greater
+     *            than the size of one of the given arrays.
+     */
+    public int decode( int    n        ,
+                       int[]  flags    ,
+                       long[] userData ) {
+
+        if (    n < 0
+             || n > this.size
+             || ( flags    != null && flags.length    < n )
+             || ( userData != null && userData.length < n ) ) {
+
+            throw new IndexOutOfBoundsException( "Cannot decode " + n + " epoll events" ) ;
+        }
+
+        ByteBuffer buffer = this.buffer ;
+        int        offset = 0           ;
+
+        for ( int i = 0 ;
+              i < n     ;
+              i += 1    ) {
+
+            if ( flags != null ) {
+
+                flags[ i ] = buffer.getInt( offset + NativeEpollEvent.OFFSET_EVENTS ) ;
+            }
+
+            if ( userData != null ) {
+
+                userData[ i ] = buffer.getLong( offset + NativeEpollEvent.OFFSET_USER_DATA ) ;
+            }
+
+            offset += NativeEpollEvent.SIZE ;
+        }
+
+        return n ;
+    }
+
+
+
+
+    /**
+     * Retrieves the cursor of this instance, reset for iterating over the first `<strong>n</strong>` events.
+     * <p>
+     * The same cursor is always returned, hence this is allocation free but a cursor must not be shared
+     * between threads.
+     *
+     * @param   n
+     *            How many events should be iterated, typically what the last wait returned.
+     *
+     * @return  The cursor, positioned before the first event.
+     *
+     * @throws  IndexOutOfBoundsException
+     *            When <strong>n</strong> is negative or greater than the number of allocated events.
+     */
+    public Cursor cursor( int n ) {
+
+        if ( n < 0 || n > this.size ) {
+
+            throw new IndexOutOfBoundsException( "Cannot iterate over " + n + " epoll events" ) ;
+        }
+
+        return this.cursor.reset( n ) ;
+    }
+
+
+
+
+
+
+
+
+    /**
+     * Flyweight iterating over events directly in native memory.
+     * <p>
+     * For instance :
+     * <pre>{@code
+     * EpollEvents.Cursor cursor = events.cursor( epoll.wait( events ) ) ;
+     *
+     * while ( cursor.next() ) {
+     *
+     *     if ( cursor.isSet( EpollEvent.Flag.EPOLLIN ) ) {
+     *
+     *         handle( cursor.getUserData() ) ;
+     *     }
+     * }
+     * }</pre>
+     *
+     * @see EpollEvents#cursor( int )
+     */
+    public static class Cursor {
+
+
+        // Events this cursor is iterating over.
+        //
+        private final EpollEvents events ;
+
+        // How many events should be iterated.
+        //
+        private int limit ;
+
+        // Current index.
+        //
+        private int index ;
+
+        // Offset of the current event in native memory.
+        //
+        private int offset ;
+
+
+
+
+        // Private constructor.
+        //
+        private Cursor( EpollEvents events ) {
+
+            this.events = events ;
+        }
+
+
+
+
+        // Positions this cursor before the first event.
+        //
+        Cursor reset( int limit ) {
+
+            this.limit  = limit                  ;
+            this.index  = -1                     ;
+            this.offset = -NativeEpollEvent.SIZE ;
+
+            return this ;
+        }
+
+
+
+
+        /**
+         * Moves to the next event.
+         *
+         * @return  True if there is such an event, false if all events have been iterated.
+         */
+        public boolean next() {
+
+            if ( this.index + 1 < this.limit ) {
+
+                this.index  += 1                     ;
+                this.offset += NativeEpollEvent.SIZE ;
+
+                return true ;
+            }
+
+            return false ;
+        }
+
+
+
+
+        /**
+         * Retrieves the index of the current event.
+         *
+         * @return  The position of the current event.
+         */
+        public int getIndex() {
+
+            return this.index ;
+        }
+
+
+
+
+        /**
+         * Retrieves the raw flags of the current event.
+         *
+         * @return  The bit mask of all set flags.
+         */
+        public int getRawFlags() {
+
+            return this.events.buffer.getInt( this.offset + NativeEpollEvent.OFFSET_EVENTS ) ;
+        }
+
+
+
+
+        /**
+         * Is the given flag set for the current event ?
+         *
+         * @param   flag
+         *            The tested event flag.
+         *
+         * @return  True if this flag is set.
+         */
+        public boolean isSet( EpollEvent.Flag flag ) {
+
+            return EpollEvent.Flags.isSet( this.getRawFlags() ,
+                                           flag               ) ;
+        }
+
+
+
+
+        /**
+         * Retrieves the user data of the current event.
+         *
+         * @return  A long value.
+         */
+        public long getUserData() {
+
+            return this.events.buffer.getLong( this.offset + NativeEpollEvent.OFFSET_USER_DATA ) ;
+        }
     }
 }
@@ -0,0 +1,249 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+
+
+/**
+ * Class representing a snapshot of the metrics of an epoll instance, as returned by
+ * <strong>{@link Epoll#getMetrics() Epoll#getMetrics}</strong>.
+ * <p>
+ * Metrics are accumulated since they were last enabled.
+ */
+public class EpollMetrics {
+
+
+    private final long   waitCount      ;
+    private final long   blockedNanos   ;
+    private final long   returningNanos ;
+    private final long   eventCount     ;
+    private final long   fullWaitCount  ;
+    private final long[] histogram      ;
+    private final long   addCount       ;
+    private final long   modifyCount    ;
+    private final long   removeCount    ;
+    private final long[] errnoCounts    ;
+
+
+
+
+    // Takes a snapshot of the given recorder.
+    //
+    EpollMetrics( EpollMetricsRecorder recorder ) {
+
+        this.waitCount      = recorder.waits.sum()          ;
+        this.blockedNanos   = recorder.blockedNanos.sum()   ;
+        this.returningNanos = recorder.returningNanos.sum() ;
+        this.eventCount     = recorder.events.sum()         ;
+        this.fullWaitCount  = recorder.fullWaits.sum()      ;
+        this.addCount       = recorder.adds.sum()           ;
+        this.modifyCount    = recorder.modifies.sum()       ;
+        this.removeCount    = recorder.removes.sum()        ;
+        this.histogram      = new long[ EpollMetricsRecorder.HISTOGRAM_SIZE ] ;
+        this.errnoCounts    = new long[ recorder.errnos.length() ]            ;
+
+        for ( int i = 0                 ;
+              i < this.histogram.length ;
+              i += 1                    ) {
+
+            this.histogram[ i ] = recorder.histogram[ i ].sum() ;
+        }
+
+        for ( int i = 0                   ;
+              i < this.errnoCounts.length ;
+              i += 1                      ) {
+
+            this.errnoCounts[ i ] = recorder.errnos.get( i ) ;
+        }
+    }
+
+
+
+
+    /**
+     * Retrieves how many waits have been performed.
+     *
+     * @return  The number of waits.
+     */
+    public long getWaitCount() {
+
+        return this.waitCount ;
+    }
+
+
+
+
+    /**
+     * Retrieves the total time spent inside waits, blocked or not.
+     *
+     * @return  A duration in nanoseconds.
+     */
+    public long getBlockedNanos() {
+
+        return this.blockedNanos ;
+    }
+
+
+
+
+    /**
+     * Retrieves the total time spent between a wait returning and the next wait of the same thread, typically
+     * dispatching events. With several waiting threads, this is the sum over all of them.
+     *
+     * @return  A duration in nanoseconds.
+     */
+    public long getReturningNanos() {
+
+        return this.returningNanos ;
+    }
+
+
+
+
+    /**
+     * Retrieves the total number of events returned by waits.
+     *
+     * @return  The number of events.
+     */
+    public long getEventCount() {
+
+        return this.eventCount ;
+    }
+
+
+
+
+    /**
+     * Retrieves how many waits returned as many events as the buffer could hold, meaning more events were probably
+     * ready.
+     *
+     * @return  The number of full waits.
+     */
+    public long getFullWaitCount() {
+
+        return this.fullWaitCount ;
+    }
+
+
+
+
+    /**
+     * Retrieves the histogram of events per wait.
+     * <p>
+     * Bucket 0 counts waits which returned no event, then bucket <code>i</code> counts waits which returned between
+     * <code>2^(i-1)</code> and <code>2^i - 1</code> events (1, 2-3, 4-7, ...).
+     *
+     * @return  A copy of the histogram.
+     */
+    public long[] getEventsPerWaitHistogram() {
+
+        return this.histogram.clone() ;
+    }
+
+
+
+
+    /**
+     * Retrieves how many file descriptors have been added, including failures.
+     *
+     * @return  The number of EPOLL_CTL_ADD operations.
+     */
+    public long getAddCount() {
+
+        return this.addCount ;
+    }
+
+
+
+
+    /**
+     * Retrieves how many file descriptors have been modified, including failures.
+     *
+     * @return  The number of EPOLL_CTL_MOD operations.
+     */
+    public long getModifyCount() {
+
+        return this.modifyCount ;
+    }
+
+
+
+
+    /**
+     * Retrieves how many file descriptors have been removed, including failures.
+     *
+     * @return  The number of EPOLL_CTL_DEL operations.
+     */
+    public long getRemoveCount() {
+
+        return this.removeCount ;
+    }
+
+
+
+
+    /**
+     * Retrieves how many times an operation failed with the given errno.
+     * <p>
+     * Errno values above 255 are all counted as 255.
+     *
+     * @param   errno
+     *            Errno value.
+     *
+     * @return  The number of failures.
+     */
+    public long getErrnoCount( int errno ) {
+
+        if ( errno < 0 ) {
+
+            return 0 ;
+        }
+
+        return this.errnoCounts[ Math.min( errno                         ,
+                                           this.errnoCounts.length - 1 ) ] ;
+    }
+
+
+
+
+    /**
+     * Retrieves how many operations failed, whatever the errno.
+     *
+     * @return  The number of failures.
+     */
+    public long getErrorCount() {
+
+        long sum = 0 ;
+
+        for ( long count : this.errnoCounts ) {
+
+            sum += count ;
+        }
+
+        return sum ;
+    }
+
+
+
+
+    @Override
+    public String toString() {
+
+        return   "EpollMetrics{waits="      + this.waitCount
+               + ", blockedNanos="          + this.blockedNanos
+               + ", returningNanos="        + this.returningNanos
+               + ", events="                + this.eventCount
+               + ", fullWaits="             + this.fullWaitCount
+               + ", adds="                  + this.addCount
+               + ", modifies="              + this.modifyCount
+               + ", removes="               + this.removeCount
+               + ", errors="                + this.getErrorCount()
+               + "}"                                               ;
+    }
+}
@@ -0,0 +1,151 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import java.util.concurrent.atomic.AtomicLongArray ;
+import java.util.concurrent.atomic.LongAdder       ;
+
+
+
+
+// Records metrics of an epoll instance.
+//
+// Counters are striped (LongAdder) so that recording from several threads does not contend. Errno counts use a plain
+// atomic array since errors are not expected to be frequent.
+//
+final class EpollMetricsRecorder {
+
+
+    // Number of buckets in the histogram of events per wait : 0, 1, 2-3, 4-7, ...
+    //
+    static final int HISTOGRAM_SIZE = 32 ;
+
+    // Errno values above that are counted in the last slot.
+    //
+    static final int MAX_ERRNO = 255 ;
+
+
+
+
+    final LongAdder       waits          = new LongAdder()                      ;
+    final LongAdder       blockedNanos   = new LongAdder()                      ;
+    final LongAdder       returningNanos = new LongAdder()                      ;
+    final LongAdder       events         = new LongAdder()                      ;
+    final LongAdder       fullWaits      = new LongAdder()                      ;
+    final LongAdder[]     histogram      = new LongAdder[ HISTOGRAM_SIZE ]      ;
+    final LongAdder       adds           = new LongAdder()                      ;
+    final LongAdder       modifies       = new LongAdder()                      ;
+    final LongAdder       removes        = new LongAdder()                      ;
+    final AtomicLongArray errnos         = new AtomicLongArray( MAX_ERRNO + 1 ) ;
+
+    // When the last wait of the current thread returned, 0 if there is none. Kept per thread since several threads
+    // can wait on the same instance, the time between two waits only makes sense for a given thread.
+    //
+    private final ThreadLocal< long[] > lastReturn = ThreadLocal.withInitial( () -> new long[ 1 ] ) ;
+
+
+
+
+    EpollMetricsRecorder() {
+
+        for ( int i = 0          ;
+              i < HISTOGRAM_SIZE ;
+              i += 1             ) {
+
+            this.histogram[ i ] = new LongAdder() ;
+        }
+    }
+
+
+
+
+    // Bucket of the histogram for the given number of events.
+    //
+    static int bucket( int n ) {
+
+        return 32 - Integer.numberOfLeadingZeros( n ) ;
+    }
+
+
+
+
+    // Called right before waiting, returns the current time.
+    //
+    long enterWait() {
+
+        long   now        = System.nanoTime()     ;
+        long[] lastReturn = this.lastReturn.get() ;
+
+        if ( lastReturn[ 0 ] != 0 ) {
+
+            this.returningNanos.add( now - lastReturn[ 0 ] ) ;
+        }
+
+        return now ;
+    }
+
+
+
+
+    // Called right after waiting with the result (number of events or negated errno).
+    //
+    void exitWait( long start     ,
+                   int  result    ,
+                   int  maxEvents ) {
+
+        long now = System.nanoTime() ;
+
+        this.lastReturn.get()[ 0 ] = now ;
+
+        this.waits.increment()               ;
+        this.blockedNanos.add( now - start ) ;
+
+        if ( result < 0 ) {
+
+            this.errno( -result ) ;
+        }
+        else {
+
+            this.events.add( result )                      ;
+            this.histogram[ bucket( result ) ].increment() ;
+
+            if ( result == maxEvents ) {
+
+                this.fullWaits.increment() ;
+            }
+        }
+    }
+
+
+
+
+    // Records a control operation and its outcome.
+    //
+    void ctl( LongAdder operation ,
+              int       errno     ) {
+
+        operation.increment() ;
+
+        if ( errno != 0 ) {
+
+            this.errno( errno ) ;
+        }
+    }
+
+
+
+
+    // Records an error.
+    //
+    void errno( int errno ) {
+
+        this.errnos.incrementAndGet( Math.min( errno     ,
+                                               MAX_ERRNO ) ) ;
+    }
+}
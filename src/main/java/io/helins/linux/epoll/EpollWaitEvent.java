@@ -0,0 +1,71 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import jdk.jfr.Category    ;
+import jdk.jfr.Description ;
+import jdk.jfr.Event       ;
+import jdk.jfr.Label       ;
+import jdk.jfr.Name        ;
+import jdk.jfr.Threshold   ;
+import jdk.jfr.Timespan    ;
+
+
+
+
+// JFR event describing a wait on an epoll instance.
+//
+// The duration of the event is how long the thread was blocked in the kernel, retries after EINTR included. When
+// recording is disabled, begin/end/shouldCommit are no-ops and the instance does not escape.
+//
+@Name( "io.helins.linux.epoll.Wait" )
+@Label( "Epoll Wait" )
+@Category( { "Linux", "Epoll" } )
+@Description( "Waiting for events on an epoll instance" )
+@Threshold( "20 ms" )
+final class EpollWaitEvent extends Event {
+
+
+    @Label( "Epoll File Descriptor" )
+    int  epfd      ;
+
+    @Label( "Timeout" )
+    @Description( "Requested timeout, negative when waiting indefinitely" )
+    @Timespan( Timespan.NANOSECONDS )
+    long timeout   ;
+
+    @Label( "Max Events" )
+    int  maxEvents ;
+
+    @Label( "Ready Events" )
+    int  events    ;
+
+    @Label( "Errno" )
+    @Description( "Error number, 0 if the wait succeeded" )
+    int  errno     ;
+
+
+
+
+    // Fills this event and commits it.
+    //
+    void commit( int  epfd      ,
+                 long timeout   ,
+                 int  maxEvents ,
+                 int  result    ) {
+
+        this.epfd      = epfd                           ;
+        this.timeout   = timeout                        ;
+        this.maxEvents = maxEvents                      ;
+        this.events    = result < 0 ? 0       : result  ;
+        this.errno     = result < 0 ? -result : 0       ;
+
+        this.commit() ;
+    }
+}
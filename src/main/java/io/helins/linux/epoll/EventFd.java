@@ -0,0 +1,160 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import com.sun.jna.Memory                      ;
+import com.sun.jna.Native                      ;
+import io.helins.linux.Linux                   ;
+import io.helins.linux.epoll.internal.NativeIO ;
+import io.helins.linux.errno.Errno             ;
+import io.helins.linux.io.LinuxIO              ;
+import java.io.IOException                     ;
+
+
+
+
+// Non-blocking eventfd used for waking up a thread blocked in an epoll wait.
+//
+// Signaling is thread-safe whereas draining is meant to be done by the waiting thread only. Both do nothing once
+// closed.
+//
+final class EventFd implements AutoCloseable {
+
+
+    static {
+
+        Native.register( "c" ) ;
+    }
+
+
+
+
+    // Flags for creating an eventfd.
+    //
+    private static final int EFD_NONBLOCK = 0x800   ;
+    private static final int EFD_CLOEXEC  = 0x80000 ;
+
+
+
+
+    private static native int eventfd( int initval ,
+                                       int flags   ) ;
+
+
+
+
+    // File descriptor.
+    //
+    final int fd ;
+
+    // Buffer for draining the counter.
+    //
+    private final Memory readBuffer ;
+
+    // Buffer holding 1, for signaling.
+    //
+    private final Memory writeBuffer ;
+
+    // Closing a file descriptor twice is an error.
+    //
+    private boolean isClosed ;
+
+
+
+
+    EventFd() throws IOException {
+
+        this.fd = eventfd( 0                          ,
+                           EFD_NONBLOCK | EFD_CLOEXEC ) ;
+
+        if ( this.fd < 0 ) {
+
+            throw new IOException( "Native error while creating eventfd : errno " + Linux.getErrno() ) ;
+        }
+
+        this.readBuffer  = new Memory( 8 ) ;
+        this.writeBuffer = new Memory( 8 ) ;
+
+        this.writeBuffer.setLong( 0 ,
+                                  1 ) ;
+    }
+
+
+
+
+    // Increments the counter, making the eventfd readable.
+    //
+    // Synchronized with closing so that a late signal can never write to a file descriptor number which has been
+    // reused in the meantime.
+    //
+    synchronized void signal() throws IOException {
+
+        if ( this.isClosed ) {
+
+            return ;
+        }
+
+        if ( NativeIO.write( this.fd          ,
+                             this.writeBuffer ,
+                             8                ) < 0 ) {
+
+            int errno = Linux.getErrno() ;
+
+            // Counter is about to overflow, it is readable anyway.
+            //
+            if ( errno != Errno.EAGAIN ) {
+
+                throw new IOException( "Native error while signaling eventfd : errno " + errno ) ;
+            }
+        }
+    }
+
+
+
+
+    // Resets the counter.
+    //
+    // Synchronized with closing as well, reading a reused file descriptor number would consume data of someone else.
+    //
+    synchronized void drain() throws IOException {
+
+        if ( this.isClosed ) {
+
+            return ;
+        }
+
+        if ( NativeIO.read( this.fd         ,
+                            this.readBuffer ,
+                            8               ) < 0 ) {
+
+            int errno = Linux.getErrno() ;
+
+            if ( errno != Errno.EAGAIN ) {
+
+                throw new IOException( "Native error while draining eventfd : errno " + errno ) ;
+            }
+        }
+    }
+
+
+
+
+    public synchronized void close() throws IOException {
+
+        if ( this.isClosed == false ) {
+
+            if ( LinuxIO.close( this.fd ) != 0 ) {
+
+                throw new IOException( "Native error while closing eventfd : errno " + Linux.getErrno() ) ;
+            }
+
+            this.isClosed = true ;
+        }
+    }
+}
@@ -0,0 +1,619 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import io.helins.linux.epoll.Epoll              ;
+import io.helins.linux.epoll.EpollEvent         ;
+import io.helins.linux.epoll.EpollEvents        ;
+import io.helins.linux.errno.Errno              ;
+import java.io.IOException                      ;
+import java.lang.invoke.MethodHandles           ;
+import java.lang.invoke.VarHandle               ;
+import java.util.Arrays                         ;
+import java.util.concurrent.TimeUnit            ;
+import java.util.concurrent.locks.LockSupport   ;
+import java.util.concurrent.locks.ReentrantLock ;
+
+
+
+
+/**
+ * Class representing a poller service parking threads until a file descriptor is ready.
+ * <p>
+ * Rather than blocking in a native wait, which pins the carrier of a virtual thread, a thread calling
+ * {@link #await( int, EpollEvent.Flags, long, TimeUnit ) await} registers the file descriptor with
+ * {@link EpollEvent.Flag#EPOLLONESHOT EPOLLONESHOT} and parks. A single dedicated platform thread waits on the shared
+ * epoll instance and unparks the relevant thread when its file descriptor is ready, using the file descriptor
+ * registered as user data as the key. This is how the JDK handles sockets, made available for any file descriptor
+ * (eg. serial ports, GPIO, devices, ...) :
+ * <pre>{@code
+ * FdReadiness readiness = new FdReadiness() ;
+ *
+ * // From any thread, virtual or not :
+ *
+ * int flags = readiness.await( fd                                                    ,
+ *                              new EpollEvent.Flags().set( EpollEvent.Flag.EPOLLIN ) ,
+ *                              1                                                     ,
+ *                              TimeUnit.SECONDS                                      ) ;
+ * }</pre>
+ * <p>
+ * At most one thread at a time can await a given file descriptor. Once used, a file descriptor remains in the
+ * interest list, disabled, so that awaiting it again costs only a modification. The kernel removes it automatically
+ * once closed, unless it has been duplicated, hence {@link #forget( int )} should be called before closing.
+ * <p>
+ * All methods are thread-safe.
+ */
+public class FdReadiness implements AutoCloseable {
+
+
+    // Accessing waiters read by the poller thread without locking.
+    //
+    private static final VarHandle WAITER = MethodHandles.arrayElementVarHandle( Waiter[].class ) ;
+
+
+
+
+    // Underlying epoll instance.
+    //
+    private final Epoll          epoll    ;
+
+    // Guards the reusable event and changes to waiters. Unlike a monitor, contending for it does not pin the carrier
+    // of a virtual thread.
+    //
+    private final ReentrantLock  lock     ;
+
+    // Reusable event for registrations.
+    //
+    private final EpollEvent     event    ;
+
+    // Parked waiters indexed by file descriptor, replaced when growing.
+    //
+    private volatile Waiter[]    waiters  ;
+
+    // Used for waking up the poller thread when closing.
+    //
+    private final EventFd        wakeup   ;
+
+    // Dedicated thread waiting on the epoll instance.
+    //
+    private final Thread         poller   ;
+
+    // Failure which stopped the poller thread, if any.
+    //
+    private volatile IOException failure  ;
+
+    // Has this service been closed ?
+    //
+    private volatile boolean     isClosed ;
+
+
+
+
+    /**
+     * Creates the service and starts its poller thread, retrieving at most
+     * {@link EpollEventLoop#DEFAULT_MAX_EVENTS} events per wait.
+     *
+     * @throws  IOException
+     *            When the epoll instance cannot be created.
+     */
+    public FdReadiness() throws IOException {
+
+        this( EpollEventLoop.DEFAULT_MAX_EVENTS ) ;
+    }
+
+
+
+
+    /**
+     * Creates the service and starts its poller thread.
+     *
+     * @param   maxEvents
+     *            How many events at most are retrieved by a single wait of the poller thread.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>maxEvents</strong> is less than 1.
+     *
+     * @throws  IOException
+     *            When the epoll instance cannot be created.
+     */
+    public FdReadiness( int maxEvents ) throws IOException {
+
+        EpollEvents events = new EpollEvents( maxEvents ) ;
+
+        this.lock    = new ReentrantLock() ;
+        this.event   = new EpollEvent()    ;
+        this.waiters = new Waiter[ 64 ]    ;
+        this.epoll   = new Epoll()         ;
+
+        EventFd wakeup = null ;
+
+        try {
+
+            wakeup = new EventFd() ;
+
+            this.epoll.add( wakeup.fd                                                         ,
+                            this.event.setFlags( new EpollEvent.Flags().set( EpollEvent.Flag.EPOLLIN ) )
+                                      .setUserData( wakeup.fd )                               ) ;
+        }
+        catch ( IOException | RuntimeException e ) {
+
+            try {
+
+                if ( wakeup != null ) {
+
+                    wakeup.close() ;
+                }
+
+                this.epoll.close() ;
+            }
+            catch ( IOException closingFailure ) {
+
+                e.addSuppressed( closingFailure ) ;
+            }
+
+            throw e ;
+        }
+
+        this.wakeup = wakeup ;
+        this.poller = new Thread( () -> this.poll( events ) ,
+                                  "epoll-readiness"         ) ;
+
+        this.poller.setDaemon( true ) ;
+        this.poller.start() ;
+    }
+
+
+
+
+    // Body of the poller thread, unparks waiters until closed or failing.
+    //
+    private void poll( EpollEvents events ) {
+
+        int wakeupFd = this.wakeup.fd ;
+
+        try {
+
+            while ( this.isClosed == false ) {
+
+                EpollEvents.Cursor cursor = events.cursor( this.epoll.wait( events ) ) ;
+
+                while ( cursor.next() ) {
+
+                    int fd = (int)cursor.getUserData() ;
+
+                    if ( fd == wakeupFd ) {
+
+                        this.wakeup.drain() ;
+
+                        continue ;
+                    }
+
+                    Waiter waiter = this.waiter( fd ) ;
+
+                    if ( waiter != null ) {
+
+                        waiter.flags = cursor.getRawFlags() ;
+
+                        LockSupport.unpark( waiter.thread ) ;
+                    }
+                }
+            }
+        }
+        catch ( IOException | RuntimeException e ) {
+
+            this.failure = e instanceof IOException ? (IOException)e
+                                                    : new IOException( "Readiness poller failed" ,
+                                                                       e                         ) ;
+        }
+        finally {
+
+            for ( Waiter waiter : this.waiters ) {
+
+                if ( waiter != null ) {
+
+                    LockSupport.unpark( waiter.thread ) ;
+                }
+            }
+        }
+    }
+
+
+
+
+    // Throws an IOException if this service has been closed or is not working anymore.
+    //
+    private void guardWorking() throws IOException {
+
+        if ( this.isClosed ) {
+
+            throw new IOException( "Readiness poller has been closed" ) ;
+        }
+
+        IOException failure = this.failure ;
+
+        if ( failure != null ) {
+
+            throw new IOException( "Readiness poller has failed" ,
+                                   failure                        ) ;
+        }
+    }
+
+
+
+
+    // Retrieves the waiter of a file descriptor without locking, null if there is none.
+    //
+    private Waiter waiter( int fd ) {
+
+        Waiter[] waiters = this.waiters ;
+
+        return fd < waiters.length ? (Waiter)WAITER.getAcquire( waiters ,
+                                                                fd      )
+                                   : null                                ;
+    }
+
+
+
+
+    // Sets the waiter of a file descriptor, returns false if there is already one.
+    //
+    private boolean putWaiter( int    fd     ,
+                               Waiter waiter ) {
+
+        this.lock.lock() ;
+
+        try {
+
+            Waiter[] waiters = this.waiters ;
+
+            if ( fd >= waiters.length ) {
+
+                waiters      = Arrays.copyOf( waiters                    ,
+                                              Math.max( fd + 1             ,
+                                                        waiters.length * 2 ) ) ;
+                this.waiters = waiters                                         ;
+            }
+            else if ( waiters[ fd ] != null ) {
+
+                return false ;
+            }
+
+            WAITER.setRelease( waiters ,
+                               fd      ,
+                               waiter  ) ;
+
+            return true ;
+        }
+        finally {
+
+            this.lock.unlock() ;
+        }
+    }
+
+
+
+
+    // Clears the waiter of a file descriptor if it is the given one.
+    //
+    private void removeWaiter( int    fd     ,
+                               Waiter waiter ) {
+
+        this.lock.lock() ;
+
+        try {
+
+            Waiter[] waiters = this.waiters ;
+
+            if ( waiters[ fd ] == waiter ) {
+
+                WAITER.setRelease( waiters ,
+                                   fd      ,
+                                   null    ) ;
+            }
+        }
+        finally {
+
+            this.lock.unlock() ;
+        }
+    }
+
+
+
+
+    // Arms or disarms a file descriptor, adding it if needed.
+    //
+    private void arm( int fd    ,
+                      int flags ) throws IOException {
+
+        this.lock.lock() ;
+
+        try {
+
+            this.event.setRawFlags( flags )
+                      .setUserData( fd )    ;
+
+            int errno = this.epoll.tryModify( fd         ,
+                                              this.event ) ;
+
+            if ( errno == Errno.ENOENT && flags != 0 ) {
+
+                this.epoll.add( fd         ,
+                                this.event ) ;
+            }
+            else if ( errno != 0 && errno != Errno.ENOENT ) {
+
+                throw new IOException( "Native error while arming file descriptor " + fd + " : errno " + errno ) ;
+            }
+        }
+        finally {
+
+            this.lock.unlock() ;
+        }
+    }
+
+
+
+
+    /**
+     * Parks the calling thread until the given file descriptor is ready, without timeout.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   flags
+     *            Which events are awaited.
+     *
+     * @return  Raw flags describing what happened.
+     *
+     * @throws  IllegalArgumentException
+     *            When the file descriptor is negative.
+     *
+     * @throws  IllegalStateException
+     *            When another thread is already awaiting this file descriptor.
+     *
+     * @throws  InterruptedException
+     *            When the calling thread is interrupted.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be registered or the service has been closed.
+     *
+     * @see     #await( int, EpollEvent.Flags, long, TimeUnit )
+     */
+    public int await( int              fd    ,
+                      EpollEvent.Flags flags ) throws InterruptedException ,
+                                                      IOException          {
+
+        return this.await( fd                   ,
+                           flags                ,
+                           -1                   ,
+                           TimeUnit.NANOSECONDS ) ;
+    }
+
+
+
+
+    /**
+     * Parks the calling thread until the given file descriptor is ready or the timeout elapses.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   flags
+     *            Which events are awaited, {@link EpollEvent.Flag#EPOLLONESHOT EPOLLONESHOT} is added automatically.
+     *
+     * @param   timeout
+     *            How long at most, negative for waiting indefinitely.
+     *
+     * @param   unit
+     *            Unit of <strong>timeout</strong>.
+     *
+     * @return  Raw flags describing what happened, 0 if the timeout elapsed.
+     *
+     * @throws  IllegalArgumentException
+     *            When the file descriptor is negative.
+     *
+     * @throws  IllegalStateException
+     *            When another thread is already awaiting this file descriptor.
+     *
+     * @throws  InterruptedException
+     *            When the calling thread is interrupted.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be registered or the service has been closed.
+     */
+    public int await( int              fd      ,
+                      EpollEvent.Flags flags   ,
+                      long             timeout ,
+                      TimeUnit         unit    ) throws InterruptedException ,
+                                                        IOException          {
+
+        if ( fd < 0 ) {
+
+            throw new IllegalArgumentException( "File descriptor must be >= 0" ) ;
+        }
+
+        this.guardWorking() ;
+
+        Waiter waiter = new Waiter( Thread.currentThread() ) ;
+
+        if ( this.putWaiter( fd     ,
+                             waiter ) == false ) {
+
+            throw new IllegalStateException( "Another thread is already awaiting file descriptor " + fd ) ;
+        }
+
+        try {
+
+            this.arm( fd                                                    ,
+                      flags.getValue() | EpollEvent.Flag.EPOLLONESHOT.value ) ;
+
+            long deadline = timeout < 0 ? 0
+                                        : System.nanoTime() + unit.toNanos( timeout ) ;
+
+            while ( waiter.flags == 0 ) {
+
+                if ( Thread.interrupted() ) {
+
+                    throw new InterruptedException() ;
+                }
+
+                this.guardWorking() ;
+
+                if ( timeout < 0 ) {
+
+                    LockSupport.park( this ) ;
+                }
+                else {
+
+                    long remaining = deadline - System.nanoTime() ;
+
+                    if ( remaining <= 0 ) {
+
+                        break ;
+                    }
+
+                    LockSupport.parkNanos( this      ,
+                                           remaining ) ;
+                }
+            }
+        }
+        finally {
+
+            this.removeWaiter( fd     ,
+                               waiter ) ;
+
+            if ( waiter.flags == 0 && this.isClosed == false ) {
+
+                // Disables the registration which has not fired, a late event is ignored since the waiter is gone.
+                //
+                this.arm( fd ,
+                          0  ) ;
+            }
+        }
+
+        return waiter.flags ;
+    }
+
+
+
+
+    /**
+     * Removes a file descriptor from the interest list, typically before closing it.
+     * <p>
+     * Does nothing if the file descriptor has never been awaited.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @throws  IllegalStateException
+     *            When a thread is currently awaiting this file descriptor.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be removed.
+     */
+    public void forget( int fd ) throws IOException {
+
+        if ( fd >= 0 && this.waiter( fd ) != null ) {
+
+            throw new IllegalStateException( "File descriptor is being awaited : " + fd ) ;
+        }
+
+        int errno = this.epoll.tryRemove( fd ) ;
+
+        if ( errno != 0 && errno != Errno.ENOENT ) {
+
+            throw new IOException( "Native error while removing file descriptor " + fd + " : errno " + errno ) ;
+        }
+    }
+
+
+
+
+    /**
+     * Stops the poller thread and closes the underlying epoll instance.
+     * <p>
+     * Threads currently awaiting are unparked and fail with an IOException.
+     *
+     * @throws  IOException
+     *            When the epoll instance cannot be closed.
+     */
+    public void close() throws IOException {
+
+        synchronized ( this ) {
+
+            if ( this.isClosed ) {
+
+                return ;
+            }
+
+            this.isClosed = true ;
+        }
+
+        this.wakeup.signal() ;
+
+        boolean isInterrupted = false ;
+
+        while ( true ) {
+
+            try {
+
+                this.poller.join() ;
+
+                break ;
+            }
+            catch ( InterruptedException e ) {
+
+                isInterrupted = true ;
+            }
+        }
+
+        if ( isInterrupted ) {
+
+            Thread.currentThread().interrupt() ;
+        }
+
+        try {
+
+            this.epoll.close() ;
+        }
+        finally {
+
+            this.wakeup.close() ;
+        }
+    }
+
+
+
+
+
+
+
+
+    // Thread parked until a file descriptor is ready.
+    //
+    private static final class Waiter {
+
+
+        // Parked thread.
+        //
+        final Thread thread ;
+
+        // Raw flags set by the poller thread, 0 until ready.
+        //
+        volatile int flags  ;
+
+
+
+
+        Waiter( Thread thread ) {
+
+            this.thread = thread ;
+        }
+    }
+}
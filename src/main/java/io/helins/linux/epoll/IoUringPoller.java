@@ -0,0 +1,1161 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import com.sun.jna.Memory                              ;
+import com.sun.jna.Pointer                             ;
+import io.helins.linux.Linux                           ;
+import io.helins.linux.epoll.EpollEvent                ;
+import io.helins.linux.epoll.EpollEvents               ;
+import io.helins.linux.epoll.Poller                    ;
+import io.helins.linux.epoll.internal.NativeEpollEvent ;
+import io.helins.linux.epoll.internal.NativeIoUring    ;
+import io.helins.linux.errno.Errno                     ;
+import io.helins.linux.io.LinuxIO                      ;
+import java.io.IOException                             ;
+import java.lang.invoke.MethodHandles                  ;
+import java.lang.invoke.VarHandle                      ;
+import java.nio.ByteBuffer                             ;
+import java.nio.ByteOrder                              ;
+import java.util.Arrays                                ;
+
+
+
+
+/**
+ * Class representing a poller backed by io_uring, with the same contract as an {@link Epoll} instance.
+ * <p>
+ * Each monitored file descriptor has a poll request in flight. Completions are read from a ring shared with the
+ * kernel, hence a wait returns without any system call when events are already there, and registrations as well as
+ * rearmed polls are submitted along the next blocking wait, in the same system call.
+ * <p>
+ * Level-triggered file descriptors are polled in one-shot mode and rearmed when they are reported, a file descriptor
+ * which is still ready being reported again straight away, as with epoll. Edge-triggered ones
+ * ({@link EpollEvent.Flag#EPOLLT EPOLLT}) use a multishot poll which stays armed on Linux 5.13+. Older kernels do not
+ * support it, they are then rearmed like level-triggered ones, hence reported as long as they are ready rather than
+ * once per change, which code written for edge-triggered mode handles anyway.
+ * {@link EpollEvent.Flag#EPOLLONESHOT EPOLLONESHOT} is honored, {@link EpollEvent.Flag#EPOLLEXCLUSIVE EPOLLEXCLUSIVE}
+ * and {@link EpollEvent.Flag#EPOLLWAKEUP EPOLLWAKEUP} are not supported.
+ * <p>
+ * Unlike epoll, problems with a file descriptor (eg. an invalid one) are detected by the kernel asynchronously and
+ * reported as an event with {@link EpollEvent.Flag#EPOLLERR EPOLLERR} rather than an exception.
+ * <p>
+ * Requires Linux 5.5+. File descriptors can be added, modified and removed from any thread but only one thread at a
+ * time should wait. Closing wakes up that thread. {@link Poller#open()} falls back to epoll when io_uring cannot be used.
+ *
+ * @see <a href="https://man7.org/linux/man-pages/man7/io_uring.7.html">io_uring man pages</a>
+ */
+public class IoUringPoller implements Poller {
+
+
+    /**
+     * Default number of submission entries.
+     */
+    public static final int DEFAULT_ENTRIES = 256 ;
+
+
+
+
+    // System call numbers, the same on all architectures.
+    //
+    private static final long SYS_IO_URING_SETUP = 425 ;
+    private static final long SYS_IO_URING_ENTER = 426 ;
+
+
+
+
+    // Offsets for mapping the rings.
+    //
+    private static final long IORING_OFF_SQ_RING = 0L          ;
+    private static final long IORING_OFF_CQ_RING = 0x8000000L  ;
+    private static final long IORING_OFF_SQES    = 0x10000000L ;
+
+    // PROT_READ | PROT_WRITE and MAP_SHARED | MAP_POPULATE.
+    //
+    private static final int  PROT               = 0x3         ;
+    private static final int  MAP                = 0x8001      ;
+
+
+
+
+    // Values related to io_uring.
+    //
+    private static final int IORING_FEAT_NODROP     = 1 << 1  ;
+    private static final int IORING_FEAT_RSRC_TAGS  = 1 << 10 ;
+    private static final int IORING_ENTER_GETEVENTS = 1       ;
+    private static final int IORING_OP_NOP          = 0       ;
+    private static final int IORING_OP_POLL_ADD     = 6       ;
+    private static final int IORING_OP_POLL_REMOVE  = 7       ;
+    private static final int IORING_OP_TIMEOUT      = 11      ;
+    private static final int IORING_OP_TIMEOUT_REM  = 12      ;
+    private static final int IORING_POLL_ADD_MULTI  = 1       ;
+    private static final int IORING_CQE_F_MORE      = 1 << 1  ;
+
+
+
+
+    // Sizes of native structs.
+    //
+    private static final int SIZE_PARAMS = 120 ;
+    private static final int SIZE_SQE    = 64  ;
+    private static final int SIZE_CQE    = 16  ;
+
+
+
+
+    // User data of completions which are not about readiness. Otherwise, user data holds the file descriptor in its
+    // lower 32 bits and its generation in the upper ones, which never reaches these bits.
+    //
+    private static final long TAG_TIMEOUT = 1L << 63 ;
+    private static final long TAG_REMOVE  = 1L << 62 ;
+
+
+
+
+    // Flags which cannot be polled.
+    //
+    private static final int UNSUPPORTED = EpollEvent.Flag.EPOLLEXCLUSIVE.value | EpollEvent.Flag.EPOLLWAKEUP.value ;
+
+
+
+
+    // Accessing indices shared with the kernel with the proper memory ordering.
+    //
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle( int[].class             ,
+                                                                                ByteOrder.nativeOrder() ) ;
+
+
+
+
+    // Guards submissions and the state of file descriptors.
+    //
+    private final Object     lock             ;
+
+    // File descriptor of the io_uring instance.
+    //
+    private final int        ringFd           ;
+
+    // Native struct __kernel_timespec for timeouts.
+    //
+    private final Memory     timespec         ;
+
+    // Mappings of the submission ring, the completion ring and the submission entries.
+    //
+    private Pointer          sqRing           ;
+    private long             sqRingSize       ;
+    private Pointer          cqRing           ;
+    private long             cqRingSize       ;
+    private Pointer          sqeArray         ;
+    private long             sqeArraySize     ;
+
+    // Views of these mappings.
+    //
+    private ByteBuffer       sq               ;
+    private ByteBuffer       cq               ;
+    private ByteBuffer       sqes             ;
+
+    // Layout of the rings, offsets of the indices shared with the kernel and masks.
+    //
+    private int              sqHead           ;
+    private int              sqTail           ;
+    private int              sqMask           ;
+    private int              sqEntries        ;
+    private int              cqHead           ;
+    private int              cqTail           ;
+    private int              cqMask           ;
+    private int              cqes             ;
+
+    // Does the kernel support multishot polls (Linux 5.13+) ?
+    //
+    private boolean          isMultishot      ;
+
+    // Local copy of the tail of the submission ring, only written by this instance.
+    //
+    private int              tail             ;
+
+    // Sequence number of the current timeout, is it still in flight and has it expired ?
+    //
+    private long             timeoutSeq       ;
+    private boolean          isTimeoutPending ;
+    private boolean          isTimedOut       ;
+
+    // State of file descriptors, indexed by file descriptor.
+    //
+    private boolean[]        isAdded          ;
+    private boolean[]        isArmed          ;
+    private int[]            interests        ;
+    private long[]           userData         ;
+    private int[]            generations      ;
+
+    // Tokens of file descriptors reported by the last completions and still needing to be rearmed.
+    //
+    private long[]           rearms           ;
+    private int              rearmCount       ;
+
+    // How many threads are waiting, guarded by the lock.
+    //
+    private int              waiters          ;
+
+    // Closing an io_uring file descriptor twice is an error.
+    //
+    private volatile boolean isClosed         ;
+
+
+
+
+    /**
+     * Creates a poller with {@link #DEFAULT_ENTRIES} submission entries.
+     *
+     * @throws  IOException
+     *            When io_uring is not supported, not permitted, or cannot be set up.
+     */
+    public IoUringPoller() throws IOException {
+
+        this( DEFAULT_ENTRIES ) ;
+    }
+
+
+
+
+    /**
+     * Creates a poller.
+     *
+     * @param   entries
+     *            Number of submission entries, rounded up to a power of 2 by the kernel.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>entries</strong> is less than 1.
+     *
+     * @throws  IOException
+     *            When one of these conditions occured :
+     *            <ul>
+     *                <li>io_uring is not supported by the kernel (Linux &lt; 5.5).</li>
+     *                <li>io_uring is not permitted, disabled by sysctl or blocked by seccomp.</li>
+     *                <li>An unplanned error occured on the native side.</li>
+     *            </ul>
+     */
+    public IoUringPoller( int entries ) throws IOException {
+
+        if ( entries < 1 ) {
+
+            throw new IllegalArgumentException( "Number of entries must be >= 1" ) ;
+        }
+
+        this.lock = new Object() ;
+
+        Memory params = new Memory( SIZE_PARAMS ) ;
+
+        params.clear() ;
+
+        long fd = NativeIoUring.syscall( SYS_IO_URING_SETUP ,
+                                         entries            ,
+                                         params             ) ;
+
+        if ( fd < 0 ) {
+
+            int errno = Linux.getErrno() ;
+
+            switch ( errno ) {
+
+                case Errno.ENOSYS : throw new IOException( "io_uring is not supported by this kernel" )                       ;
+
+                case Errno.EPERM  : throw new IOException( "io_uring is not permitted, disabled or blocked by seccomp" )      ;
+
+                default           : throw new IOException( "Native error while creating io_uring instance : errno " + errno ) ;
+            }
+        }
+
+        this.ringFd = (int)fd ;
+
+        try {
+
+            if ( ( params.getInt( 20 ) & IORING_FEAT_NODROP ) == 0 ) {
+
+                throw new IOException( "io_uring is too old, Linux 5.5+ is required" ) ;
+            }
+
+            // Multishot polls came along with this feature, there is no way of probing for them directly.
+            //
+            this.isMultishot = ( params.getInt( 20 ) & IORING_FEAT_RSRC_TAGS ) != 0 ;
+
+            this.map( params ) ;
+        }
+        catch ( IOException e ) {
+
+            this.release() ;
+
+            throw e ;
+        }
+
+        this.timespec    = new Memory( 16 )  ;
+        this.isAdded     = new boolean[ 64 ] ;
+        this.isArmed     = new boolean[ 64 ] ;
+        this.interests   = new int[ 64 ]     ;
+        this.userData    = new long[ 64 ]    ;
+        this.generations = new int[ 64 ]     ;
+        this.rearms      = new long[ 64 ]    ;
+    }
+
+
+
+
+    // Maps the rings described by struct io_uring_params.
+    //
+    private void map( Pointer params ) throws IOException {
+
+        // struct io_sqring_offsets starts at 40, struct io_cqring_offsets at 80.
+        //
+        this.sqEntries = params.getInt( 0 ) ;
+
+        int cqEntries = params.getInt( 4 ) ;
+
+        this.sqHead = params.getInt( 40 )  ;
+        this.sqTail = params.getInt( 44 )  ;
+        this.cqHead = params.getInt( 80 )  ;
+        this.cqTail = params.getInt( 84 )  ;
+        this.cqes   = params.getInt( 100 ) ;
+
+        int sqArray = params.getInt( 64 ) ;
+
+        this.sqRingSize   = sqArray + this.sqEntries * 4L          ;
+        this.cqRingSize   = this.cqes + cqEntries * (long)SIZE_CQE ;
+        this.sqeArraySize = this.sqEntries * (long)SIZE_SQE        ;
+
+        this.sqRing   = this.mmap( this.sqRingSize   ,
+                                   IORING_OFF_SQ_RING ) ;
+        this.cqRing   = this.mmap( this.cqRingSize   ,
+                                   IORING_OFF_CQ_RING ) ;
+        this.sqeArray = this.mmap( this.sqeArraySize ,
+                                   IORING_OFF_SQES    ) ;
+
+        this.sq   = this.sqRing.getByteBuffer( 0               ,
+                                               this.sqRingSize )
+                                 .order( ByteOrder.nativeOrder() ) ;
+        this.cq   = this.cqRing.getByteBuffer( 0               ,
+                                               this.cqRingSize )
+                                 .order( ByteOrder.nativeOrder() ) ;
+        this.sqes = this.sqeArray.getByteBuffer( 0                 ,
+                                                 this.sqeArraySize )
+                                   .order( ByteOrder.nativeOrder() ) ;
+
+        this.sqMask = this.sq.getInt( params.getInt( 48 ) ) ;
+        this.cqMask = this.cq.getInt( params.getInt( 88 ) ) ;
+        this.tail   = this.sq.getInt( this.sqTail )          ;
+
+        // Submission entry i always lives at index i.
+        //
+        for ( int i = 0          ;
+              i < this.sqEntries ;
+              i += 1             ) {
+
+            this.sq.putInt( sqArray + i * 4 ,
+                            i               ) ;
+        }
+    }
+
+
+
+
+    // Maps a region of the io_uring instance.
+    //
+    private Pointer mmap( long size   ,
+                          long offset ) throws IOException {
+
+        Pointer address = NativeIoUring.mmap( null        ,
+                                              size        ,
+                                              PROT        ,
+                                              MAP         ,
+                                              this.ringFd ,
+                                              offset      ) ;
+
+        if ( Pointer.nativeValue( address ) == -1L ) {
+
+            throw new IOException( "Native error while mapping io_uring rings : errno " + Linux.getErrno() ) ;
+        }
+
+        return address ;
+    }
+
+
+
+
+    // Unmaps the rings and closes the io_uring file descriptor, keeping the first failure.
+    //
+    private int release() {
+
+        int errno = 0 ;
+
+        Pointer[] mappings = { this.sqRing     , this.cqRing     , this.sqeArray     } ;
+        long[]    sizes    = { this.sqRingSize , this.cqRingSize , this.sqeArraySize } ;
+
+        for ( int i = 0           ;
+              i < mappings.length ;
+              i += 1              ) {
+
+            if ( mappings[ i ] != null && NativeIoUring.munmap( mappings[ i ] ,
+                                                                sizes[ i ]    ) != 0 && errno == 0 ) {
+
+                errno = Linux.getErrno() ;
+            }
+        }
+
+        if ( LinuxIO.close( this.ringFd ) != 0 && errno == 0 ) {
+
+            errno = Linux.getErrno() ;
+        }
+
+        return errno ;
+    }
+
+
+
+
+    /**
+     * Closes this poller and releases the allocated resources.
+     * <p>
+     * Threads waiting on this poller are woken up and return no event. This method blocks until they are done, as
+     * with {@link Epoll#close()}. Monitored file descriptors are not closed since they belong to the user.
+     *
+     * @throws  IOException
+     *            When an unplanned error occured on the native side.
+     */
+    public void close() throws IOException {
+
+        synchronized ( this.lock ) {
+
+            if ( this.isClosed ) {
+
+                return ;
+            }
+
+            if ( this.waiters > 0 ) {
+
+                // Waiters blocked in io_uring_enter return as soon as this completes.
+                //
+                this.push( IORING_OP_NOP ,
+                           -1            ,
+                           0L            ,
+                           0             ,
+                           0             ,
+                           TAG_REMOVE    ) ;
+                this.submit() ;
+            }
+
+            this.isClosed = true ;
+
+            boolean isInterrupted = false ;
+
+            while ( this.waiters > 0 ) {
+
+                try {
+
+                    this.lock.wait() ;
+                }
+                catch ( InterruptedException e ) {
+
+                    isInterrupted = true ;
+                }
+            }
+
+            if ( isInterrupted ) {
+
+                Thread.currentThread().interrupt() ;
+            }
+
+            int errno = this.release() ;
+
+            if ( errno != 0 ) {
+
+                throw new IOException( "Native error while closing io_uring instance : errno " + errno ) ;
+            }
+        }
+    }
+
+
+
+
+    // Throws an IllegalStateException when the poller is closed.
+    //
+    private void guardClosed() {
+
+        if ( this.isClosed ) {
+
+            throw new IllegalStateException( "Cannot perform operation on a closed poller" ) ;
+        }
+    }
+
+
+
+
+    /**
+     * Starts monitoring a file descriptor for relevant events.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   event
+     *            Describing what events should be monitored.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalArgumentException
+     *            When the given file descriptor is negative or has already been added.
+     *
+     * @throws  IllegalStateException
+     *            When this poller has been closed.
+     *
+     * @throws  IOException
+     *            When the poll request cannot be submitted.
+     *
+     * @throws  UnsupportedOperationException
+     *            When EPOLLEXCLUSIVE or EPOLLWAKEUP is set.
+     */
+    public IoUringPoller add( int        fd    ,
+                              EpollEvent event ) throws IOException {
+
+        if ( fd < 0 ) {
+
+            throw new IllegalArgumentException( "Given file descriptor is invalid" ) ;
+        }
+
+        int flags = interest( event ) ;
+
+        synchronized ( this.lock ) {
+
+            this.guardClosed() ;
+
+            if ( fd >= this.isAdded.length ) {
+
+                this.grow( fd ) ;
+            }
+
+            if ( this.isAdded[ fd ] ) {
+
+                throw new IllegalArgumentException( "Given file descriptor has already been added" ) ;
+            }
+
+            this.isAdded[ fd ]   = true                ;
+            this.interests[ fd ] = flags               ;
+            this.userData[ fd ]  = event.getUserData() ;
+
+            this.arm( fd ) ;
+            this.submit()  ;
+        }
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Modifies how a file descriptor is monitored.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   event
+     *            Describing what events should be monitored.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalStateException
+     *            When this poller has been closed or the given file descriptor has not been added.
+     *
+     * @throws  IOException
+     *            When the poll request cannot be submitted.
+     *
+     * @throws  UnsupportedOperationException
+     *            When EPOLLEXCLUSIVE or EPOLLWAKEUP is set.
+     */
+    public IoUringPoller modify( int        fd    ,
+                                 EpollEvent event ) throws IOException {
+
+        int flags = interest( event ) ;
+
+        synchronized ( this.lock ) {
+
+            this.guardClosed() ;
+            this.guardAdded( fd       ,
+                             "modify" ) ;
+            this.disarm( fd ) ;
+
+            this.interests[ fd ] = flags               ;
+            this.userData[ fd ]  = event.getUserData() ;
+
+            this.arm( fd ) ;
+            this.submit()  ;
+        }
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Stops monitoring a previously added file descriptor.
+     * <p>
+     * Events about it which have not been retrieved yet are dropped.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalStateException
+     *            When this poller has been closed or the given file descriptor has not been added.
+     *
+     * @throws  IOException
+     *            When the removal cannot be submitted.
+     */
+    public IoUringPoller remove( int fd ) throws IOException {
+
+        synchronized ( this.lock ) {
+
+            this.guardClosed() ;
+            this.guardAdded( fd       ,
+                             "remove" ) ;
+            this.disarm( fd ) ;
+
+            this.isAdded[ fd ] = false ;
+
+            this.submit() ;
+        }
+
+        return this ;
+    }
+
+
+
+
+    // Retrieves the flags of an event, validated.
+    //
+    private static int interest( EpollEvent event ) {
+
+        int flags = event.getRawFlags() ;
+
+        if ( ( flags & UNSUPPORTED ) != 0 ) {
+
+            throw new UnsupportedOperationException( "EPOLLEXCLUSIVE and EPOLLWAKEUP are not supported by io_uring" ) ;
+        }
+
+        return flags ;
+    }
+
+
+
+
+    // Throws an IllegalStateException when the file descriptor has not been added.
+    //
+    private void guardAdded( int    fd        ,
+                             String operation ) {
+
+        if ( fd < 0 || fd >= this.isAdded.length || this.isAdded[ fd ] == false ) {
+
+            throw new IllegalStateException( "Unable to " + operation + " file descriptor which has not been added" ) ;
+        }
+    }
+
+
+
+
+    // Grows the state arrays so that they can be indexed by the given file descriptor.
+    //
+    private void grow( int fd ) {
+
+        int length = Math.max( fd + 1                  ,
+                               this.isAdded.length * 2 ) ;
+
+        this.isAdded     = Arrays.copyOf( this.isAdded     ,
+                                          length           ) ;
+        this.isArmed     = Arrays.copyOf( this.isArmed     ,
+                                          length           ) ;
+        this.interests   = Arrays.copyOf( this.interests   ,
+                                          length           ) ;
+        this.userData    = Arrays.copyOf( this.userData    ,
+                                          length           ) ;
+        this.generations = Arrays.copyOf( this.generations ,
+                                          length           ) ;
+    }
+
+
+
+
+    // Builds the user data of the current poll request of a file descriptor.
+    //
+    private long token( int fd ) {
+
+        return ( (long)this.generations[ fd ] << 32 ) | fd ;
+    }
+
+
+
+
+    // Submits a poll request for a file descriptor.
+    //
+    private void arm( int fd ) throws IOException {
+
+        int flags  = this.interests[ fd ]                                                                      ;
+        int events = flags & 0xFFFF                                                                            ;
+        int len    = this.isMultishot && ( flags & EpollEvent.Flag.EPOLLT.value ) != 0 ? IORING_POLL_ADD_MULTI
+                                                                                       : 0                     ;
+
+        // The kernel swaps the halves of poll32_events on big endian architectures.
+        //
+        if ( ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ) {
+
+            events = Integer.rotateLeft( events ,
+                                         16     ) ;
+        }
+
+        this.push( IORING_OP_POLL_ADD ,
+                   fd                 ,
+                   0L                 ,
+                   len                ,
+                   events             ,
+                   this.token( fd )   ) ;
+
+        this.isArmed[ fd ] = true ;
+    }
+
+
+
+
+    // Cancels the poll request of a file descriptor if any, and invalidates its pending completions.
+    //
+    private void disarm( int fd ) throws IOException {
+
+        if ( this.isArmed[ fd ] ) {
+
+            this.push( IORING_OP_POLL_REMOVE ,
+                       -1                    ,
+                       this.token( fd )      ,
+                       0                     ,
+                       0                     ,
+                       TAG_REMOVE            ) ;
+
+            this.isArmed[ fd ] = false ;
+        }
+
+        this.generations[ fd ] = ( this.generations[ fd ] + 1 ) & 0x3FFFFFFF ;
+    }
+
+
+
+
+    // Writes a submission entry, submitting pending ones first if the ring is full.
+    //
+    private void push( int  opcode   ,
+                       int  fd       ,
+                       long address  ,
+                       int  len      ,
+                       int  opFlags  ,
+                       long userData ) throws IOException {
+
+        if ( this.tail - (int)INT.getAcquire( this.sq     ,
+                                              this.sqHead ) == this.sqEntries ) {
+
+            this.submit() ;
+
+            if ( this.tail - (int)INT.getAcquire( this.sq     ,
+                                                  this.sqHead ) == this.sqEntries ) {
+
+                throw new IOException( "Submission ring of io_uring is full" ) ;
+            }
+        }
+
+        int offset = ( this.tail & this.sqMask ) * SIZE_SQE ;
+
+        for ( int i = 0    ;
+              i < SIZE_SQE ;
+              i += 8       ) {
+
+            this.sqes.putLong( offset + i ,
+                               0L         ) ;
+        }
+
+        this.sqes.put(     offset      , (byte)opcode ) ;
+        this.sqes.putInt(  offset + 4  , fd           ) ;
+        this.sqes.putLong( offset + 16 , address      ) ;
+        this.sqes.putInt(  offset + 24 , len          ) ;
+        this.sqes.putInt(  offset + 28 , opFlags      ) ;
+        this.sqes.putLong( offset + 32 , userData     ) ;
+
+        this.tail += 1 ;
+
+        INT.setRelease( this.sq     ,
+                        this.sqTail ,
+                        this.tail   ) ;
+    }
+
+
+
+
+    // How many submission entries have not been consumed by the kernel yet.
+    //
+    private int pending() {
+
+        return this.tail - (int)INT.getAcquire( this.sq     ,
+                                                this.sqHead ) ;
+    }
+
+
+
+
+    // Submits pending entries without waiting.
+    //
+    private void submit() throws IOException {
+
+        int toSubmit = this.pending() ;
+
+        if ( toSubmit > 0 ) {
+
+            this.enter( toSubmit ,
+                        0        ,
+                        0        ) ;
+        }
+    }
+
+
+
+
+    // Calls io_uring_enter, retrying is left to the caller when interrupted or when the kernel is busy.
+    //
+    private void enter( int toSubmit    ,
+                        int minComplete ,
+                        int flags       ) throws IOException {
+
+        long result = NativeIoUring.syscall( SYS_IO_URING_ENTER ,
+                                             this.ringFd        ,
+                                             toSubmit           ,
+                                             minComplete        ,
+                                             flags              ,
+                                             null               ,
+                                             0L                 ) ;
+
+        if ( result < 0 ) {
+
+            int errno = Linux.getErrno() ;
+
+            switch ( errno ) {
+
+                case Errno.EINTR  :
+                case Errno.EAGAIN :
+                case Errno.EBUSY  : return ;
+
+                default           : throw new IOException( "Native error while entering io_uring : errno " + errno ) ;
+            }
+        }
+    }
+
+
+
+
+    /**
+     * Waits for events to happen (at most the size of <code>events</code>) within the given timeout.
+     * <p>
+     * Returns straight away, without any system call, when completions are already available.
+     *
+     * @param   events
+     *            Will be overwritten in order to describe what happened and give back the previously registered
+     *            arbitrary long value for each file descriptor involved.
+     *
+     * @param   timeout
+     *            How many milliseconds at least should we wait. A timeout of -1 will block
+     *            forever until something happens.
+     *
+     * @return  How many events occured before the timeout elapsed.
+     *
+     * @throws  IllegalStateException
+     *            When this poller has been closed.
+     *
+     * @throws  IOException
+     *            When an unplanned error occured on the native side.
+     */
+    public int wait( EpollEvents events  ,
+                     int         timeout ) throws IOException {
+
+        synchronized ( this.lock ) {
+
+            this.guardClosed() ;
+
+            this.waiters += 1 ;
+        }
+
+        try {
+
+            return this.waitRaw( events  ,
+                                 timeout ) ;
+        }
+        finally {
+
+            synchronized ( this.lock ) {
+
+                this.waiters -= 1 ;
+
+                if ( this.isClosed ) {
+
+                    this.lock.notifyAll() ;
+                }
+            }
+        }
+    }
+
+
+
+
+    // Waits while being counted as a waiter, returns 0 if the poller is closed meanwhile.
+    //
+    private int waitRaw( EpollEvents events  ,
+                         int         timeout ) throws IOException {
+
+        long deadline = timeout > 0 ? System.nanoTime() + timeout * 1_000_000L
+                                    : 0L                                       ;
+        int  n        = 0                                                      ;
+
+        for ( boolean isFirst = true ;
+              n == 0                 ;
+              isFirst = false        ) {
+
+            int toSubmit ;
+
+            synchronized ( this.lock ) {
+
+                // Woken up by closing, the rings must not be touched anymore.
+                //
+                if ( this.isClosed ) {
+
+                    break ;
+                }
+
+                n = this.reap( events ) ;
+
+                if ( n > 0 || this.isTimedOut || ( timeout == 0 && isFirst == false ) ) {
+
+                    break ;
+                }
+
+                if ( timeout > 0 ) {
+
+                    long remaining = deadline - System.nanoTime() ;
+
+                    if ( remaining <= 0 ) {
+
+                        break ;
+                    }
+
+                    // The timeout submitted by a previous iteration still holds the deadline.
+                    //
+                    if ( this.isTimeoutPending == false ) {
+
+                        this.pushTimeout( remaining ) ;
+                    }
+                }
+
+                toSubmit = this.pending() ;
+            }
+
+            // Blocks outside of the lock so that other threads can add file descriptors meanwhile.
+            //
+            this.enter( toSubmit               ,
+                        timeout == 0 ? 0 : 1   ,
+                        IORING_ENTER_GETEVENTS ) ;
+        }
+
+        synchronized ( this.lock ) {
+
+            this.isTimedOut = false ;
+
+            // Cancels the timeout of this wait, which would otherwise linger and wake up a later one.
+            //
+            if ( this.isTimeoutPending && this.isClosed == false ) {
+
+                this.push( IORING_OP_TIMEOUT_REM         ,
+                           -1                            ,
+                           TAG_TIMEOUT | this.timeoutSeq ,
+                           0                             ,
+                           0                             ,
+                           TAG_REMOVE                    ) ;
+
+                // The cancelled timeout still completes (-ECANCELED), it must not be mistaken for the timeout of
+                // a later wait.
+                //
+                this.timeoutSeq       += 1     ;
+                this.isTimeoutPending  = false ;
+            }
+        }
+
+        events.afterWait( n ) ;
+
+        return n ;
+    }
+
+
+
+
+    // Submits a timeout completing after the given number of nanoseconds.
+    //
+    private void pushTimeout( long nanos ) throws IOException {
+
+        this.timespec.setLong( 0                      ,
+                               nanos / 1_000_000_000L ) ;
+        this.timespec.setLong( 8                      ,
+                               nanos % 1_000_000_000L ) ;
+
+        this.timeoutSeq       += 1    ;
+        this.isTimeoutPending  = true ;
+
+        // The kernel copies the timespec when the entry is submitted, which happens before it is reused.
+        //
+        this.push( IORING_OP_TIMEOUT                    ,
+                   -1                                   ,
+                   Pointer.nativeValue( this.timespec ) ,
+                   1                                    ,
+                   0                                    ,
+                   TAG_TIMEOUT | this.timeoutSeq        ) ;
+    }
+
+
+
+
+    // Moves completions into the given events, rearming level-triggered file descriptors which have been reported.
+    //
+    // Rearming is staged until completions have been consumed, since submitting can fail when the ring is full and
+    // completions left unconsumed would then be reported twice.
+    //
+    private int reap( EpollEvents events ) throws IOException {
+
+        // Left from a previous wait which could not submit them.
+        //
+        this.rearm() ;
+
+        int head = this.cq.getInt( this.cqHead )      ;
+        int tail = (int)INT.getAcquire( this.cq     ,
+                                        this.cqTail ) ;
+        int n    = 0                                  ;
+
+        while ( head != tail && n < events.size ) {
+
+            int  offset   = this.cqes + ( head & this.cqMask ) * SIZE_CQE ;
+            long userData = this.cq.getLong( offset )                     ;
+            int  result   = this.cq.getInt( offset + 8 )                  ;
+            int  flags    = this.cq.getInt( offset + 12 )                 ;
+
+            head += 1 ;
+
+            if ( ( userData & TAG_TIMEOUT ) != 0 ) {
+
+                if ( userData == ( TAG_TIMEOUT | this.timeoutSeq ) ) {
+
+                    this.isTimeoutPending = false                  ;
+                    this.isTimedOut       = result == -Errno.ETIME ;
+                }
+
+                continue ;
+            }
+
+            if ( ( userData & TAG_REMOVE ) != 0 ) {
+
+                continue ;
+            }
+
+            int fd = (int)userData ;
+
+            // Completion of a poll request which has been cancelled since.
+            //
+            if (    fd >= this.isAdded.length
+                 || this.isAdded[ fd ] == false
+                 || this.generations[ fd ] != (int)( userData >>> 32 ) ) {
+
+                continue ;
+            }
+
+            if ( ( flags & IORING_CQE_F_MORE ) == 0 ) {
+
+                this.isArmed[ fd ] = false ;
+            }
+
+            if ( result != -Errno.ECANCELED ) {
+
+                int position = n * NativeEpollEvent.SIZE ;
+
+                events.buffer.putInt(  position + NativeEpollEvent.OFFSET_EVENTS    ,
+                                       result < 0 ? EpollEvent.Flag.EPOLLERR.value
+                                                  : result                          ) ;
+                events.buffer.putLong( position + NativeEpollEvent.OFFSET_USER_DATA ,
+                                       this.userData[ fd ]                          ) ;
+
+                n += 1 ;
+
+                if ( result < 0 ) {
+
+                    // Rearming would fail the same way.
+                    //
+                    continue ;
+                }
+            }
+
+            if ( this.isArmed[ fd ] == false && ( this.interests[ fd ] & EpollEvent.Flag.EPOLLONESHOT.value ) == 0 ) {
+
+                if ( this.rearmCount == this.rearms.length ) {
+
+                    this.rearms = Arrays.copyOf( this.rearms          ,
+                                                 this.rearmCount * 2 ) ;
+                }
+
+                this.rearms[ this.rearmCount ]  = userData ;
+                this.rearmCount                += 1        ;
+            }
+        }
+
+        INT.setRelease( this.cq     ,
+                        this.cqHead ,
+                        head        ) ;
+
+        try {
+
+            this.rearm() ;
+        }
+        catch ( IOException e ) {
+
+            // Events have been consumed, they are returned and rearming is retried by the next wait.
+            //
+            if ( n == 0 ) {
+
+                throw e ;
+            }
+        }
+
+        return n ;
+    }
+
+
+
+
+    // Rearms staged file descriptors, those which cannot be rearmed stay staged.
+    //
+    private void rearm() throws IOException {
+
+        while ( this.rearmCount > 0 ) {
+
+            long token = this.rearms[ this.rearmCount - 1 ] ;
+            int  fd    = (int)token                         ;
+
+            // Might have been modified or removed meanwhile.
+            //
+            if ( this.isAdded[ fd ] && this.token( fd ) == token && this.isArmed[ fd ] == false ) {
+
+                this.arm( fd ) ;
+            }
+
+            this.rearmCount -= 1 ;
+        }
+    }
+}
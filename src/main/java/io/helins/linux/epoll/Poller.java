@@ -0,0 +1,178 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import io.helins.linux.epoll.Epoll         ;
+import io.helins.linux.epoll.EpollEvent    ;
+import io.helins.linux.epoll.EpollEvents   ;
+import io.helins.linux.epoll.IoUringPoller ;
+import java.io.IOException                 ;
+
+
+
+
+/**
+ * Interface for monitoring file descriptors for readiness, whatever the kernel facility doing it.
+ * <p>
+ * Events are described by {@link EpollEvent} and retrieved in {@link EpollEvents}, hence code written against this
+ * interface works unchanged with an {@link Epoll} instance or an {@link IoUringPoller}.
+ */
+public interface Poller extends AutoCloseable {
+
+
+    /**
+     * Opens the best poller available on this system, an {@link IoUringPoller} or an {@link Epoll} instance when
+     * io_uring is not supported, disabled, or blocked (eg. by a seccomp filter in a container).
+     * <p>
+     * Setting the system property <code>io.helins.linux.epoll.poller</code> to <code>epoll</code> forces epoll.
+     *
+     * @return  A new poller.
+     *
+     * @throws  IOException
+     *            When the fallback epoll instance cannot be created.
+     */
+    public static Poller open() throws IOException {
+
+        if ( "epoll".equals( System.getProperty( "io.helins.linux.epoll.poller" ) ) == false ) {
+
+            try {
+
+                return new IoUringPoller() ;
+            }
+            catch ( IOException e ) {
+
+                // io_uring is unavailable, falls back to epoll.
+            }
+        }
+
+        return new Epoll() ;
+    }
+
+
+
+
+    /**
+     * Starts monitoring a file descriptor for relevant events.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   event
+     *            Describing what events should be monitored.
+     *
+     * @return  This instance.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be added.
+     *
+     * @see     Epoll#add( int, EpollEvent )
+     */
+    public Poller add( int        fd    ,
+                       EpollEvent event ) throws IOException ;
+
+
+
+
+    /**
+     * Modifies how a file descriptor is monitored.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   event
+     *            Describing what events should be monitored.
+     *
+     * @return  This instance.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be modified.
+     *
+     * @see     Epoll#modify( int, EpollEvent )
+     */
+    public Poller modify( int        fd    ,
+                          EpollEvent event ) throws IOException ;
+
+
+
+
+    /**
+     * Stops monitoring a previously added file descriptor.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @return  This instance.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be removed.
+     *
+     * @see     Epoll#remove( int )
+     */
+    public Poller remove( int fd ) throws IOException ;
+
+
+
+
+    /**
+     * Waits for events to happen (at most the size of <code>events</code>), blocking forever until something
+     * happens.
+     *
+     * @param   events
+     *            Will be overwritten in order to describe what happened and give back the previously registered
+     *            arbitrary long value for each file descriptor involved.
+     *
+     * @return  How many events occured.
+     *
+     * @throws  IOException
+     *            When waiting fails.
+     */
+    public default int wait( EpollEvents events ) throws IOException {
+
+        return this.wait( events ,
+                          -1     ) ;
+    }
+
+
+
+
+    /**
+     * Waits for events to happen (at most the size of <code>events</code>) within the given timeout.
+     *
+     * @param   events
+     *            Will be overwritten in order to describe what happened and give back the previously registered
+     *            arbitrary long value for each file descriptor involved.
+     *
+     * @param   timeout
+     *            How many milliseconds at least should we wait. A timeout of -1 will block
+     *            forever until something happens.
+     *
+     * @return  How many events occured before the timeout elapsed.
+     *
+     * @throws  IOException
+     *            When waiting fails.
+     *
+     * @see     Epoll#wait( EpollEvents, int )
+     */
+    public int wait( EpollEvents events  ,
+                     int         timeout ) throws IOException ;
+
+
+
+
+    /**
+     * Closes this poller and releases the allocated resources.
+     * <p>
+     * Threads waiting on this poller are woken up and return no event. Monitored file descriptors are not closed
+     * since they belong to the user.
+     *
+     * @throws  IOException
+     *            When an unplanned error occured on the native side.
+     */
+    public void close() throws IOException ;
+}
@@ -0,0 +1,524 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import com.sun.jna.Memory                      ;
+import com.sun.jna.Native                      ;
+import com.sun.jna.Pointer                     ;
+import io.helins.linux.Linux                   ;
+import io.helins.linux.epoll.SignalSet         ;
+import io.helins.linux.epoll.internal.NativeIO ;
+import io.helins.linux.errno.Errno             ;
+import io.helins.linux.io.LinuxIO              ;
+import java.io.IOException                     ;
+import java.nio.ByteBuffer                     ;
+import java.nio.ByteOrder                      ;
+
+
+
+
+/**
+ * Class representing a file descriptor delivering signals (signalfd).
+ * <p>
+ * The file descriptor becomes readable when one of the signals of its mask is pending, hence it can be added to an
+ * epoll instance with {@link EpollEvent.Flag#EPOLLIN EPOLLIN} and signals are handled on the thread waiting on that
+ * instance, without any extra thread or lock. Pending signals are read in batches into a reusable native buffer and
+ * then decoded without allocating :
+ * <pre>{@code
+ * // SIGUSR1 and SIGRTMIN, blocked by the process launching the JVM.
+ *
+ * SignalSet signals = new SignalSet().add( 10 )
+ *                                    .add( 34 ) ;
+ *
+ * SignalFd signalFd = new SignalFd( signals ) ;
+ *
+ * // When the signalfd is ready :
+ *
+ * int n = signalFd.read() ;
+ *
+ * for ( int i = 0 ; i < n ; i += 1 ) {
+ *
+ *     handle( signalFd.getSignal( i ) ) ;
+ * }
+ * }</pre>
+ * <p>
+ * Signals of the mask must be blocked in every thread, otherwise they are handled as usual instead of being delivered
+ * through the file descriptor : a signal sent to the process goes to any thread which does not block it. Blocking them
+ * from Java with {@link #block( SignalSet ) block} is not enough since it only affects the calling thread, whereas the
+ * JVM has already started its own threads by then. Those threads inherit the signal mask of the process launching the
+ * JVM, so signals must be blocked in that process before it executes <code>java</code>, for instance by a small
+ * wrapper calling <code>sigprocmask</code> then <code>exec</code>.
+ * <p>
+ * Even so, the JVM installs handlers for SIGTERM, SIGINT, SIGHUP and SIGQUIT and unblocks them in its threads, they
+ * only reach a signalfd when the JVM runs with <code>-Xrs</code> (which also disables shutdown hooks on those signals
+ * and thread dumps on SIGQUIT). Signals the JVM relies on internally (SIGSEGV, SIGBUS, SIGFPE, SIGILL, SIGPIPE,
+ * SIGUSR2, ...) must never be used. SIGUSR1 and real-time signals, which the JVM neither handles nor unblocks, are
+ * safe once blocked by the launching process.
+ *
+ * @see <a href="http://man7.org/linux/man-pages/man2/signalfd.2.html">Man pages</a>
+ */
+public class SignalFd implements AutoCloseable {
+
+
+    static {
+
+        Native.register( "c" ) ;
+    }
+
+
+
+
+    /**
+     * Default number of signals read at once.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 16 ;
+
+
+
+
+    // Flags for creating a signalfd.
+    //
+    private static final int SFD_NONBLOCK = 0x800   ;
+    private static final int SFD_CLOEXEC  = 0x80000 ;
+
+    // Operations on the signal mask of a thread.
+    //
+    private static final int SIG_BLOCK   = 0 ;
+    private static final int SIG_UNBLOCK = 1 ;
+
+    // Size and layout of the native struct signalfd_siginfo.
+    //
+    private static final int SIZE          = 128 ;
+    private static final int OFFSET_SIGNO  = 0   ;
+    private static final int OFFSET_ERRNO  = 4   ;
+    private static final int OFFSET_CODE   = 8   ;
+    private static final int OFFSET_PID    = 12  ;
+    private static final int OFFSET_UID    = 16  ;
+    private static final int OFFSET_STATUS = 40  ;
+
+
+
+
+    //
+    // Private native functions.
+    //
+
+    private static native int signalfd( int     fd    ,
+                                        Pointer mask  ,
+                                        int     flags ) ;
+
+
+    private static native int sigprocmask( int     how    ,
+                                           Pointer set    ,
+                                           Pointer oldset ) ;
+
+
+
+
+    // File descriptor.
+    //
+    private final int        fd        ;
+
+    // Native buffer receiving signals.
+    //
+    private final Memory     memory    ;
+
+    // View of the native buffer for decoding signals.
+    //
+    private final ByteBuffer buffer    ;
+
+    // How many signals can be read at once.
+    //
+    private final int        batchSize ;
+
+    // How many signals have been read by the last call.
+    //
+    private int              count     ;
+
+    // Closing a file descriptor twice is an error.
+    //
+    private boolean          isClosed  ;
+
+
+
+
+    /**
+     * Creates a signalfd reading at most {@link #DEFAULT_BATCH_SIZE} signals at once.
+     *
+     * @param   mask
+     *            Signals to accept.
+     *
+     * @throws  IOException
+     *            When the signalfd cannot be created.
+     */
+    public SignalFd( SignalSet mask ) throws IOException {
+
+        this( mask               ,
+              DEFAULT_BATCH_SIZE ) ;
+    }
+
+
+
+
+    /**
+     * Creates a signalfd.
+     *
+     * @param   mask
+     *            Signals to accept.
+     *
+     * @param   batchSize
+     *            How many signals at most are read at once.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>batchSize</strong> is less than 1.
+     *
+     * @throws  IOException
+     *            When the signalfd cannot be created.
+     */
+    public SignalFd( SignalSet mask      ,
+                     int       batchSize ) throws IOException {
+
+        if ( batchSize < 1 ) {
+
+            throw new IllegalArgumentException( "Batch size must be >= 1" ) ;
+        }
+
+        this.fd = signalfd( -1                         ,
+                            mask.ptr                   ,
+                            SFD_NONBLOCK | SFD_CLOEXEC ) ;
+
+        if ( this.fd < 0 ) {
+
+            throw new IOException( "Native error while creating signalfd : errno " + Linux.getErrno() ) ;
+        }
+
+        this.memory    = new Memory( batchSize * SIZE )                     ;
+        this.buffer    = this.memory.getByteBuffer( 0                  ,
+                                                    this.memory.size() )
+                                    .order( ByteOrder.nativeOrder() )       ;
+        this.batchSize = batchSize                                          ;
+    }
+
+
+
+
+    // Changes the signal mask of the calling thread.
+    //
+    private static void changeMask( int       how ,
+                                    SignalSet set ) {
+
+        if ( sigprocmask( how     ,
+                          set.ptr ,
+                          null    ) < 0 ) {
+
+            throw new IllegalArgumentException( "Cannot change signal mask : errno " + Linux.getErrno() ) ;
+        }
+    }
+
+
+
+
+    /**
+     * Blocks the given signals in the calling thread, threads created afterwards by this thread inherit that mask.
+     * <p>
+     * Threads already running, such as those of the JVM, are not affected. See the class description.
+     *
+     * @param   signals
+     *            Signals to block.
+     *
+     * @see     <a href="http://man7.org/linux/man-pages/man2/sigprocmask.2.html">Man pages</a>
+     */
+    public static void block( SignalSet signals ) {
+
+        changeMask( SIG_BLOCK ,
+                    signals   ) ;
+    }
+
+
+
+
+    /**
+     * Unblocks the given signals in the calling thread.
+     *
+     * @param   signals
+     *            Signals to unblock.
+     *
+     * @see     <a href="http://man7.org/linux/man-pages/man2/sigprocmask.2.html">Man pages</a>
+     */
+    public static void unblock( SignalSet signals ) {
+
+        changeMask( SIG_UNBLOCK ,
+                    signals     ) ;
+    }
+
+
+
+
+    /**
+     * Retrieves the file descriptor of this signalfd, which is meant to be added to an epoll instance.
+     *
+     * @return  The file descriptor.
+     *
+     * @throws  IllegalStateException
+     *            When this signalfd has been closed.
+     */
+    public int getFD() {
+
+        this.guardClosed() ;
+
+        return this.fd ;
+    }
+
+
+
+
+    // Throws an IllegalStateException when the signalfd is closed.
+    //
+    private void guardClosed() {
+
+        if ( this.isClosed ) {
+
+            throw new IllegalStateException( "Signalfd is closed" ) ;
+        }
+    }
+
+
+
+
+    /**
+     * Replaces the signals accepted by this signalfd.
+     *
+     * @param   mask
+     *            Signals to accept.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalStateException
+     *            When this signalfd has been closed.
+     *
+     * @throws  IOException
+     *            When the mask cannot be replaced.
+     */
+    public SignalFd setMask( SignalSet mask ) throws IOException {
+
+        this.guardClosed() ;
+
+        if ( signalfd( this.fd  ,
+                       mask.ptr ,
+                       0        ) < 0 ) {
+
+            throw new IOException( "Native error while modifying signalfd : errno " + Linux.getErrno() ) ;
+        }
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Reads as many pending signals as possible, up to the batch size, without blocking nor allocating.
+     * <p>
+     * Signals read by a previous call are overwritten.
+     *
+     * @return  How many signals have been read, 0 if none is pending.
+     *
+     * @throws  IllegalStateException
+     *            When this signalfd has been closed.
+     *
+     * @throws  IOException
+     *            When reading fails.
+     */
+    public int read() throws IOException {
+
+        this.guardClosed() ;
+
+        int result = NativeIO.read( this.fd               ,
+                                    this.memory           ,
+                                    this.batchSize * SIZE ) ;
+
+        if ( result < 0 ) {
+
+            int errno = Linux.getErrno() ;
+
+            if ( errno != Errno.EAGAIN ) {
+
+                throw new IOException( "Native error while reading signalfd : errno " + errno ) ;
+            }
+
+            result = 0 ;
+        }
+
+        this.count = result / SIZE ;
+
+        return this.count ;
+    }
+
+
+
+
+    // Computes the offset of a field of the signal located at `index`.
+    //
+    private int offset( int index  ,
+                        int offset ) {
+
+        if ( index < 0 || index >= this.count ) {
+
+            throw new IndexOutOfBoundsException( "Index of signal out of bounds : " + index ) ;
+        }
+
+        return index * SIZE + offset ;
+    }
+
+
+
+
+    /**
+     * Retrieves the number of the signal located at `<strong>index</strong>`.
+     *
+     * @param   index
+     *            Position of the signal, less than what the last read returned.
+     *
+     * @return  Signal number.
+     *
+     * @throws  IndexOutOfBoundsException
+     *            When the index is out of bounds.
+     */
+    public int getSignal( int index ) {
+
+        return this.buffer.getInt( this.offset( index        ,
+                                                OFFSET_SIGNO ) ) ;
+    }
+
+
+
+
+    /**
+     * Retrieves the error number associated with the signal located at `<strong>index</strong>`, generally unused.
+     *
+     * @param   index
+     *            Position of the signal, less than what the last read returned.
+     *
+     * @return  Error number.
+     *
+     * @throws  IndexOutOfBoundsException
+     *            When the index is out of bounds.
+     */
+    public int getErrno( int index ) {
+
+        return this.buffer.getInt( this.offset( index        ,
+                                                OFFSET_ERRNO ) ) ;
+    }
+
+
+
+
+    /**
+     * Retrieves the code of the signal located at `<strong>index</strong>`, describing its origin.
+     *
+     * @param   index
+     *            Position of the signal, less than what the last read returned.
+     *
+     * @return  Signal code (eg. <code>SI_USER</code> or <code>CLD_EXITED</code>).
+     *
+     * @throws  IndexOutOfBoundsException
+     *            When the index is out of bounds.
+     */
+    public int getCode( int index ) {
+
+        return this.buffer.getInt( this.offset( index       ,
+                                                OFFSET_CODE ) ) ;
+    }
+
+
+
+
+    /**
+     * Retrieves the PID of the process which sent the signal located at `<strong>index</strong>`.
+     * <p>
+     * For SIGCHLD, this is the child which changed state.
+     *
+     * @param   index
+     *            Position of the signal, less than what the last read returned.
+     *
+     * @return  Process ID.
+     *
+     * @throws  IndexOutOfBoundsException
+     *            When the index is out of bounds.
+     */
+    public int getPid( int index ) {
+
+        return this.buffer.getInt( this.offset( index      ,
+                                                OFFSET_PID ) ) ;
+    }
+
+
+
+
+    /**
+     * Retrieves the real user ID of the process which sent the signal located at `<strong>index</strong>`.
+     *
+     * @param   index
+     *            Position of the signal, less than what the last read returned.
+     *
+     * @return  User ID.
+     *
+     * @throws  IndexOutOfBoundsException
+     *            When the index is out of bounds.
+     */
+    public int getUid( int index ) {
+
+        return this.buffer.getInt( this.offset( index      ,
+                                                OFFSET_UID ) ) ;
+    }
+
+
+
+
+    /**
+     * Retrieves the exit status or the signal of the child for the SIGCHLD located at `<strong>index</strong>`.
+     *
+     * @param   index
+     *            Position of the signal, less than what the last read returned.
+     *
+     * @return  Exit status or signal number, depending on the code.
+     *
+     * @throws  IndexOutOfBoundsException
+     *            When the index is out of bounds.
+     */
+    public int getStatus( int index ) {
+
+        return this.buffer.getInt( this.offset( index         ,
+                                                OFFSET_STATUS ) ) ;
+    }
+
+
+
+
+    /**
+     * Closes this signalfd.
+     * <p>
+     * It should be removed from any epoll instance beforehand.
+     *
+     * @throws  IOException
+     *            When an unplanned error occured on the native side.
+     */
+    public void close() throws IOException {
+
+        if ( this.isClosed == false ) {
+
+            if ( LinuxIO.close( this.fd ) != 0 ) {
+
+                throw new IOException( "Native error while closing signalfd : errno " + Linux.getErrno() ) ;
+            }
+
+            this.isClosed = true ;
+        }
+    }
+}
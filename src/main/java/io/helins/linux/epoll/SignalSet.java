@@ -0,0 +1,204 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import com.sun.jna.Memory  ;
+import com.sun.jna.Native  ;
+import com.sun.jna.Pointer ;
+
+
+
+
+/**
+ * Class representing a set of signals (native <code>sigset_t</code>).
+ * <p>
+ * Used for atomically replacing the signal mask of the calling thread during a wait, as described in
+ * <strong>{@link Epoll#waitNanos( EpollEvents, long, SignalSet ) Epoll#waitNanos}</strong>.
+ * Also used for choosing which signals are delivered through a {@link SignalFd}.
+ *
+ * @see <a href="http://man7.org/linux/man-pages/man3/sigsetops.3.html">Man pages</a>
+ */
+public class SignalSet {
+
+
+    static {
+
+        Native.register( "c" ) ;
+    }
+
+
+
+
+    // Size of the native structure as defined by glibc.
+    //
+    private static final int SIZE = 128 ;
+
+
+
+
+    //
+    // Private native functions.
+    //
+
+    private static native int sigemptyset( Pointer set ) ;
+
+
+    private static native int sigfillset( Pointer set ) ;
+
+
+    private static native int sigaddset( Pointer set    ,
+                                         int     signum ) ;
+
+
+    private static native int sigdelset( Pointer set    ,
+                                         int     signum ) ;
+
+
+    private static native int sigismember( Pointer set    ,
+                                           int     signum ) ;
+
+
+
+
+    // Internal pointer to the native set.
+    //
+    final Pointer ptr ;
+
+
+
+
+    /**
+     * Allocates a new empty set.
+     */
+    public SignalSet() {
+
+        Memory memory = new Memory( SIZE ) ;
+
+        memory.clear() ;
+
+        this.ptr = memory ;
+
+        sigemptyset( this.ptr ) ;
+    }
+
+
+
+
+    // Throws an IllegalArgumentException if the signal number is invalid.
+    //
+    private static void checkResult( int result ,
+                                     int signal ) {
+
+        if ( result < 0 ) {
+
+            throw new IllegalArgumentException( "Invalid signal number : " + signal ) ;
+        }
+    }
+
+
+
+
+    /**
+     * Adds a signal to this set.
+     *
+     * @param   signal
+     *            Signal number (eg. 10 for SIGUSR1).
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalArgumentException
+     *            When the signal number is invalid.
+     */
+    public SignalSet add( int signal ) {
+
+        checkResult( sigaddset( this.ptr ,
+                                signal   ) ,
+                     signal                ) ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Removes a signal from this set.
+     *
+     * @param   signal
+     *            Signal number.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalArgumentException
+     *            When the signal number is invalid.
+     */
+    public SignalSet remove( int signal ) {
+
+        checkResult( sigdelset( this.ptr ,
+                                signal   ) ,
+                     signal                ) ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Is the given signal part of this set ?
+     *
+     * @param   signal
+     *            Signal number.
+     *
+     * @return  True if it is.
+     *
+     * @throws  IllegalArgumentException
+     *            When the signal number is invalid.
+     */
+    public boolean contains( int signal ) {
+
+        int result = sigismember( this.ptr ,
+                                  signal   ) ;
+
+        checkResult( result ,
+                     signal ) ;
+
+        return result == 1 ;
+    }
+
+
+
+
+    /**
+     * Removes all signals from this set.
+     *
+     * @return  This instance.
+     */
+    public SignalSet clear() {
+
+        sigemptyset( this.ptr ) ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Adds all signals to this set.
+     *
+     * @return  This instance.
+     */
+    public SignalSet fill() {
+
+        sigfillset( this.ptr ) ;
+
+        return this ;
+    }
+}
@@ -0,0 +1,403 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import io.helins.linux.epoll.Epoll       ;
+import io.helins.linux.epoll.EpollEvent  ;
+import io.helins.linux.epoll.EpollEvents ;
+import java.io.IOException               ;
+
+
+
+
+/**
+ * Class representing a poller serving file descriptors by priority tiers, built on nested epoll instances.
+ * <p>
+ * Each tier has its own child epoll instance and all children are monitored by a parent instance. Waiting blocks
+ * on the parent and then drains the ready tiers in order of priority, tier 0 first, each tier yielding at most as
+ * many events as its weight. For instance, control-plane file descriptors (health checks, admin sockets, ...) in
+ * tier 0 are served first at every wake up, whatever happens in a flooded data tier, while the data tier still gets
+ * its share.
+ * <p>
+ * The children are level-triggered in the parent, hence a tier which still has events after being drained keeps
+ * the parent ready and is served again at the next wait.
+ * <p>
+ * This class is not thread-safe, it is meant to be driven by a single thread.
+ */
+public class TieredEpoll implements AutoCloseable {
+
+
+    /**
+     * Interface for handling an event of a tier.
+     */
+    @FunctionalInterface
+    public static interface Handler {
+
+
+        /**
+         * Handles an event.
+         *
+         * @param   tier
+         *            Tier of the file descriptor.
+         *
+         * @param   userData
+         *            User data registered with the file descriptor.
+         *
+         * @param   flags
+         *            Raw flags describing what happened, tested with
+         *            <strong>{@link EpollEvent.Flags#isSet( int, EpollEvent.Flag ) Flags#isSet}</strong>.
+         *
+         * @throws  IOException
+         *            When something goes wrong, propagated to the caller of the wait.
+         */
+        public void handle( int  tier     ,
+                            long userData ,
+                            int  flags    ) throws IOException ;
+    }
+
+
+
+
+    // Parent epoll instance monitoring the children.
+    //
+    private final Epoll         parent       ;
+
+    // Buffer for waiting on the parent.
+    //
+    private final EpollEvents   parentEvents ;
+
+    // Child epoll instance of each tier.
+    //
+    private final Epoll[]       children     ;
+
+    // Buffer of each tier, sized by weight.
+    //
+    private final EpollEvents[] events       ;
+
+    // Tiers reported ready by the parent.
+    //
+    private final boolean[]     isReady      ;
+
+
+
+
+    /**
+     * Creates a poller with one tier per weight, the first one having the highest priority.
+     *
+     * @param   weights
+     *            How many events at most each tier yields per wait.
+     *
+     * @throws  IllegalArgumentException
+     *            When there is no weight or when a weight is less than 1.
+     *
+     * @throws  IOException
+     *            When an epoll instance cannot be created.
+     */
+    public TieredEpoll( int... weights ) throws IOException {
+
+        if ( weights.length == 0 ) {
+
+            throw new IllegalArgumentException( "At least one tier is needed" ) ;
+        }
+
+        this.children     = new Epoll[ weights.length ]       ;
+        this.events       = new EpollEvents[ weights.length ] ;
+        this.isReady      = new boolean[ weights.length ]     ;
+        this.parentEvents = new EpollEvents( weights.length ) ;
+
+        for ( int i = 0          ;
+              i < weights.length ;
+              i += 1             ) {
+
+            this.events[ i ] = new EpollEvents( weights[ i ] ) ;
+        }
+
+        this.parent = new Epoll() ;
+
+        try {
+
+            EpollEvent event = new EpollEvent().setFlags( new EpollEvent.Flags().set( EpollEvent.Flag.EPOLLIN ) ) ;
+
+            for ( int i = 0          ;
+                  i < weights.length ;
+                  i += 1             ) {
+
+                this.children[ i ] = new Epoll() ;
+
+                this.parent.add( this.children[ i ].getEpollFD() ,
+                                 event.setUserData( i )          ) ;
+            }
+        }
+        catch ( IOException | RuntimeException e ) {
+
+            try {
+
+                this.closeAll() ;
+            }
+            catch ( IOException closingFailure ) {
+
+                e.addSuppressed( closingFailure ) ;
+            }
+
+            throw e ;
+        }
+    }
+
+
+
+
+    /**
+     * Retrieves how many tiers this poller has.
+     *
+     * @return  The number of tiers.
+     */
+    public int getTierCount() {
+
+        return this.children.length ;
+    }
+
+
+
+
+    /**
+     * Retrieves the child epoll instance of a tier, for registering file descriptors directly.
+     *
+     * @param   tier
+     *            Tier, 0 having the highest priority.
+     *
+     * @return  The child epoll instance.
+     */
+    public Epoll getTier( int tier ) {
+
+        return this.children[ tier ] ;
+    }
+
+
+
+
+    /**
+     * Adds a file descriptor to a tier.
+     *
+     * @param   tier
+     *            Tier, 0 having the highest priority.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   event
+     *            Flags and user data.
+     *
+     * @return  This instance.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be added.
+     *
+     * @see     Epoll#add( int, EpollEvent )
+     */
+    public TieredEpoll add( int        tier  ,
+                            int        fd    ,
+                            EpollEvent event ) throws IOException {
+
+        this.children[ tier ].add( fd    ,
+                                   event ) ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Modifies a file descriptor of a tier.
+     *
+     * @param   tier
+     *            Tier the file descriptor has been added to.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   event
+     *            Flags and user data.
+     *
+     * @return  This instance.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be modified.
+     *
+     * @see     Epoll#modify( int, EpollEvent )
+     */
+    public TieredEpoll modify( int        tier  ,
+                               int        fd    ,
+                               EpollEvent event ) throws IOException {
+
+        this.children[ tier ].modify( fd    ,
+                                      event ) ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Removes a file descriptor from a tier.
+     *
+     * @param   tier
+     *            Tier the file descriptor has been added to.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @return  This instance.
+     *
+     * @throws  IOException
+     *            When the file descriptor cannot be removed.
+     *
+     * @see     Epoll#remove( int )
+     */
+    public TieredEpoll remove( int tier ,
+                               int fd   ) throws IOException {
+
+        this.children[ tier ].remove( fd ) ;
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Waits until at least one tier is ready, then drains ready tiers by priority and weight.
+     *
+     * @param   timeout
+     *            How many milliseconds at most should we wait. A timeout of -1 will block
+     *            forever until something happens.
+     *
+     * @param   handler
+     *            Handler called for each event.
+     *
+     * @return  How many events have been handled.
+     *
+     * @throws  IllegalStateException
+     *            When this poller has been closed.
+     *
+     * @throws  IOException
+     *            When waiting fails or the handler throws.
+     */
+    public int wait( int     timeout ,
+                     Handler handler ) throws IOException {
+
+        int n = this.parent.wait( this.parentEvents ,
+                                  timeout           ) ;
+
+        if ( n == 0 ) {
+
+            return 0 ;
+        }
+
+        for ( int i = 0 ;
+              i < n     ;
+              i += 1    ) {
+
+            this.isReady[ (int)this.parentEvents.getUserData( i ) ] = true ;
+        }
+
+        int handled = 0 ;
+
+        for ( int tier = 0                ;
+              tier < this.children.length ;
+              tier += 1                   ) {
+
+            if ( this.isReady[ tier ] == false ) {
+
+                continue ;
+            }
+
+            this.isReady[ tier ] = false ;
+
+            EpollEvents events = this.events[ tier ]                  ;
+            int         m      = this.children[ tier ].wait( events ,
+                                                             0      ) ;
+
+            EpollEvents.Cursor cursor = events.cursor( m ) ;
+
+            while ( cursor.next() ) {
+
+                handler.handle( tier                 ,
+                                cursor.getUserData() ,
+                                cursor.getRawFlags() ) ;
+
+                handled += 1 ;
+            }
+        }
+
+        return handled ;
+    }
+
+
+
+
+    // Closes all epoll instances, keeping the first failure.
+    //
+    private void closeAll() throws IOException {
+
+        IOException failure = null ;
+
+        for ( Epoll child : this.children ) {
+
+            if ( child != null ) {
+
+                try {
+
+                    child.close() ;
+                }
+                catch ( IOException e ) {
+
+                    if ( failure == null ) {
+
+                        failure = e ;
+                    }
+                }
+            }
+        }
+
+        try {
+
+            this.parent.close() ;
+        }
+        catch ( IOException e ) {
+
+            if ( failure == null ) {
+
+                failure = e ;
+            }
+        }
+
+        if ( failure != null ) {
+
+            throw failure ;
+        }
+    }
+
+
+
+
+    /**
+     * Closes the parent and all child epoll instances.
+     * <p>
+     * Registered file descriptors are not closed since they belong to the user.
+     *
+     * @throws  IOException
+     *            When an epoll instance cannot be closed.
+     */
+    public void close() throws IOException {
+
+        this.closeAll() ;
+    }
+}
@@ -0,0 +1,411 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import com.sun.jna.Memory                      ;
+import com.sun.jna.Native                      ;
+import com.sun.jna.Pointer                     ;
+import io.helins.linux.Linux                   ;
+import io.helins.linux.epoll.internal.NativeIO ;
+import io.helins.linux.errno.Errno             ;
+import io.helins.linux.io.LinuxIO              ;
+import java.io.IOException                     ;
+import java.util.concurrent.TimeUnit           ;
+
+
+
+
+/**
+ * Class representing a timer delivering its expirations through a file descriptor (timerfd).
+ * <p>
+ * The timer relies on the monotonic clock and is non-blocking. Its file descriptor becomes readable when the timer
+ * expires, hence it can be added to an epoll instance with {@link EpollEvent.Flag#EPOLLIN EPOLLIN} like any other
+ * file descriptor, multiplexing as many independent high-resolution timers as needed :
+ * <pre>{@code
+ * TimerFd timer = new TimerFd().setInterval( 100                   ,
+ *                                            TimeUnit.MILLISECONDS ) ;
+ *
+ * epoll.add( timer.getFD()                                                           ,
+ *            new EpollEvent().setFlags( new EpollEvent.Flags().set( EpollEvent.Flag.EPOLLIN ) )
+ *                            .setUserData( timer.getFD() )                           ) ;
+ *
+ * // When the timer is ready :
+ *
+ * long expirations = timer.read() ;
+ * }</pre>
+ * <p>
+ * Arming and reading do not allocate anything.
+ *
+ * @see <a href="http://man7.org/linux/man-pages/man2/timerfd_create.2.html">Man pages</a>
+ */
+public class TimerFd implements AutoCloseable {
+
+
+    static {
+
+        Native.register( "c" ) ;
+    }
+
+
+
+
+    // Monotonic clock, same as the one used by System.nanoTime() on Linux.
+    //
+    private static final int CLOCK_MONOTONIC = 1 ;
+
+    // Flags for creating a timerfd.
+    //
+    private static final int TFD_NONBLOCK = 0x800   ;
+    private static final int TFD_CLOEXEC  = 0x80000 ;
+
+    // Flag for arming a timerfd with an absolute deadline.
+    //
+    private static final int TFD_TIMER_ABSTIME = 1 ;
+
+
+
+
+    //
+    // Private native functions.
+    //
+
+    private static native int timerfd_create( int clockid ,
+                                              int flags   ) ;
+
+
+    private static native int timerfd_settime( int     fd        ,
+                                               int     flags     ,
+                                               Pointer new_value ,
+                                               Pointer old_value ) ;
+
+
+
+
+    // File descriptor.
+    //
+    private final int fd ;
+
+    // Native struct itimerspec, the interval followed by the initial expiration.
+    //
+    private final Memory itimerspec ;
+
+    // Buffer for reading the number of expirations.
+    //
+    private final Memory readBuffer ;
+
+    // Closing a file descriptor twice is an error.
+    //
+    private boolean isClosed ;
+
+
+
+
+    /**
+     * Creates a disarmed timer.
+     *
+     * @throws  IOException
+     *            When the timer cannot be created.
+     */
+    public TimerFd() throws IOException {
+
+        this.fd = timerfd_create( CLOCK_MONOTONIC            ,
+                                  TFD_NONBLOCK | TFD_CLOEXEC ) ;
+
+        if ( this.fd < 0 ) {
+
+            throw new IOException( "Native error while creating timerfd : errno " + Linux.getErrno() ) ;
+        }
+
+        this.itimerspec = new Memory( 4 * Native.LONG_SIZE ) ;
+        this.readBuffer = new Memory( 8 )                    ;
+    }
+
+
+
+
+    /**
+     * Retrieves the file descriptor of this timer, which is meant to be added to an epoll instance.
+     *
+     * @return  The file descriptor.
+     *
+     * @throws  IllegalStateException
+     *            When this timer has been closed.
+     */
+    public int getFD() {
+
+        this.guardClosed() ;
+
+        return this.fd ;
+    }
+
+
+
+
+    // Throws an IllegalStateException when the timer is closed.
+    //
+    private void guardClosed() {
+
+        if ( this.isClosed ) {
+
+            throw new IllegalStateException( "Timerfd is closed" ) ;
+        }
+    }
+
+
+
+
+    // Writes a timespec at the given offset of the itimerspec.
+    //
+    private void setTimespec( int  offset ,
+                              long nanos  ) {
+
+        long seconds     = nanos / 1_000_000_000L ;
+        long nanoseconds = nanos % 1_000_000_000L ;
+
+        if ( Native.LONG_SIZE == 8 ) {
+
+            this.itimerspec.setLong( offset      ,
+                                     seconds     ) ;
+            this.itimerspec.setLong( offset + 8  ,
+                                     nanoseconds ) ;
+        }
+        else {
+
+            this.itimerspec.setInt( offset                                    ,
+                                    (int)Math.min( seconds           ,
+                                                   Integer.MAX_VALUE )        ) ;
+            this.itimerspec.setInt( offset + 4                                ,
+                                    (int)nanoseconds                          ) ;
+        }
+    }
+
+
+
+
+    // Arms or disarms the timer.
+    //
+    private TimerFd setTime( long initial  ,
+                             long interval ,
+                             int  flags    ) throws IOException {
+
+        this.guardClosed() ;
+
+        if ( initial < 0 || interval < 0 ) {
+
+            throw new IllegalArgumentException( "Timer values must be >= 0" ) ;
+        }
+
+        this.setTimespec( 0                    ,
+                          interval             ) ;
+        this.setTimespec( 2 * Native.LONG_SIZE ,
+                          initial              ) ;
+
+        if ( timerfd_settime( this.fd         ,
+                              flags           ,
+                              this.itimerspec ,
+                              null            ) < 0 ) {
+
+            throw new IOException( "Native error while arming timerfd : errno " + Linux.getErrno() ) ;
+        }
+
+        return this ;
+    }
+
+
+
+
+    /**
+     * Arms this timer relatively to now.
+     *
+     * @param   delay
+     *            Delay before the first expiration, 0 disarms the timer.
+     *
+     * @param   interval
+     *            Period of the following expirations, 0 for expiring only once.
+     *
+     * @param   unit
+     *            Unit of <strong>delay</strong> and <strong>interval</strong>.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalArgumentException
+     *            When a value is negative.
+     *
+     * @throws  IllegalStateException
+     *            When this timer has been closed.
+     *
+     * @throws  IOException
+     *            When the timer cannot be armed.
+     */
+    public TimerFd set( long     delay    ,
+                        long     interval ,
+                        TimeUnit unit     ) throws IOException {
+
+        return this.setTime( unit.toNanos( delay )    ,
+                             unit.toNanos( interval ) ,
+                             0                        ) ;
+    }
+
+
+
+
+    /**
+     * Arms this timer so that it expires periodically, starting one period from now.
+     *
+     * @param   interval
+     *            Period of expirations.
+     *
+     * @param   unit
+     *            Unit of <strong>interval</strong>.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>interval</strong> is not positive.
+     *
+     * @throws  IllegalStateException
+     *            When this timer has been closed.
+     *
+     * @throws  IOException
+     *            When the timer cannot be armed.
+     */
+    public TimerFd setInterval( long     interval ,
+                                TimeUnit unit     ) throws IOException {
+
+        if ( interval <= 0 ) {
+
+            throw new IllegalArgumentException( "Interval must be > 0" ) ;
+        }
+
+        return this.set( interval ,
+                         interval ,
+                         unit     ) ;
+    }
+
+
+
+
+    /**
+     * Arms this timer with an absolute deadline on the monotonic clock.
+     * <p>
+     * On Linux, {@link System#nanoTime()} relies on the same clock, hence a deadline is typically computed as
+     * <code>System.nanoTime() + delay</code>. Periodic work scheduled that way does not drift.
+     *
+     * @param   deadline
+     *            Point in time of the first expiration in nanoseconds, as returned by {@link System#nanoTime()}.
+     *
+     * @param   interval
+     *            Period in nanoseconds of the following expirations, 0 for expiring only once.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalArgumentException
+     *            When a value is not positive, except for the interval which can be 0.
+     *
+     * @throws  IllegalStateException
+     *            When this timer has been closed.
+     *
+     * @throws  IOException
+     *            When the timer cannot be armed.
+     */
+    public TimerFd setAbsolute( long deadline ,
+                                long interval ) throws IOException {
+
+        if ( deadline <= 0 ) {
+
+            throw new IllegalArgumentException( "Deadline must be > 0" ) ;
+        }
+
+        return this.setTime( deadline          ,
+                             interval          ,
+                             TFD_TIMER_ABSTIME ) ;
+    }
+
+
+
+
+    /**
+     * Disarms this timer.
+     *
+     * @return  This instance.
+     *
+     * @throws  IllegalStateException
+     *            When this timer has been closed.
+     *
+     * @throws  IOException
+     *            When the timer cannot be disarmed.
+     */
+    public TimerFd disarm() throws IOException {
+
+        return this.setTime( 0 ,
+                             0 ,
+                             0 ) ;
+    }
+
+
+
+
+    /**
+     * Reads how many times this timer expired since it was armed or last read, which makes it not readable anymore.
+     * <p>
+     * Does not block nor allocate.
+     *
+     * @return  The number of expirations, 0 if the timer has not expired.
+     *
+     * @throws  IllegalStateException
+     *            When this timer has been closed.
+     *
+     * @throws  IOException
+     *            When reading fails.
+     */
+    public long read() throws IOException {
+
+        this.guardClosed() ;
+
+        if ( NativeIO.read( this.fd         ,
+                            this.readBuffer ,
+                            8               ) < 0 ) {
+
+            int errno = Linux.getErrno() ;
+
+            if ( errno == Errno.EAGAIN ) {
+
+                return 0 ;
+            }
+
+            throw new IOException( "Native error while reading timerfd : errno " + errno ) ;
+        }
+
+        return this.readBuffer.getLong( 0 ) ;
+    }
+
+
+
+
+    /**
+     * Closes this timer.
+     * <p>
+     * It should be removed from any epoll instance beforehand.
+     *
+     * @throws  IOException
+     *            When an unplanned error occured on the native side.
+     */
+    public void close() throws IOException {
+
+        if ( this.isClosed == false ) {
+
+            if ( LinuxIO.close( this.fd ) != 0 ) {
+
+                throw new IOException( "Native error while closing timerfd : errno " + Linux.getErrno() ) ;
+            }
+
+            this.isClosed = true ;
+        }
+    }
+}
@@ -0,0 +1,533 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import java.util.concurrent.TimeUnit ;
+
+
+
+
+/**
+ * Class representing a hashed timing wheel, meant to be driven by a thread waiting on an epoll instance.
+ * <p>
+ * Time is divided in ticks and each tick maps to a bucket of the wheel. A timer is linked directly into the bucket of
+ * its deadline, hence scheduling and cancelling are O(1). Timers further away than one revolution of the wheel simply
+ * stay in their bucket until their deadline is reached. A bitmap of non-empty buckets makes finding the next due
+ * bucket cheap, which gives the timeout of the next wait :
+ * <pre>{@code
+ * int n = epoll.wait( events                                    ,
+ *                     wheel.nextTimeout( System.nanoTime() ) ) ;
+ *
+ * // Dispatches the n events, then :
+ *
+ * wheel.expire( System.nanoTime() ) ;
+ * }</pre>
+ * <p>
+ * Timers are intrusive nodes which can be reused, hence scheduling a timer again does not allocate anything and
+ * neither does expiring. An {@link EpollEventLoop} holds its own wheel and takes care of all of this.
+ * <p>
+ * This class is not thread-safe, it is meant to be used by the thread waiting on the epoll instance.
+ *
+ * @see EpollEventLoop#getTimers()
+ */
+public class TimingWheel {
+
+
+    /**
+     * Default number of buckets.
+     */
+    public static final int  DEFAULT_SIZE       = 512       ;
+
+    /**
+     * Default duration of a tick in nanoseconds, 1 millisecond being the resolution of a regular epoll wait.
+     */
+    public static final long DEFAULT_TICK_NANOS = 1_000_000 ;
+
+
+
+
+    // Heads of the lists of timers, one per bucket, the last one being the list of expired timers to run.
+    //
+    private final Timer[] heads     ;
+
+    // One bit per bucket, set when the bucket is not empty.
+    //
+    private final long[]  bitmap    ;
+
+    // Mask for computing the bucket of a tick.
+    //
+    private final int     mask      ;
+
+    // Duration of a tick.
+    //
+    private final long    tickNanos ;
+
+    // Point in time from which ticks are counted.
+    //
+    private final long    origin    ;
+
+    // Last tick that has been processed.
+    //
+    private long          tick      ;
+
+    // How many timers are scheduled, expired ones not run yet included.
+    //
+    private int           size      ;
+
+
+
+
+    /**
+     * Creates a wheel of {@link #DEFAULT_SIZE} buckets ticking every {@link #DEFAULT_TICK_NANOS} nanoseconds.
+     */
+    public TimingWheel() {
+
+        this( DEFAULT_SIZE         ,
+              DEFAULT_TICK_NANOS   ,
+              TimeUnit.NANOSECONDS ) ;
+    }
+
+
+
+
+    /**
+     * Creates a wheel.
+     * <p>
+     * The span of one revolution, <strong>size</strong> times <strong>tick</strong>, should cover most timeouts.
+     *
+     * @param   size
+     *            How many buckets, a power of 2 greater than or equal to 64.
+     *
+     * @param   tick
+     *            Duration of a tick, timers are rounded up to that resolution.
+     *
+     * @param   unit
+     *            Unit of <strong>tick</strong>.
+     *
+     * @throws  IllegalArgumentException
+     *            When <strong>size</strong> is not a power of 2 or less than 64, or when <strong>tick</strong>
+     *            is not positive.
+     */
+    public TimingWheel( int      size ,
+                        long     tick ,
+                        TimeUnit unit ) {
+
+        if ( size < 64 || Integer.bitCount( size ) != 1 ) {
+
+            throw new IllegalArgumentException( "Size of the timing wheel must be a power of 2 >= 64" ) ;
+        }
+
+        long tickNanos = unit.toNanos( tick ) ;
+
+        if ( tickNanos <= 0 ) {
+
+            throw new IllegalArgumentException( "Tick of the timing wheel must be positive" ) ;
+        }
+
+        this.heads     = new Timer[ size + 1 ]  ;
+        this.bitmap    = new long[ size >>> 6 ] ;
+        this.mask      = size - 1               ;
+        this.tickNanos = tickNanos              ;
+        this.origin    = System.nanoTime()      ;
+    }
+
+
+
+
+    /**
+     * Retrieves how many timers are scheduled.
+     *
+     * @return  The number of timers which have not been run or cancelled yet.
+     */
+    public int size() {
+
+        return this.size ;
+    }
+
+
+
+
+    /**
+     * Schedules a task to be run after the given delay.
+     *
+     * @param   task
+     *            Task to run.
+     *
+     * @param   delay
+     *            Delay before running the task, rounded up to the next tick.
+     *
+     * @param   unit
+     *            Unit of <strong>delay</strong>.
+     *
+     * @return  The new timer, which can be cancelled or reused.
+     */
+    public Timer schedule( Runnable task  ,
+                           long     delay ,
+                           TimeUnit unit  ) {
+
+        Timer timer = new Timer( task ) ;
+
+        this.schedule( timer ,
+                       delay ,
+                       unit  ) ;
+
+        return timer ;
+    }
+
+
+
+
+    /**
+     * Schedules a timer to be run after the given delay, without allocating.
+     * <p>
+     * If the timer is already scheduled, in this wheel or another one, it is rescheduled.
+     *
+     * @param   timer
+     *            Timer to schedule.
+     *
+     * @param   delay
+     *            Delay before running the timer, rounded up to the next tick.
+     *
+     * @param   unit
+     *            Unit of <strong>delay</strong>.
+     *
+     * @return  This instance.
+     */
+    public TimingWheel schedule( Timer    timer ,
+                                 long     delay ,
+                                 TimeUnit unit  ) {
+
+        timer.cancel() ;
+
+        long elapsed  = System.nanoTime() - this.origin + Math.max( unit.toNanos( delay ) ,
+                                                                    0                     ) ;
+        long deadline = Math.max( ( elapsed + this.tickNanos - 1 ) / this.tickNanos ,
+                                  this.tick + 1                                     ) ;
+
+        timer.deadline = deadline ;
+
+        this.link( timer                       ,
+                   (int)( deadline & this.mask ) ) ;
+
+        this.size += 1 ;
+
+        return this ;
+    }
+
+
+
+
+    // Links a timer at the head of the given bucket.
+    //
+    private void link( Timer timer  ,
+                       int   bucket ) {
+
+        Timer head = this.heads[ bucket ] ;
+
+        timer.wheel  = this   ;
+        timer.bucket = bucket ;
+        timer.prev   = null   ;
+        timer.next   = head   ;
+
+        if ( head != null ) {
+
+            head.prev = timer ;
+        }
+
+        this.heads[ bucket ] = timer ;
+
+        if ( bucket <= this.mask ) {
+
+            this.bitmap[ bucket >>> 6 ] |= 1L << bucket ;
+        }
+    }
+
+
+
+
+    // Unlinks a timer from its bucket.
+    //
+    private void unlink( Timer timer ) {
+
+        int bucket = timer.bucket ;
+
+        if ( timer.prev == null ) {
+
+            this.heads[ bucket ] = timer.next ;
+        }
+        else {
+
+            timer.prev.next = timer.next ;
+        }
+
+        if ( timer.next != null ) {
+
+            timer.next.prev = timer.prev ;
+        }
+
+        if ( bucket <= this.mask && this.heads[ bucket ] == null ) {
+
+            this.bitmap[ bucket >>> 6 ] &= ~( 1L << bucket ) ;
+        }
+
+        timer.wheel = null ;
+        timer.prev  = null ;
+        timer.next  = null ;
+    }
+
+
+
+
+    // Cancels a timer belonging to this wheel.
+    //
+    void cancel( Timer timer ) {
+
+        this.unlink( timer ) ;
+
+        this.size -= 1 ;
+    }
+
+
+
+
+    // Finds the first non-empty bucket starting from the given one, wrapping around, or returns -1 if there is none.
+    //
+    private int nextBucket( int from ) {
+
+        long[] bitmap = this.bitmap                      ;
+        int    word   = from >>> 6                       ;
+        long   bits   = bitmap[ word ] & ( -1L << from ) ;
+
+        for ( int i = 0          ;
+              i <= bitmap.length ;
+              i += 1             ) {
+
+            if ( bits != 0 ) {
+
+                return ( word << 6 ) + Long.numberOfTrailingZeros( bits ) ;
+            }
+
+            word = ( word + 1 ) & ( bitmap.length - 1 ) ;
+            bits = bitmap[ word ]                        ;
+        }
+
+        return -1 ;
+    }
+
+
+
+
+    /**
+     * Computes the timeout of the next wait, which is when the next non-empty bucket is due.
+     * <p>
+     * Waking up for a bucket holding only timers due in a later revolution is harmless, expiring then simply finds
+     * nothing to run.
+     *
+     * @param   now
+     *            Current time as returned by {@link System#nanoTime()}.
+     *
+     * @return  Timeout in milliseconds, 0 if timers are due, -1 if no timer is scheduled.
+     */
+    public int nextTimeout( long now ) {
+
+        if ( this.size == 0 ) {
+
+            return -1 ;
+        }
+
+        if ( this.heads[ this.mask + 1 ] != null ) {
+
+            return 0 ;
+        }
+
+        int  from    = (int)( ( this.tick + 1 ) & this.mask )            ;
+        int  bucket  = this.nextBucket( from )                           ;
+        long due     = this.tick + 1 + ( ( bucket - from ) & this.mask ) ;
+        long remains = this.origin + due * this.tickNanos - now          ;
+
+        if ( remains <= 0 ) {
+
+            return 0 ;
+        }
+
+        return (int)Math.min( ( remains + 999_999 ) / 1_000_000 ,
+                              Integer.MAX_VALUE                 ) ;
+    }
+
+
+
+
+    /**
+     * Runs all timers whose deadline has been reached.
+     * <p>
+     * Timers expiring in the same call are run in no particular order. A timer can be scheduled again from its own
+     * task. If a task throws, the exception is propagated and the remaining expired timers are run by the next call.
+     *
+     * @param   now
+     *            Current time as returned by {@link System#nanoTime()}.
+     *
+     * @return  How many timers have been run.
+     */
+    public int expire( long now ) {
+
+        if ( this.size == 0 ) {
+
+            return 0 ;
+        }
+
+        long nowTick = ( now - this.origin ) / this.tickNanos ;
+
+        if ( nowTick > this.tick ) {
+
+            // Each bucket is visited at most once, even after a long pause.
+            //
+            long last    = Math.min( nowTick                   ,
+                                     this.tick + this.mask + 1 ) ;
+            int  expired = this.mask + 1                         ;
+
+            for ( long t = this.tick + 1 ;
+                  t <= last              ;
+                  t += 1                 ) {
+
+                int bucket = (int)( t & this.mask ) ;
+
+                if ( ( this.bitmap[ bucket >>> 6 ] & ( 1L << bucket ) ) == 0 ) {
+
+                    continue ;
+                }
+
+                Timer timer = this.heads[ bucket ] ;
+
+                while ( timer != null ) {
+
+                    Timer next = timer.next ;
+
+                    if ( timer.deadline <= nowTick ) {
+
+                        this.unlink( timer ) ;
+
+                        this.link( timer   ,
+                                   expired ) ;
+                    }
+
+                    timer = next ;
+                }
+            }
+
+            this.tick = nowTick ;
+        }
+
+        int   ran   = 0 ;
+        Timer timer     ;
+
+        while ( ( timer = this.heads[ this.mask + 1 ] ) != null ) {
+
+            this.cancel( timer ) ;
+
+            ran += 1 ;
+
+            timer.task.run() ;
+        }
+
+        return ran ;
+    }
+
+
+
+
+
+
+
+
+    /**
+     * Class representing a timer, an intrusive node of a timing wheel.
+     * <p>
+     * A timer can be scheduled again once run or cancelled, and even while scheduled, without allocating anything.
+     */
+    public static class Timer {
+
+
+        // Task run when the timer expires.
+        //
+        final Runnable task     ;
+
+        // Wheel this timer is scheduled in, null if it is not.
+        //
+        TimingWheel    wheel    ;
+
+        // Bucket this timer is linked in.
+        //
+        int            bucket   ;
+
+        // Tick at which this timer expires.
+        //
+        long           deadline ;
+
+        // Neighbours in the bucket.
+        //
+        Timer          prev     ;
+        Timer          next     ;
+
+
+
+
+        /**
+         * Creates a timer, not scheduled yet.
+         *
+         * @param   task
+         *            Task to run when the timer expires.
+         *
+         * @see     TimingWheel#schedule( Timer, long, TimeUnit )
+         */
+        public Timer( Runnable task ) {
+
+            if ( task == null ) {
+
+                throw new NullPointerException( "Task must not be null" ) ;
+            }
+
+            this.task = task ;
+        }
+
+
+
+
+        /**
+         * Is this timer scheduled ?
+         *
+         * @return  True if it has not been run or cancelled yet.
+         */
+        public boolean isScheduled() {
+
+            return this.wheel != null ;
+        }
+
+
+
+
+        /**
+         * Cancels this timer, does nothing if it is not scheduled.
+         *
+         * @return  True if the timer was scheduled.
+         */
+        public boolean cancel() {
+
+            TimingWheel wheel = this.wheel ;
+
+            if ( wheel == null ) {
+
+                return false ;
+            }
+
+            wheel.cancel( this ) ;
+
+            return true ;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll.internal ;
+
+
+import com.sun.jna.Native        ;
+import com.sun.jna.NativeLibrary ;
+import com.sun.jna.Pointer       ;
+import io.helins.linux.Linux     ;
+
+
+
+
+// Backend relying on JNA direct mapping.
+//
+final class JnaEpoll extends NativeEpoll {
+
+
+    static {
+    
+        Native.register( "c" ) ;
+    }
+
+
+
+
+    //
+    // Private native functions.
+    //
+
+    private static native int epoll_create( int size ) ;
+
+
+    private static native int epoll_ctl( int     epfd  ,
+                                         int     op    ,
+                                         int     fd    ,
+                                         Pointer event ) ;
+
+
+    private static native int epoll_wait( int     epfd      ,
+                                          Pointer events    ,
+                                          int     maxevents ,
+                                          int     timeout   ) ;
+
+
+    private static native int epoll_pwait( int     epfd      ,
+                                           Pointer events    ,
+                                           int     maxevents ,
+                                           int     timeout   ,
+                                           Pointer sigmask   ) ;
+
+
+
+
+    // Is epoll_pwait2 available in the C library ?
+    //
+    private final boolean hasPwait2 ;
+
+
+
+
+    // Checks if epoll_pwait2 exists before trying to register it (glibc 2.35+).
+    //
+    JnaEpoll() {
+
+        boolean hasPwait2 ;
+
+        try {
+
+            NativeLibrary.getInstance( "c" ).getFunction( "epoll_pwait2" ) ;
+
+            hasPwait2 = true ;
+        }
+        catch ( UnsatisfiedLinkError e ) {
+
+            hasPwait2 = false ;
+        }
+
+        this.hasPwait2 = hasPwait2 ;
+    }
+
+
+
+
+    public String getName() {
+    
+        return "jna" ;
+    }
+
+
+
+
+    public int create( int size ) {
+    
+        return epoll_create( size ) ;
+    }
+
+
+
+
+    public int ctl( int     epfd  ,
+                    int     op    ,
+                    int     fd    ,
+                    Pointer event ) {
+    
+        return epoll_ctl( epfd  ,
+                          op    ,
+                          fd    ,
+                          event ) ;
+    }
+
+
+
+
+    public int wait( int     epfd      ,
+                     Pointer events    ,
+                     int     maxEvents ,
+                     int     timeout   ) {
+    
+        return epoll_wait( epfd      ,
+                           events    ,
+                           maxEvents ,
+                           timeout   ) ;
+    }
+
+
+
+
+    public int pwait( int     epfd      ,
+                      Pointer events    ,
+                      int     maxEvents ,
+                      int     timeout   ,
+                      Pointer sigmask   ) {
+    
+        return epoll_pwait( epfd      ,
+                            events    ,
+                            maxEvents ,
+                            timeout   ,
+                            sigmask   ) ;
+    }
+
+
+
+
+    public boolean hasPwait2() {
+    
+        return this.hasPwait2 ;
+    }
+
+
+
+
+    public int pwait2( int     epfd      ,
+                       Pointer events    ,
+                       int     maxEvents ,
+                       Pointer timeout   ,
+                       Pointer sigmask   ) {
+    
+        return JnaEpollPwait2.epoll_pwait2( epfd      ,
+                                            events    ,
+                                            maxEvents ,
+                                            timeout   ,
+                                            sigmask   ) ;
+    }
+
+
+
+
+    public int errno() {
+    
+        return Linux.getErrno() ;
+    }
+}
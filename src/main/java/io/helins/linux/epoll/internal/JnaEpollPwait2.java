@@ -0,0 +1,42 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll.internal ;
+
+
+import com.sun.jna.Native  ;
+import com.sun.jna.Pointer ;
+
+
+
+
+// Registered separately since epoll_pwait2 only exists in recent versions of the C library (glibc 2.35+).
+//
+// Only loaded once JnaEpoll knows the function exists.
+//
+final class JnaEpollPwait2 {
+
+
+    static {
+
+        Native.register( "c" ) ;
+    }
+
+
+
+
+    private JnaEpollPwait2() {}
+
+
+
+
+    static native int epoll_pwait2( int     epfd      ,
+                                    Pointer events    ,
+                                    int     maxevents ,
+                                    Pointer timeout   ,
+                                    Pointer sigmask   ) ;
+}
@@ -0,0 +1,201 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll.internal ;
+
+
+import com.sun.jna.Pointer ;
+
+
+
+
+/**
+ * Native backend performing epoll system calls, the user should not bother about it.
+ * <p>
+ * JNA is always available. On JDK 22+, the Foreign Function and Memory API is used instead unless the system
+ * property <code>io.helins.linux.epoll.backend</code> is set to <code>jna</code>.
+ */
+public abstract class NativeEpoll {
+
+
+    /**
+     * System property for choosing the backend, either <code>ffm</code> or <code>jna</code>.
+     */
+    public static final String PROPERTY = "io.helins.linux.epoll.backend" ;
+
+
+    /**
+     * Backend used by this library.
+     */
+    public static final NativeEpoll INSTANCE = NativeEpollLoader.load() ;
+
+
+
+
+    /**
+     * Name of this backend.
+     *
+     * @return  Either <code>ffm</code> or <code>jna</code>.
+     */
+    public abstract String getName() ;
+
+
+
+
+    /**
+     * Retrieves why the FFM backend could not be used, JNA being used instead.
+     *
+     * @return  The failure, null if FFM is used, has been disabled, or is not available on this JDK.
+     */
+    public static RuntimeException getFailure() {
+
+        return NativeEpollLoader.failure ;
+    }
+
+
+
+
+    /**
+     * Calls <code>epoll_create</code>.
+     *
+     * @param   size
+     *            Ignored by the kernel but must be positive.
+     *
+     * @return  File descriptor or -1.
+     */
+    public abstract int create( int size ) ;
+
+
+
+
+    /**
+     * Calls <code>epoll_ctl</code>.
+     *
+     * @param   epfd
+     *            Epoll file descriptor.
+     *
+     * @param   op
+     *            Operation.
+     *
+     * @param   fd
+     *            Target file descriptor.
+     *
+     * @param   event
+     *            Native epoll event, can be null for deletion.
+     *
+     * @return  0 or -1.
+     */
+    public abstract int ctl( int     epfd  ,
+                             int     op    ,
+                             int     fd    ,
+                             Pointer event ) ;
+
+
+
+
+    /**
+     * Calls <code>epoll_wait</code>.
+     *
+     * @param   epfd
+     *            Epoll file descriptor.
+     *
+     * @param   events
+     *            Array of native epoll events.
+     *
+     * @param   maxEvents
+     *            Size of the array.
+     *
+     * @param   timeout
+     *            In milliseconds, -1 for blocking.
+     *
+     * @return  How many events occured or -1.
+     */
+    public abstract int wait( int     epfd      ,
+                              Pointer events    ,
+                              int     maxEvents ,
+                              int     timeout   ) ;
+
+
+
+
+    /**
+     * Calls <code>epoll_pwait</code>.
+     *
+     * @param   epfd
+     *            Epoll file descriptor.
+     *
+     * @param   events
+     *            Array of native epoll events.
+     *
+     * @param   maxEvents
+     *            Size of the array.
+     *
+     * @param   timeout
+     *            In milliseconds, -1 for blocking.
+     *
+     * @param   sigmask
+     *            Native <code>sigset_t</code> used during the wait, can be null.
+     *
+     * @return  How many events occured or -1.
+     */
+    public abstract int pwait( int     epfd      ,
+                               Pointer events    ,
+                               int     maxEvents ,
+                               int     timeout   ,
+                               Pointer sigmask   ) ;
+
+
+
+
+    /**
+     * Is <code>epoll_pwait2</code> provided by the C library ?
+     * <p>
+     * Even if it is, the kernel might not support it (Linux 5.11+) and the call will fail with ENOSYS.
+     *
+     * @return  True if it is.
+     */
+    public abstract boolean hasPwait2() ;
+
+
+
+
+    /**
+     * Calls <code>epoll_pwait2</code>, only if {@link #hasPwait2()}.
+     *
+     * @param   epfd
+     *            Epoll file descriptor.
+     *
+     * @param   events
+     *            Array of native epoll events.
+     *
+     * @param   maxEvents
+     *            Size of the array.
+     *
+     * @param   timeout
+     *            Native <code>struct timespec</code>, null for blocking.
+     *
+     * @param   sigmask
+     *            Native <code>sigset_t</code> used during the wait, can be null.
+     *
+     * @return  How many events occured or -1.
+     */
+    public abstract int pwait2( int     epfd      ,
+                                Pointer events    ,
+                                int     maxEvents ,
+                                Pointer timeout   ,
+                                Pointer sigmask   ) ;
+
+
+
+
+    /**
+     * Retrieves the errno set by the last call of this backend on the current thread.
+     *
+     * @return  Errno.
+     */
+    public abstract int errno() ;
+}
@@ -8,6 +8,7 @@
 package io.helins.linux.epoll.internal ;
 
 
+import com.sun.jna.Platform  ;
 import com.sun.jna.Pointer   ;
 import com.sun.jna.Structure ;
 import java.util.Arrays      ;
@@ -53,7 +54,10 @@ public class NativeEpollEvent extends Structure {
 
     // Public constructor.
     //
-    public NativeEpollEvent() {}
+    public NativeEpollEvent() {
+    
+        super( alignment() ) ;
+    }
 
 
 
@@ -62,7 +66,20 @@ public class NativeEpollEvent extends Structure {
     //
     public NativeEpollEvent( Pointer ptr ) {
     
-        super( ptr ) ;
+        super( ptr         ,
+               alignment() ) ;
+    }
+
+
+
+
+    // On x86-64, the kernel declares the native structure as packed (12 bytes, user data right after the flags)
+    // whereas JNA would align the user data on 8 bytes by default.
+    //
+    private static int alignment() {
+    
+        return Platform.isIntel() && Platform.is64Bit() ? ALIGN_NONE
+                                                        : ALIGN_DEFAULT ;
     }
 
 
@@ -0,0 +1,36 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll.internal ;
+
+
+
+
+// Selects the native backend.
+//
+// Replaced in the multi-release jar for JDK 22+ by a version which tries the FFM backend first.
+//
+final class NativeEpollLoader {
+
+
+    // Why FFM could not be used, always null since it is never tried.
+    //
+    static RuntimeException failure = null ;
+
+
+
+
+    private NativeEpollLoader() {}
+
+
+
+
+    static NativeEpoll load() {
+    
+        return new JnaEpoll() ;
+    }
+}
@@ -0,0 +1,173 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll.internal ;
+
+
+import com.sun.jna.Native  ;
+import com.sun.jna.Pointer ;
+
+
+
+
+/**
+ * Native I/O functions shared by several classes, the user should not bother about it.
+ * <p>
+ * Counts are mapped to <code>int</code> instead of <code>size_t</code> so that calls do not allocate, which is fine
+ * since a java buffer cannot hold more than <code>Integer.MAX_VALUE</code> bytes anyway. Raw addresses are mapped to
+ * <code>long</code> so that calls on direct buffers do not need a {@link Pointer}, which assumes a 64-bit system.
+ * Those overloads, as well as <code>readv</code> and <code>writev</code>, must only be called when {@link #IS_64_BIT}
+ * holds.
+ */
+public final class NativeIO {
+
+
+    /**
+     * Are pointers and <code>long</code> 64-bit, as required by calls taking raw addresses or returning
+     * <code>ssize_t</code> ?
+     */
+    public static final boolean IS_64_BIT = Native.POINTER_SIZE == 8 && Native.LONG_SIZE == 8 ;
+
+
+
+
+    static {
+
+        Native.register( "c" ) ;
+    }
+
+
+
+
+    private NativeIO() {}
+
+
+
+
+    /**
+     * Calls <code>read</code>.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   buffer
+     *            Native buffer.
+     *
+     * @param   count
+     *            How many bytes at most.
+     *
+     * @return  How many bytes have been read or -1.
+     */
+    public static native int read( int     fd     ,
+                                   Pointer buffer ,
+                                   int     count  ) ;
+
+
+
+
+    /**
+     * Calls <code>write</code>.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   buffer
+     *            Native buffer.
+     *
+     * @param   count
+     *            How many bytes at most.
+     *
+     * @return  How many bytes have been written or -1.
+     */
+    public static native int write( int     fd     ,
+                                    Pointer buffer ,
+                                    int     count  ) ;
+
+
+
+
+    /**
+     * Calls <code>read</code> with a raw address.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   address
+     *            Address of native memory.
+     *
+     * @param   count
+     *            How many bytes at most.
+     *
+     * @return  How many bytes have been read or -1.
+     */
+    public static native int read( int  fd      ,
+                                   long address ,
+                                   int  count   ) ;
+
+
+
+
+    /**
+     * Calls <code>write</code> with a raw address.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   address
+     *            Address of native memory.
+     *
+     * @param   count
+     *            How many bytes at most.
+     *
+     * @return  How many bytes have been written or -1.
+     */
+    public static native int write( int  fd      ,
+                                    long address ,
+                                    int  count   ) ;
+
+
+
+
+    /**
+     * Calls <code>readv</code>.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   iov
+     *            Native array of struct iovec.
+     *
+     * @param   iovcnt
+     *            How many structs.
+     *
+     * @return  How many bytes have been read or -1.
+     */
+    public static native long readv( int     fd     ,
+                                     Pointer iov    ,
+                                     int     iovcnt ) ;
+
+
+
+
+    /**
+     * Calls <code>writev</code>.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   iov
+     *            Native array of struct iovec.
+     *
+     * @param   iovcnt
+     *            How many structs.
+     *
+     * @return  How many bytes have been written or -1.
+     */
+    public static native long writev( int     fd     ,
+                                      Pointer iov    ,
+                                      int     iovcnt ) ;
+}
@@ -0,0 +1,143 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll.internal ;
+
+
+import com.sun.jna.Native  ;
+import com.sun.jna.Pointer ;
+
+
+
+
+/**
+ * Native functions needed for io_uring, the user should not bother about it.
+ * <p>
+ * The C library does not wrap io_uring, hence its system calls go through <code>syscall</code>. Arguments are all
+ * integers or pointers, which are passed the same way to a variadic function on supported architectures.
+ */
+public final class NativeIoUring {
+
+
+    static {
+
+        Native.register( "c" ) ;
+    }
+
+
+
+
+    private NativeIoUring() {}
+
+
+
+
+    /**
+     * Calls <code>syscall</code> for <code>io_uring_setup</code>.
+     *
+     * @param   number
+     *            System call number.
+     *
+     * @param   entries
+     *            Requested number of submission entries.
+     *
+     * @param   params
+     *            Native struct io_uring_params.
+     *
+     * @return  The file descriptor of the new instance or -1.
+     */
+    public static native long syscall( long    number  ,
+                                       int     entries ,
+                                       Pointer params  ) ;
+
+
+
+
+    /**
+     * Calls <code>syscall</code> for <code>io_uring_enter</code>.
+     *
+     * @param   number
+     *            System call number.
+     *
+     * @param   fd
+     *            File descriptor of the io_uring instance.
+     *
+     * @param   toSubmit
+     *            How many submission entries to submit.
+     *
+     * @param   minComplete
+     *            How many completions to wait for.
+     *
+     * @param   flags
+     *            Flags.
+     *
+     * @param   arg
+     *            Extra argument, null if none.
+     *
+     * @param   argSize
+     *            Size of the extra argument.
+     *
+     * @return  How many submission entries have been consumed or -1.
+     */
+    public static native long syscall( long    number      ,
+                                       int     fd          ,
+                                       int     toSubmit    ,
+                                       int     minComplete ,
+                                       int     flags       ,
+                                       Pointer arg         ,
+                                       long    argSize     ) ;
+
+
+
+
+    /**
+     * Calls <code>mmap</code>.
+     *
+     * @param   address
+     *            Hint, null if none.
+     *
+     * @param   length
+     *            Length of the mapping.
+     *
+     * @param   prot
+     *            Memory protection.
+     *
+     * @param   flags
+     *            Flags.
+     *
+     * @param   fd
+     *            File descriptor.
+     *
+     * @param   offset
+     *            Offset in the file.
+     *
+     * @return  The mapping, or a pointer whose value is -1 (MAP_FAILED).
+     */
+    public static native Pointer mmap( Pointer address ,
+                                       long    length  ,
+                                       int     prot    ,
+                                       int     flags   ,
+                                       int     fd      ,
+                                       long    offset  ) ;
+
+
+
+
+    /**
+     * Calls <code>munmap</code>.
+     *
+     * @param   address
+     *            Mapping.
+     *
+     * @param   length
+     *            Length of the mapping.
+     *
+     * @return  0 or -1.
+     */
+    public static native int munmap( Pointer address ,
+                                     long    length  ) ;
+}
@@ -0,0 +1,253 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll.internal ;
+
+
+import com.sun.jna.Pointer                  ;
+import java.lang.foreign.Arena              ;
+import java.lang.foreign.FunctionDescriptor ;
+import java.lang.foreign.Linker             ;
+import java.lang.foreign.MemoryLayout       ;
+import java.lang.foreign.MemorySegment      ;
+import java.lang.foreign.StructLayout       ;
+import java.lang.foreign.ValueLayout        ;
+import java.lang.invoke.MethodHandle        ;
+import java.lang.invoke.VarHandle           ;
+
+
+
+
+// Backend relying on the Foreign Function and Memory API (JDK 22+).
+//
+// Native memory is still allocated by JNA so that the public API remains the same, pointers are passed to downcalls
+// as raw 64-bit addresses. Errno is captured in a segment private to each thread.
+//
+final class FfmEpoll extends NativeEpoll {
+
+
+    private static final StructLayout CAPTURE_LAYOUT = Linker.Option.captureStateLayout() ;
+
+    private static final VarHandle    ERRNO          = CAPTURE_LAYOUT.varHandle( MemoryLayout.PathElement.groupElement( "errno" ) ) ;
+
+
+
+
+    // Segment receiving errno for the current thread.
+    //
+    private final ThreadLocal< MemorySegment > captureState = ThreadLocal.withInitial( () -> Arena.ofAuto().allocate( CAPTURE_LAYOUT ) ) ;
+
+    // Downcall handles.
+    //
+    private final MethodHandle epollCreate ;
+    private final MethodHandle epollCtl    ;
+    private final MethodHandle epollWait   ;
+    private final MethodHandle epollPwait  ;
+
+    // Null if the C library does not provide epoll_pwait2.
+    //
+    private final MethodHandle epollPwait2 ;
+
+
+
+
+    // Links needed functions, throws if anything goes wrong.
+    //
+    FfmEpoll() {
+
+        if ( ValueLayout.ADDRESS.byteSize() != Long.BYTES ) {
+
+            throw new UnsupportedOperationException( "FFM backend requires 64-bit addresses" ) ;
+        }
+
+        Linker        linker  = Linker.nativeLinker()                     ;
+        Linker.Option capture = Linker.Option.captureCallState( "errno" ) ;
+
+        this.epollCreate = linker.downcallHandle( linker.defaultLookup().find( "epoll_create" ).orElseThrow() ,
+                                                  FunctionDescriptor.of( ValueLayout.JAVA_INT  ,
+                                                                         ValueLayout.JAVA_INT  ) ,
+                                                  capture                                                     ) ;
+
+        // Not a critical call, epoll_ctl takes kernel mutexes which can be contended when several threads register
+        // file descriptors concurrently, and a critical call would hold back safepoints meanwhile.
+        //
+        this.epollCtl    = linker.downcallHandle( linker.defaultLookup().find( "epoll_ctl" ).orElseThrow()    ,
+                                                  FunctionDescriptor.of( ValueLayout.JAVA_INT  ,
+                                                                         ValueLayout.JAVA_INT  ,
+                                                                         ValueLayout.JAVA_INT  ,
+                                                                         ValueLayout.JAVA_INT  ,
+                                                                         ValueLayout.JAVA_LONG ) ,
+                                                  capture                                                     ) ;
+
+        this.epollWait   = linker.downcallHandle( linker.defaultLookup().find( "epoll_wait" ).orElseThrow()   ,
+                                                  FunctionDescriptor.of( ValueLayout.JAVA_INT  ,
+                                                                         ValueLayout.JAVA_INT  ,
+                                                                         ValueLayout.JAVA_LONG ,
+                                                                         ValueLayout.JAVA_INT  ,
+                                                                         ValueLayout.JAVA_INT  ) ,
+                                                  capture                                                     ) ;
+
+        this.epollPwait  = linker.downcallHandle( linker.defaultLookup().find( "epoll_pwait" ).orElseThrow()  ,
+                                                  FunctionDescriptor.of( ValueLayout.JAVA_INT  ,
+                                                                         ValueLayout.JAVA_INT  ,
+                                                                         ValueLayout.JAVA_LONG ,
+                                                                         ValueLayout.JAVA_INT  ,
+                                                                         ValueLayout.JAVA_INT  ,
+                                                                         ValueLayout.JAVA_LONG ) ,
+                                                  capture                                                     ) ;
+
+        this.epollPwait2 = linker.defaultLookup()
+                                 .find( "epoll_pwait2" )
+                                 .map( symbol -> linker.downcallHandle( symbol                                         ,
+                                                                        FunctionDescriptor.of( ValueLayout.JAVA_INT  ,
+                                                                                               ValueLayout.JAVA_INT  ,
+                                                                                               ValueLayout.JAVA_LONG ,
+                                                                                               ValueLayout.JAVA_INT  ,
+                                                                                               ValueLayout.JAVA_LONG ,
+                                                                                               ValueLayout.JAVA_LONG ) ,
+                                                                        capture                                        ) )
+                                 .orElse( null ) ;
+    }
+
+
+
+
+    public String getName() {
+
+        return "ffm" ;
+    }
+
+
+
+
+    public int create( int size ) {
+
+        try {
+
+            return (int)this.epollCreate.invokeExact( this.captureState.get() ,
+                                                      size                    ) ;
+        }
+        catch ( Throwable e ) {
+
+            throw new IllegalStateException( "Unable to call epoll_create through FFM" ,
+                                             e                                          ) ;
+        }
+    }
+
+
+
+
+    public int ctl( int     epfd  ,
+                    int     op    ,
+                    int     fd    ,
+                    Pointer event ) {
+
+        try {
+
+            return (int)this.epollCtl.invokeExact( this.captureState.get()    ,
+                                                   epfd                       ,
+                                                   op                         ,
+                                                   fd                         ,
+                                                   Pointer.nativeValue( event ) ) ;
+        }
+        catch ( Throwable e ) {
+
+            throw new IllegalStateException( "Unable to call epoll_ctl through FFM" ,
+                                             e                                       ) ;
+        }
+    }
+
+
+
+
+    public int wait( int     epfd      ,
+                     Pointer events    ,
+                     int     maxEvents ,
+                     int     timeout   ) {
+
+        try {
+
+            return (int)this.epollWait.invokeExact( this.captureState.get()     ,
+                                                    epfd                        ,
+                                                    Pointer.nativeValue( events ) ,
+                                                    maxEvents                   ,
+                                                    timeout                     ) ;
+        }
+        catch ( Throwable e ) {
+
+            throw new IllegalStateException( "Unable to call epoll_wait through FFM" ,
+                                             e                                        ) ;
+        }
+    }
+
+
+
+
+    public int pwait( int     epfd      ,
+                      Pointer events    ,
+                      int     maxEvents ,
+                      int     timeout   ,
+                      Pointer sigmask   ) {
+
+        try {
+
+            return (int)this.epollPwait.invokeExact( this.captureState.get()      ,
+                                                     epfd                         ,
+                                                     Pointer.nativeValue( events  ) ,
+                                                     maxEvents                    ,
+                                                     timeout                      ,
+                                                     Pointer.nativeValue( sigmask ) ) ;
+        }
+        catch ( Throwable e ) {
+
+            throw new IllegalStateException( "Unable to call epoll_pwait through FFM" ,
+                                             e                                         ) ;
+        }
+    }
+
+
+
+
+    public boolean hasPwait2() {
+
+        return this.epollPwait2 != null ;
+    }
+
+
+
+
+    public int pwait2( int     epfd      ,
+                       Pointer events    ,
+                       int     maxEvents ,
+                       Pointer timeout   ,
+                       Pointer sigmask   ) {
+
+        try {
+
+            return (int)this.epollPwait2.invokeExact( this.captureState.get()      ,
+                                                      epfd                         ,
+                                                      Pointer.nativeValue( events  ) ,
+                                                      maxEvents                    ,
+                                                      Pointer.nativeValue( timeout ) ,
+                                                      Pointer.nativeValue( sigmask ) ) ;
+        }
+        catch ( Throwable e ) {
+
+            throw new IllegalStateException( "Unable to call epoll_pwait2 through FFM" ,
+                                             e                                          ) ;
+        }
+    }
+
+
+
+
+    public int errno() {
+
+        return (int)ERRNO.get( this.captureState.get() ,
+                               0L                      ) ;
+    }
+}
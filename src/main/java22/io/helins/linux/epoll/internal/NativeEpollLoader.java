@@ -0,0 +1,54 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll.internal ;
+
+
+import java.util.NoSuchElementException ;
+
+
+
+
+// Selects the native backend.
+//
+// JDK 22+ version of the loader, FFM is used unless JNA is explicitly requested or FFM cannot link the needed
+// functions (eg. native access has been denied).
+//
+final class NativeEpollLoader {
+
+
+    // Why FFM could not be used, null if it is used or has not been tried.
+    //
+    static RuntimeException failure = null ;
+
+
+
+
+    private NativeEpollLoader() {}
+
+
+
+
+    static NativeEpoll load() {
+
+        if ( "jna".equals( System.getProperty( NativeEpoll.PROPERTY ) ) == false ) {
+
+            try {
+
+                return new FfmEpoll() ;
+            }
+            catch ( IllegalArgumentException | IllegalCallerException | NoSuchElementException | UnsupportedOperationException e ) {
+
+                // Native access denied, missing symbol or unsupported platform, falls back to JNA.
+                //
+                failure = e ;
+            }
+        }
+
+        return new JnaEpoll() ;
+    }
+}
@@ -0,0 +1,158 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import io.helins.linux.epoll.Epoll           ;
+import io.helins.linux.epoll.EpollChangeList ;
+import io.helins.linux.epoll.EpollEvent      ;
+import io.helins.linux.epoll.EpollEvents     ;
+import io.helins.linux.epoll.EventFd         ;
+import java.io.IOException                   ;
+import org.junit.jupiter.api.AfterEach       ;
+import org.junit.jupiter.api.BeforeEach      ;
+import org.junit.jupiter.api.Test            ;
+
+import static org.junit.jupiter.api.Assertions.assertEquals ;
+import static org.junit.jupiter.api.Assertions.assertFalse  ;
+import static org.junit.jupiter.api.Assertions.assertTrue   ;
+
+
+
+
+// Runs against the real kernel, the change list drifting from it on purpose.
+//
+class EpollChangeListTest {
+
+
+    private static final int EPOLLIN = EpollEvent.Flag.EPOLLIN.getValue() ;
+
+
+
+
+    private Epoll           epoll      ;
+    private EpollChangeList changeList ;
+    private EventFd         eventFd    ;
+    private EpollEvents     events     ;
+
+
+
+
+    @BeforeEach
+    void setUp() throws IOException {
+
+        this.epoll      = new Epoll()                       ;
+        this.changeList = new EpollChangeList( this.epoll ) ;
+        this.eventFd    = new EventFd()                     ;
+        this.events     = new EpollEvents( 4 )              ;
+    }
+
+
+
+
+    @AfterEach
+    void tearDown() throws IOException {
+
+        this.eventFd.close() ;
+        this.epoll.close()   ;
+    }
+
+
+
+
+    // Removing a file descriptor the kernel does not hold anymore succeeds, it can then be monitored again.
+    //
+    @Test
+    void removeAfterKernelDropped() throws IOException {
+
+        this.changeList.set( this.eventFd.fd ,
+                             EPOLLIN         ,
+                             1L              ) ;
+        this.changeList.flush() ;
+
+        this.epoll.remove( this.eventFd.fd ) ;
+
+        this.changeList.remove( this.eventFd.fd ) ;
+        this.changeList.flush() ;
+
+        assertFalse( this.changeList.isMonitored( this.eventFd.fd ) ) ;
+
+        this.changeList.set( this.eventFd.fd ,
+                             EPOLLIN         ,
+                             2L              ) ;
+        this.changeList.flush() ;
+
+        this.eventFd.signal() ;
+
+        assertEquals( 1                                  ,
+                      this.epoll.wait( this.events ,
+                                       1000        ) ) ;
+        assertEquals( 2L                                 ,
+                      this.events.getUserData( 0 )       ) ;
+    }
+
+
+
+
+    // Modifying a file descriptor the kernel does not hold adds it instead.
+    //
+    @Test
+    void modifyAfterKernelDropped() throws IOException {
+
+        this.changeList.set( this.eventFd.fd ,
+                             EPOLLIN         ,
+                             1L              ) ;
+        this.changeList.flush() ;
+
+        this.epoll.remove( this.eventFd.fd ) ;
+
+        this.changeList.set( this.eventFd.fd ,
+                             EPOLLIN         ,
+                             2L              ) ;
+
+        assertEquals( 2                       ,
+                      this.changeList.flush() ) ;
+        assertTrue( this.changeList.isMonitored( this.eventFd.fd ) ) ;
+
+        this.eventFd.signal() ;
+
+        assertEquals( 1                                  ,
+                      this.epoll.wait( this.events ,
+                                       1000        ) ) ;
+        assertEquals( 2L                                 ,
+                      this.events.getUserData( 0 )       ) ;
+    }
+
+
+
+
+    // Adding a file descriptor the kernel already holds modifies it instead.
+    //
+    @Test
+    void addWhenKernelHolds() throws IOException {
+
+        this.epoll.add( this.eventFd.fd                                            ,
+                        new EpollEvent().setFlags( new EpollEvent.Flags().set( EpollEvent.Flag.EPOLLIN ) )
+                                        .setUserData( 1L )                         ) ;
+
+        this.changeList.set( this.eventFd.fd ,
+                             EPOLLIN         ,
+                             2L              ) ;
+
+        assertEquals( 2                       ,
+                      this.changeList.flush() ) ;
+
+        this.eventFd.signal() ;
+
+        assertEquals( 1                                  ,
+                      this.epoll.wait( this.events ,
+                                       1000        ) ) ;
+        assertEquals( 2L                                 ,
+                      this.events.getUserData( 0 )       ) ;
+    }
+}
@@ -0,0 +1,81 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import io.helins.linux.epoll.EpollEvent       ;
+import io.helins.linux.epoll.EpollEventLoop   ;
+import io.helins.linux.epoll.EventFd          ;
+import java.io.IOException                    ;
+import java.util.concurrent.CompletableFuture ;
+import org.junit.jupiter.api.AfterEach        ;
+import org.junit.jupiter.api.BeforeEach       ;
+import org.junit.jupiter.api.Test             ;
+
+import static org.junit.jupiter.api.Assertions.assertFalse ;
+import static org.junit.jupiter.api.Assertions.assertTrue  ;
+
+
+
+
+// Runs against the real kernel.
+//
+class EpollEventLoopTest {
+
+
+    private EpollEventLoop   loop   ;
+    private EventFd          first  ;
+    private EventFd          second ;
+    private EpollEvent.Flags in     ;
+
+
+
+
+    @BeforeEach
+    void setUp() throws IOException {
+
+        this.loop   = new EpollEventLoop()                                  ;
+        this.first  = new EventFd()                                         ;
+        this.second = new EventFd()                                         ;
+        this.in     = new EpollEvent.Flags().set( EpollEvent.Flag.EPOLLIN ) ;
+    }
+
+
+
+
+    @AfterEach
+    void tearDown() throws IOException {
+
+        this.loop.close()   ;
+        this.first.close()  ;
+        this.second.close() ;
+    }
+
+
+
+
+    // Closing from a handler is completed once the loop exits, pending readiness stages are then cancelled.
+    //
+    @Test
+    void closeFromHandler() throws IOException {
+
+        this.loop.register( this.first.fd                      ,
+                            this.in                            ,
+                            ( fd, flags ) -> this.loop.close() ) ;
+
+        CompletableFuture< EpollEvent.Flags > ready = this.loop.whenReady( this.second.fd ,
+                                                                           this.in        ).toCompletableFuture() ;
+
+        this.first.signal() ;
+
+        this.loop.run() ;
+
+        assertFalse( this.loop.isRunning() ) ;
+        assertTrue( ready.isCompletedExceptionally() ) ;
+    }
+}
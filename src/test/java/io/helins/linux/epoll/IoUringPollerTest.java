@@ -0,0 +1,232 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+
+
+
+package io.helins.linux.epoll ;
+
+
+import io.helins.linux.epoll.EpollEvent       ;
+import io.helins.linux.epoll.EpollEvents      ;
+import io.helins.linux.epoll.EventFd          ;
+import io.helins.linux.epoll.IoUringPoller    ;
+import java.io.IOException                    ;
+import org.junit.jupiter.api.AfterEach        ;
+import org.junit.jupiter.api.Assumptions      ;
+import org.junit.jupiter.api.BeforeEach       ;
+import org.junit.jupiter.api.Test             ;
+
+import static org.junit.jupiter.api.Assertions.assertEquals ;
+import static org.junit.jupiter.api.Assertions.assertFalse  ;
+import static org.junit.jupiter.api.Assertions.assertTrue   ;
+
+
+
+
+// Runs against the real kernel, skipped when io_uring cannot be used.
+//
+class IoUringPollerTest {
+
+
+    private IoUringPoller poller ;
+    private EventFd       first  ;
+    private EventFd       second ;
+    private EpollEvents   events ;
+    private EpollEvent    event  ;
+
+
+
+
+    @BeforeEach
+    void setUp() throws IOException {
+
+        try {
+
+            this.poller = new IoUringPoller() ;
+        }
+        catch ( IOException e ) {
+
+            Assumptions.assumeTrue( false                                     ,
+                                    "io_uring unavailable : " + e.getMessage() ) ;
+        }
+
+        this.first  = new EventFd()        ;
+        this.second = new EventFd()        ;
+        this.events = new EpollEvents( 8 ) ;
+        this.event  = new EpollEvent().setFlags( new EpollEvent.Flags().set( EpollEvent.Flag.EPOLLIN ) ) ;
+    }
+
+
+
+
+    @AfterEach
+    void tearDown() throws IOException {
+
+        if ( this.poller != null ) {
+
+            this.poller.close() ;
+            this.first.close()  ;
+            this.second.close() ;
+        }
+    }
+
+
+
+
+    // The cancelled timeout of a wait which returned events must not end the next wait early.
+    //
+    @Test
+    void blockingWaitAfterTimedWait() throws Exception {
+
+        this.poller.add( this.first.fd                ,
+                         this.event.setUserData( 1L ) ) ;
+        this.poller.add( this.second.fd               ,
+                         this.event.setUserData( 2L ) ) ;
+
+        this.first.signal() ;
+
+        assertEquals( 1                                   ,
+                      this.poller.wait( this.events ,
+                                        1000        ) ) ;
+        assertEquals( 1L                                  ,
+                      this.events.getUserData( 0 )        ) ;
+
+        this.first.drain() ;
+
+        Thread signaler = new Thread( () -> {
+
+            try {
+
+                Thread.sleep( 200 ) ;
+
+                this.second.signal() ;
+            }
+            catch ( Exception e ) {
+
+                throw new RuntimeException( e ) ;
+            }
+        } ) ;
+
+        signaler.start() ;
+
+        long start = System.nanoTime()                         ;
+        int  n     = this.poller.wait( this.events ,
+                                       -1          )           ;
+        long took  = ( System.nanoTime() - start ) / 1_000_000L ;
+
+        signaler.join() ;
+
+        assertEquals( 1                            ,
+                      n                            ) ;
+        assertEquals( 2L                           ,
+                      this.events.getUserData( 0 ) ) ;
+        assertTrue( took >= 150                                    ,
+                    "Blocking wait returned after " + took + " ms" ) ;
+    }
+
+
+
+
+    // A timed wait without events returns 0 once its timeout expires.
+    //
+    @Test
+    void timedWaitExpires() throws IOException {
+
+        this.poller.add( this.first.fd                ,
+                         this.event.setUserData( 1L ) ) ;
+
+        long start = System.nanoTime()                         ;
+        int  n     = this.poller.wait( this.events ,
+                                       100         )           ;
+        long took  = ( System.nanoTime() - start ) / 1_000_000L ;
+
+        assertEquals( 0                                         ,
+                      n                                         ) ;
+        assertTrue( took >= 100                                 ,
+                    "Timed wait returned after " + took + " ms" ) ;
+    }
+
+
+
+
+    // Completions of the poll request replaced by a modification are dropped.
+    //
+    @Test
+    void modifyDropsPreviousPoll() throws IOException {
+
+        this.first.signal() ;
+
+        this.poller.add( this.first.fd                   ,
+                         this.event.setUserData( 1L )    ) ;
+        this.poller.modify( this.first.fd                ,
+                            this.event.setUserData( 2L ) ) ;
+
+        int n = this.poller.wait( this.events ,
+                                  1000        ) ;
+
+        assertEquals( 1                            ,
+                      n                            ) ;
+        assertEquals( 2L                           ,
+                      this.events.getUserData( 0 ) ) ;
+    }
+
+
+
+
+    // Completions of a removed file descriptor are dropped, even when already posted.
+    //
+    @Test
+    void removeDropsPendingCompletions() throws IOException {
+
+        this.first.signal() ;
+
+        this.poller.add( this.first.fd                ,
+                         this.event.setUserData( 1L ) ) ;
+        this.poller.remove( this.first.fd ) ;
+
+        assertEquals( 0                                   ,
+                      this.poller.wait( this.events ,
+                                        100         ) ) ;
+    }
+
+
+
+
+    // Closing wakes up a thread blocked in a wait, which returns no event.
+    //
+    @Test
+    void closeWakesUpWaiter() throws Exception {
+
+        this.poller.add( this.first.fd                ,
+                         this.event.setUserData( 1L ) ) ;
+
+        int[] result = { -1 } ;
+
+        Thread waiter = new Thread( () -> {
+
+            try {
+
+                result[ 0 ] = this.poller.wait( this.events ,
+                                                -1          ) ;
+            }
+            catch ( IOException e ) {
+
+                throw new RuntimeException( e ) ;
+            }
+        } ) ;
+
+        waiter.start() ;
+
+        Thread.sleep( 100 ) ;
+
+        this.poller.close() ;
+
+        waiter.join( 1000 ) ;
+
+        assertFalse( waiter.isAlive() ) ;
+        assertEquals( 0           ,
+                      result[ 0 ] ) ;
+    }
+}